@@ -4,23 +4,84 @@ package com.company.vfs;
 import com.company.vfs.exception.BlockLimitExceededException;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Allocates blocks and links them into chains. Blocks are claimed by compare-and-set of 64-bit words
+ * of in-memory block map without any lock, while each chain is linked under lock of its stripe,
+ * so different files grow concurrently. Changes are persisted in crash-consistent order: new blocks
+ * are zeroed and marked allocated before they are linked into chain, and freed blocks are unlinked
+ * before they are marked free, so storage never has reachable block marked free.
+ * <p>
+ * Blocks are placed near goal block: chain grows into the block after its last one when it's free,
+ * otherwise it starts new run in empty map word of the same allocation group, so files growing
+ * concurrently get runs of their own instead of interleaving block by block.
+ * <p>
+ * Block manager grows in place: block map and table are copied to storage sized for more blocks
+ * under exclusive lock, while blocks are allocated and freed under shared one. Chains found in cache
+ * are read without either lock, so file data is read during growth.
+ */
 class BlockManager {
 
+    /**
+     * Places block map and table of grown block manager in underlying file.
+     */
+    interface Growth {
+
+        /**
+         * @return storage for block map and table of given number of blocks, which doesn't overlap
+         * neither data of that many blocks nor current block map and table
+         */
+        ByteStorage mapStorage(int maxBlocks) throws IOException;
+
+        /**
+         * Makes storage returned for given number of blocks current, called after it's written.
+         */
+        void commit(int maxBlocks) throws IOException;
+
+        /**
+         * @return the largest number of blocks underlying file can address
+         */
+        int getMaxBlocksLimit();
+    }
+
+    private interface Allocation<T> {
+        T allocate() throws IOException;
+    }
+
     private static final int NO_BLOCK = -1;
+    // block table is read in pages of entries, so walking chain of consecutive blocks costs one read per page
+    private static final int TABLE_PAGE_ENTRIES = 1024;
+    // blocks zeroed or copied by single bulk write
+    private static final int MAX_BUFFERED_BLOCKS = 64;
+    private static final int CHAIN_LOCK_STRIPES = 256;
+    // allocation group is a range of consecutive map words searched for room near goal block
+    private static final int GROUP_WORDS = 16;
 
     private final int blockSize;
-    private final int maxBlocks;
-    private final ByteStorage byteStorage;
+    // fields replaced by growth are read under growth lock, or without it where stale value is harmless
+    private volatile int maxBlocks;
+    private volatile ByteStorage byteStorage;
     private final ByteStorage dataBlocksStorage;
     private final int blockMapOffset;
-    private final int blockTableOffset;
-    private final BitSet blockMap;
-    private final ReadWriteLock lock;
+    private volatile int blockTableOffset;
+    private volatile AtomicLongArray blockMap;
+    private final ReadWriteLock growthLock = new ReentrantReadWriteLock();
+    private Growth growth;
+    private boolean autoGrowth;
+    private final AtomicInteger blockCount = new AtomicInteger();
+    // no word below has free bit, except ones freed concurrently with hint update, found by rescan
+    private final AtomicInteger firstFreeWord = new AtomicInteger();
+    // map bytes are computed from current words under this lock, so the last write of byte is never stale
+    private final Object mapWriteLock = new Object();
+    private final Object[] chainLocks = new Object[CHAIN_LOCK_STRIPES];
     private final Map<Integer, List<Integer>> blockChainCache = new ConcurrentHashMap<>();
 
     BlockManager(int blockSize, int maxBlocks, ByteStorage byteStorage, ByteStorage dataBlocksStorage) throws IOException {
@@ -33,21 +94,68 @@ class BlockManager {
         int blockMapLength = (maxBlocks + 7) / 8;
         byte[] blockMapBytes = new byte[blockMapLength];
         byteStorage.getBytes(blockMapOffset, blockMapBytes);
-        blockMap = BitSet.valueOf(blockMapBytes);
+
+        BitSet map = BitSet.valueOf(blockMapBytes);
+        map.clear(maxBlocks, blockMapLength * 8);
+        blockCount.set(map.cardinality());
+
+        // bits beyond the last block are set, so they are never claimed
+        long[] words = Arrays.copyOf(map.toLongArray(), (maxBlocks + 63) / 64);
+        if(maxBlocks % 64 != 0) {
+            words[words.length - 1] |= -1L << (maxBlocks % 64);
+        }
+        blockMap = new AtomicLongArray(words);
 
         this.blockTableOffset = blockMapLength;
 
-        this.lock = new ReentrantReadWriteLock();
+        for(int i = 0; i < chainLocks.length; ++i) {
+            chainLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Enables growth of block manager.
+     * @param automatic true to grow when there are no free blocks left, instead of throwing
+     *                  BlockLimitExceededException
+     */
+    void setGrowth(Growth growth, boolean automatic) {
+        this.growth = growth;
+        this.autoGrowth = automatic;
     }
 
     int allocateBlockChain() throws IOException {
-        lock.writeLock().lock();
-        try {
-            return allocateBlock();
+        return allocate(() -> allocateBlocks(NO_BLOCK, NO_BLOCK, 1)[0]);
+    }
+
+    /**
+     * Allocates block chain of given length at once.
+     * @param blockCount number of blocks in chain, should be positive
+     * @return first block of chain
+     */
+    int allocateBlockChain(int blockCount) throws IOException {
+        return allocateBlockChain(blockCount, NO_BLOCK);
+    }
+
+    /**
+     * Allocates block chain of given length at once, placing it near goal block if possible.
+     * @param blockCount number of blocks in chain, should be positive
+     * @param goalBlock block to place chain after, for example block of directory containing file,
+     *                  or -1 to take the lowest free blocks
+     * @return first block of chain
+     */
+    int allocateBlockChain(int blockCount, int goalBlock) throws IOException {
+        if(blockCount <= 0) {
+            throw new IllegalArgumentException("blockCount should be > 0");
         }
-        finally {
-            lock.writeLock().unlock();
+
+        int[] blocks = allocate(() -> allocateBlocks(NO_BLOCK, goalBlock < 0 ? NO_BLOCK : goalBlock + 1, blockCount));
+        List<Integer> chain = new ArrayList<>(blockCount - 1);
+        for (int i = 1; i < blockCount; ++i) {
+            chain.add(blocks[i]);
         }
+
+        blockChainCache.put(blocks[0], chain);
+        return blocks[0];
     }
 
     int getGlobalOffset(int firstBlock, int position) throws IOException {
@@ -59,17 +167,11 @@ class BlockManager {
             return firstBlock * blockSize + offsetInBlock;
         }
 
-        lock.readLock().lock();
-        try {
-            int blockIndex = getNthBlock(firstBlock, blockNumber);
-            if (blockIndex < 0) {
-                throw new IndexOutOfBoundsException("No block found for given position.");
-            }
-            return blockIndex * blockSize + offsetInBlock;
-        }
-        finally {
-            lock.readLock().unlock();
+        int blockIndex = getNthBlock(firstBlock, blockNumber);
+        if (blockIndex < 0) {
+            throw new IndexOutOfBoundsException("No block found for given position.");
         }
+        return blockIndex * blockSize + offsetInBlock;
     }
 
     int ensureGlobalOffset(int firstBlock, int position) throws IOException {
@@ -81,73 +183,122 @@ class BlockManager {
             return firstBlock * blockSize + offsetInBlock;
         }
 
-        lock.writeLock().lock();
+        int blockIndex = allocate(() -> {
+            synchronized (chainLock(firstBlock)) {
+                return ensureNthBlock(firstBlock, blockNumber);
+            }
+        });
+        return blockIndex * blockSize + offsetInBlock;
+    }
+
+    /**
+     * @return number of blocks in chain starting with given block
+     */
+    int getBlockChainLength(int firstBlock) throws IOException {
+        growthLock.readLock().lock();
         try {
-            int blockIndex = ensureNthBlock(firstBlock, blockNumber);
-            return blockIndex * blockSize + offsetInBlock;
+            synchronized (chainLock(firstBlock)) {
+                return getBlockChain(firstBlock).size() + 1;
+            }
         }
         finally {
-            lock.writeLock().unlock();
+            growthLock.readLock().unlock();
         }
     }
 
     void truncateBlockChain(int firstBlock, int size) throws IOException {
-        lock.writeLock().lock();
+        if(size <= 0) {
+            throw new IllegalArgumentException("size should be > 0");
+        }
+
+        if(firstBlock < 0) {
+            throw new IllegalArgumentException("invalid firstBlock");
+        }
+
+        growthLock.readLock().lock();
         try {
+            List<Integer> freedBlocks;
+            synchronized (chainLock(firstBlock)) {
+                int keptBlocks = (size + blockSize - 1) / blockSize;
+                List<Integer> chain = getBlockChain(firstBlock);
+                if(chain.size() < keptBlocks) {
+                    return;
+                }
 
-            if(size <= 0) {
-                throw new IllegalArgumentException("size should be > 0");
+                // blocks after the last kept one are only marked free, their table entries are rewritten on allocation
+                setNextBlock(keptBlocks == 1 ? firstBlock : chain.get(keptBlocks - 2), NO_BLOCK);
+                blockChainCache.put(firstBlock, new ArrayList<>(chain.subList(0, keptBlocks - 1)));
+                freedBlocks = chain.subList(keptBlocks - 1, chain.size());
             }
 
-            if(firstBlock < 0) {
-                throw new IllegalArgumentException("invalid firstBlock");
-            }
+            releaseBlocks(freedBlocks);
+        }
+        finally {
+            growthLock.readLock().unlock();
+        }
+    }
 
-            int currentBlock = firstBlock;
-            int previousBlock = NO_BLOCK;
-            int maxBlocks = (size + blockSize - 1) / blockSize;
-            int blockCount = 1;
+    void deallocateBlockChain(int firstBlock) throws IOException {
+        deallocateBlockChains(Collections.singletonList(firstBlock));
+    }
 
-            while (currentBlock >= 0) {
-                int nextBlock = getNextBlock(currentBlock);
+    /**
+     * Deallocates several block chains at once. Chains are read from block table in pages
+     * and each run of changed bytes of block map is written once.
+     * @param firstBlocks first blocks of chains to deallocate
+     */
+    void deallocateBlockChains(Collection<Integer> firstBlocks) throws IOException {
+        growthLock.readLock().lock();
+        try {
+            List<Integer> freedBlocks = new ArrayList<>();
+            TableReader tableReader = new TableReader();
+            for(int firstBlock: firstBlocks) {
+                if(firstBlock < 0) {
+                    continue;
+                }
 
-                if(blockCount > maxBlocks) {
-                    setDeallocated(currentBlock);
-                    if(previousBlock >= 0) {
-                        setNextBlock(previousBlock, NO_BLOCK);
+                synchronized (chainLock(firstBlock)) {
+                    List<Integer> chain = blockChainCache.remove(firstBlock);
+                    if(chain == null) {
+                        chain = tableReader.readChain(firstBlock);
                     }
-                }
 
-                previousBlock = currentBlock;
-                currentBlock = nextBlock;
-                ++blockCount;
+                    freedBlocks.add(firstBlock);
+                    freedBlocks.addAll(chain);
+                }
             }
 
-            List<Integer> cachedBlockChain = blockChainCache.get(firstBlock);
-            if(cachedBlockChain != null) {
-                cachedBlockChain = cachedBlockChain.subList(0, maxBlocks - 1);
-                blockChainCache.put(firstBlock, cachedBlockChain);
-            }
+            releaseBlocks(freedBlocks);
         }
         finally {
-            lock.writeLock().unlock();
+            growthLock.readLock().unlock();
         }
     }
 
-    void deallocateBlockChain(int firstBlock) throws IOException {
-        int currentBlock = firstBlock;
-        lock.writeLock().lock();
+    /**
+     * Grows block manager to given number of blocks. Block map and table are written to new storage
+     * and switched to after that, so old ones stay valid until growth is committed.
+     * @throws IllegalArgumentException if maxBlocks isn't greater than current number of blocks
+     * or exceeds limit of underlying file
+     * @throws UnsupportedOperationException if growth isn't enabled
+     */
+    void grow(int maxBlocks) throws IOException {
+        if(growth == null) {
+            throw new UnsupportedOperationException("Growth isn't enabled.");
+        }
+        if(maxBlocks > growth.getMaxBlocksLimit()) {
+            throw new IllegalArgumentException("maxBlocks exceeds limit of " + growth.getMaxBlocksLimit());
+        }
+
+        growthLock.writeLock().lock();
         try {
-            while (currentBlock >= 0) {
-                int nextBlock = getNextBlock(currentBlock);
-                setDeallocated(currentBlock);
-                currentBlock = nextBlock;
+            if(maxBlocks <= this.maxBlocks) {
+                throw new IllegalArgumentException("maxBlocks should be greater than " + this.maxBlocks);
             }
-
-            blockChainCache.remove(firstBlock);
+            growTo(maxBlocks);
         }
         finally {
-            lock.writeLock().unlock();
+            growthLock.writeLock().unlock();
         }
     }
 
@@ -157,25 +308,22 @@ class BlockManager {
             return firstBlock;
         }
 
+        // cached chains are never modified in place, so they are read without lock
         List<Integer> cachedBlockChain = blockChainCache.get(firstBlock);
         if(cachedBlockChain == null) {
-
-            int currentBlock = firstBlock;
-            cachedBlockChain = new ArrayList<>();
-
-            while(currentBlock >= 0) {
-                currentBlock = getNextBlock(currentBlock);
-                if(currentBlock < 0) {
-                    break;
+            growthLock.readLock().lock();
+            try {
+                synchronized (chainLock(firstBlock)) {
+                    cachedBlockChain = getBlockChain(firstBlock);
                 }
-                cachedBlockChain.add(currentBlock);
             }
-
-            blockChainCache.put(firstBlock, cachedBlockChain);
+            finally {
+                growthLock.readLock().unlock();
+            }
         }
 
         --blockNumber;
-        if(blockNumber > cachedBlockChain.size()) {
+        if(blockNumber >= cachedBlockChain.size()) {
             return NO_BLOCK;
         }
 
@@ -188,66 +336,450 @@ class BlockManager {
             return firstBlock;
         }
 
-        int currentBlock = firstBlock;
         --blockNumber;
+        List<Integer> chain = getBlockChain(firstBlock);
+        if(blockNumber < chain.size()) {
+            return chain.get(blockNumber);
+        }
 
-        List<Integer> cachedBlockChain = blockChainCache.get(firstBlock);
-        if(cachedBlockChain == null) {
-            cachedBlockChain = new ArrayList<>();
+        // all missing blocks are allocated at once, list is copied for modifications as it can be read concurrently
+        int lastBlock = chain.isEmpty() ? firstBlock : chain.get(chain.size() - 1);
+        List<Integer> extendedChain = new ArrayList<>(chain);
+        for(int block: allocateBlocks(lastBlock, lastBlock + 1, blockNumber - chain.size() + 1)) {
+            extendedChain.add(block);
         }
 
-        if(blockNumber < cachedBlockChain.size()) {
-            return cachedBlockChain.get(blockNumber);
+        blockChainCache.put(firstBlock, extendedChain);
+        return extendedChain.get(blockNumber);
+    }
+
+    /**
+     * Should be called under lock of chain.
+     * @return blocks of chain after the first one, read from cache or block table
+     */
+    private List<Integer> getBlockChain(int firstBlock) throws IOException {
+        List<Integer> chain = blockChainCache.get(firstBlock);
+        if(chain == null) {
+            chain = new TableReader().readChain(firstBlock);
+            blockChainCache.put(firstBlock, chain);
         }
-        else
-        {
-            int cachedChainSize = cachedBlockChain.size();
-            if(cachedChainSize > 0) {
-                currentBlock = cachedBlockChain.get(cachedChainSize - 1);
-                blockNumber -= cachedChainSize;
-                cachedBlockChain = new ArrayList<>(cachedBlockChain); // copy list for modifications
+        return chain;
+    }
+
+    private Object chainLock(int firstBlock) {
+        return chainLocks[Math.floorMod(firstBlock, CHAIN_LOCK_STRIPES)];
+    }
+
+    /**
+     * Runs allocation under shared growth lock. When there are no free blocks and growth is automatic,
+     * block manager is grown and allocation is retried, each retry doubles number of blocks.
+     */
+    private <T> T allocate(Allocation<T> allocation) throws IOException {
+        while(true) {
+            int failedMaxBlocks;
+            growthLock.readLock().lock();
+            try {
+                return allocation.allocate();
             }
+            catch (BlockLimitExceededException e) {
+                if(!autoGrowth) {
+                    throw e;
+                }
+                failedMaxBlocks = maxBlocks;
+            }
+            finally {
+                growthLock.readLock().unlock();
+            }
+
+            growthLock.writeLock().lock();
+            try {
+                // another thread could grow block manager since allocation failed
+                if(maxBlocks == failedMaxBlocks) {
+                    int grownMaxBlocks = (int) Math.min(2L * maxBlocks, growth.getMaxBlocksLimit());
+                    if(grownMaxBlocks <= maxBlocks) {
+                        throw new BlockLimitExceededException();
+                    }
+                    growTo(grownMaxBlocks);
+                }
+            }
+            finally {
+                growthLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Should be called under exclusive growth lock. Block map and table are written to new storage before
+     * growth is committed, so crash leaves either old or new ones in use, and data storage is extended
+     * before blocks beyond old limit can be claimed.
+     */
+    private void growTo(int maxBlocks) throws IOException {
+        int oldMaxBlocks = this.maxBlocks;
+        long[] words = new long[(maxBlocks + 63) / 64];
+        for(int word = 0; word < blockMap.length(); ++word) {
+            words[word] = blockMap.get(word) & rangeMask(word, 0, oldMaxBlocks);
+        }
+        if(maxBlocks % 64 != 0) {
+            words[words.length - 1] |= -1L << (maxBlocks % 64);
         }
 
-        while(blockNumber >= 0) {
-            int nextBlock = getNextBlock(currentBlock);
-            if(nextBlock < 0) {
-                nextBlock = allocateNextBlock(currentBlock);
+        ByteStorage storage = growth.mapStorage(maxBlocks);
+        int blockMapLength = (maxBlocks + 7) / 8;
+        ByteBuffer map = ByteBuffer.allocate(words.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        map.asLongBuffer().put(words);
+        byte[] mapBytes = Arrays.copyOf(map.array(), blockMapLength);
+        if(maxBlocks % 8 != 0) {
+            mapBytes[blockMapLength - 1] &= (1 << maxBlocks % 8) - 1;
+        }
+        storage.putBytes(blockMapOffset, mapBytes);
+
+        // table entries of new blocks are left zero, they are written when blocks are allocated
+        byte[] table = new byte[TABLE_PAGE_ENTRIES * Integer.BYTES];
+        for(int block = 0; block < oldMaxBlocks; block += TABLE_PAGE_ENTRIES) {
+            int length = Math.min(TABLE_PAGE_ENTRIES, oldMaxBlocks - block) * Integer.BYTES;
+            byteStorage.getBytes(blockTableOffset + block * Integer.BYTES, table, 0, length);
+            storage.putBytes(blockMapLength + block * Integer.BYTES, table, 0, length);
+        }
+
+        growth.commit(maxBlocks);
+        dataBlocksStorage.grow(maxBlocks * blockSize);
+
+        this.byteStorage = storage;
+        this.blockTableOffset = blockMapLength;
+        this.blockMap = new AtomicLongArray(words);
+        this.maxBlocks = maxBlocks;
+    }
+
+    /**
+     * Allocates blocks linked into chain after given block. All blocks are claimed before anything is written,
+     * then zeroed data, block table and block map are written in runs of consecutive blocks,
+     * and only then blocks are linked to previous block.
+     * @param previousBlock block to link first allocated block to, or NO_BLOCK
+     * @param goalBlock preferred first block, or NO_BLOCK, each next block prefers the one after previous
+     * @return allocated blocks in chain order
+     */
+    private int[] allocateBlocks(int previousBlock, int goalBlock, int count) throws IOException {
+        int[] blocks = new int[count];
+        for(int i = 0; i < count; ++i) {
+            blocks[i] = claimBlock(i == 0 ? goalBlock : blocks[i - 1] + 1);
+            if(blocks[i] == NO_BLOCK) {
+                for(int k = 0; k < i; ++k) {
+                    releaseBit(blocks[k]);
+                }
+                throw new BlockLimitExceededException();
             }
-            currentBlock = nextBlock;
-            cachedBlockChain.add(currentBlock);
-            --blockNumber;
         }
 
-        blockChainCache.put(firstBlock, cachedBlockChain);
-        return currentBlock;
+        for(int start = 0, end; start < count; start = end) {
+            end = runEnd(blocks, start, MAX_BUFFERED_BLOCKS);
+            dataBlocksStorage.putBytes(blocks[start] * blockSize, new byte[(end - start) * blockSize]);
+        }
+
+        writeChain(blocks);
+
+        if(previousBlock >= 0) {
+            setNextBlock(previousBlock, blocks[0]);
+        }
+        return blocks;
     }
 
-    private int getNextBlock(int block) throws IOException {
-        int offset = blockTableOffset + block * 4;
-        return byteStorage.getInt(offset);
+    /**
+     * Writes block table entries linking claimed blocks in given order and marks them allocated in block map.
+     */
+    private void writeChain(int[] blocks) throws IOException {
+        for(int start = 0, end; start < blocks.length; start = end) {
+            end = runEnd(blocks, start, Integer.MAX_VALUE);
+            ByteBuffer entries = ByteBuffer.allocate((end - start) * Integer.BYTES);
+            for(int i = start; i < end; ++i) {
+                entries.putInt(i + 1 < blocks.length ? blocks[i + 1] : NO_BLOCK);
+            }
+            byteStorage.putBytes(blockTableOffset + blocks[start] * Integer.BYTES, entries.array());
+        }
+
+        BitSet changedBytes = new BitSet();
+        for(int block: blocks) {
+            changedBytes.set(block / 8);
+        }
+        writeMapBytes(changedBytes);
     }
 
-    private int allocateBlock() throws IOException {
-        int block = blockMap.nextClearBit(0);
-        if(block >= maxBlocks) {
-            throw new BlockLimitExceededException();
+    /**
+     * Copies chain into run of consecutive free blocks, when chain consists of several runs, or when such run
+     * is found before its first block. Copy is persisted before it's returned and original chain is left
+     * untouched, so caller switches reference to returned block and only then deallocates original chain.
+     * Chain should not be modified concurrently.
+     * @return first block of copy or -1 if chain is left in place
+     */
+    int relocateBlockChain(int firstBlock) throws IOException {
+        growthLock.readLock().lock();
+        try {
+            return relocateChain(firstBlock);
+        }
+        finally {
+            growthLock.readLock().unlock();
         }
+    }
 
-        setAllocated(block);
-        setNextBlock(block, NO_BLOCK);
+    private int relocateChain(int firstBlock) throws IOException {
+        List<Integer> chain;
+        synchronized (chainLock(firstBlock)) {
+            chain = getBlockChain(firstBlock);
+        }
 
-        // fill allocated block with zeros
-        byte zeros[] = new byte[blockSize];
-        dataBlocksStorage.putBytes(blockSize * block, zeros);
+        int count = chain.size() + 1;
+        int[] blocks = new int[count];
+        blocks[0] = firstBlock;
+        for(int i = 1; i < count; ++i) {
+            blocks[i] = chain.get(i - 1);
+        }
 
+        boolean contiguous = runEnd(blocks, 0, Integer.MAX_VALUE) == count;
+        int start = claimRun(count, contiguous ? firstBlock : maxBlocks);
+        if(start == NO_BLOCK) {
+            return NO_BLOCK;
+        }
+
+        int[] copy = new int[count];
+        byte[] buffer = new byte[Math.min(count, MAX_BUFFERED_BLOCKS) * blockSize];
+        for(int i = 0, end; i < count; i = end) {
+            end = runEnd(blocks, i, MAX_BUFFERED_BLOCKS);
+            int length = (end - i) * blockSize;
+            dataBlocksStorage.getBytes(blocks[i] * blockSize, buffer, 0, length);
+            dataBlocksStorage.putBytes((start + i) * blockSize, buffer, 0, length);
+        }
+
+        List<Integer> copyChain = new ArrayList<>(count - 1);
+        for(int i = 0; i < count; ++i) {
+            copy[i] = start + i;
+            if(i > 0) {
+                copyChain.add(copy[i]);
+            }
+        }
+        writeChain(copy);
+
+        blockChainCache.put(start, copyChain);
+        return start;
+    }
+
+    /**
+     * @return number of blocks before the end of the last allocated block
+     */
+    int getHighWaterMark() {
+        // read without growth lock, blocks claimed after grown map is published are written after this returns
+        int maxBlocks = this.maxBlocks;
+        AtomicLongArray blockMap = this.blockMap;
+        for(int word = Math.min(blockMap.length(), (maxBlocks + 63) / 64) - 1; word >= 0; --word) {
+            long value = blockMap.get(word) & rangeMask(word, 0, maxBlocks);
+            if(value != 0) {
+                return word * 64 + 64 - Long.numberOfLeadingZeros(value);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Claims the lowest run of given number of consecutive free blocks starting before limit.
+     * @return first block of run or NO_BLOCK if there is no such run
+     */
+    private int claimRun(int count, int limit) {
+        int start = nextFreeBlock(firstFreeWord.get() * 64);
+        while(start < limit && start + count <= maxBlocks) {
+            int allocated = nextAllocatedBlock(start, start + count);
+            if(allocated < 0) {
+                allocated = claimRange(start, start + count);
+                if(allocated < 0) {
+                    return start;
+                }
+            }
+            start = nextFreeBlock(allocated + 1);
+        }
+        return NO_BLOCK;
+    }
+
+    /**
+     * Claims all blocks of range or none of them.
+     * @return NO_BLOCK if range is claimed, otherwise allocated block which prevented it
+     */
+    private int claimRange(int from, int to) {
+        for(int word = from / 64; word * 64 < to; ++word) {
+            long mask = rangeMask(word, from, to);
+            long value = blockMap.get(word);
+            while((value & mask) == 0 && !blockMap.compareAndSet(word, value, value | mask)) {
+                value = blockMap.get(word);
+            }
+
+            if((value & mask) != 0) {
+                for(int block = from; block < Math.max(from, word * 64); ++block) {
+                    releaseBit(block);
+                }
+                return word * 64 + Long.numberOfTrailingZeros(value & mask);
+            }
+            blockCount.addAndGet(Long.bitCount(mask));
+        }
+        return NO_BLOCK;
+    }
+
+    // first free block at or after given one, blocks beyond the last one are never free
+    private int nextFreeBlock(int from) {
+        for(int word = from / 64; word < blockMap.length(); ++word) {
+            long free = ~blockMap.get(word) & rangeMask(word, from, maxBlocks);
+            if(free != 0) {
+                return word * 64 + Long.numberOfTrailingZeros(free);
+            }
+        }
+        return maxBlocks;
+    }
+
+    private int nextAllocatedBlock(int from, int to) {
+        for(int word = from / 64; word * 64 < to; ++word) {
+            long allocated = blockMap.get(word) & rangeMask(word, from, to);
+            if(allocated != 0) {
+                return word * 64 + Long.numberOfTrailingZeros(allocated);
+            }
+        }
+        return NO_BLOCK;
+    }
+
+    // bits of word for blocks in range
+    private static long rangeMask(int word, int from, int to) {
+        long mask = -1L;
+        if(from > word * 64) {
+            mask &= -1L << (from - word * 64);
+        }
+        if(to < word * 64 + 64) {
+            mask &= ~(-1L << (to - word * 64));
+        }
+        return mask;
+    }
+
+    /**
+     * Claims goal block if it's free, otherwise the first block of empty word in allocation group of goal
+     * or the next group, otherwise free block after goal in its group, otherwise the lowest free block.
+     * @return claimed block or NO_BLOCK if there are no free blocks
+     */
+    private int claimBlock(int goalBlock) {
+        if(goalBlock >= 0 && goalBlock < maxBlocks) {
+            int goalWord = goalBlock / 64;
+            if(claimInWord(goalWord, 1L << (goalBlock % 64)) >= 0) {
+                return goalBlock;
+            }
+
+            int groupEnd = Math.min(blockMap.length(), (goalWord / GROUP_WORDS + 2) * GROUP_WORDS);
+            for(int word = goalWord + 1; word < groupEnd; ++word) {
+                if(blockMap.get(word) == 0 && claimInWord(word, 1L) >= 0) {
+                    return word * 64;
+                }
+            }
+
+            int block = claimInWord(goalWord, -1L << (goalBlock % 64));
+            for(int word = goalWord + 1; block < 0 && word < groupEnd; ++word) {
+                block = claimInWord(word, -1L);
+            }
+            if(block >= 0) {
+                return block;
+            }
+        }
+
+        return claimLowestBlock();
+    }
+
+    /**
+     * Claims the lowest free block found from hint. If hint was raised past block freed concurrently,
+     * map is rescanned from the beginning before limit is reported.
+     */
+    private int claimLowestBlock() {
+        int hint = firstFreeWord.get();
+        int block = claimLowestBlock(hint);
+        if(block == NO_BLOCK && hint > 0) {
+            block = claimLowestBlock(0);
+        }
         return block;
     }
 
-    private int allocateNextBlock(int block) throws IOException {
-        int allocatedBlock = allocateBlock();
-        setNextBlock(block, allocatedBlock);
-        return allocatedBlock;
+    private int claimLowestBlock(int fromWord) {
+        for(int word = fromWord; word < blockMap.length(); ++word) {
+            int block = claimInWord(word, -1L);
+            if(block >= 0) {
+                if(word > fromWord) {
+                    firstFreeWord.compareAndSet(fromWord, word);
+                }
+                return block;
+            }
+        }
+        return NO_BLOCK;
+    }
+
+    /**
+     * Claims the lowest free block of word among blocks selected by mask.
+     * @return claimed block or NO_BLOCK if all selected blocks are allocated
+     */
+    private int claimInWord(int word, long mask) {
+        long value = blockMap.get(word);
+        while((~value & mask) != 0) {
+            long bit = Long.lowestOneBit(~value & mask);
+            if(blockMap.compareAndSet(word, value, value | bit)) {
+                blockCount.incrementAndGet();
+                return word * 64 + Long.numberOfTrailingZeros(bit);
+            }
+            value = blockMap.get(word);
+        }
+        return NO_BLOCK;
+    }
+
+    /**
+     * @return number of runs of consecutive blocks in chain starting with given block
+     */
+    int getRunCount(int firstBlock) throws IOException {
+        List<Integer> chain;
+        growthLock.readLock().lock();
+        try {
+            synchronized (chainLock(firstBlock)) {
+                chain = getBlockChain(firstBlock);
+            }
+        }
+        finally {
+            growthLock.readLock().unlock();
+        }
+
+        int runs = 1;
+        int previous = firstBlock;
+        for(int block: chain) {
+            if(block != previous + 1) {
+                ++runs;
+            }
+            previous = block;
+        }
+        return runs;
+    }
+
+    private void releaseBlocks(List<Integer> blocks) throws IOException {
+        BitSet changedBytes = new BitSet();
+        for(int block: blocks) {
+            releaseBit(block);
+            changedBytes.set(block / 8);
+        }
+        writeMapBytes(changedBytes);
+    }
+
+    private void releaseBit(int block) {
+        int word = block / 64;
+        long bit = 1L << (block % 64);
+        long value = blockMap.get(word);
+        while(!blockMap.compareAndSet(word, value, value & ~bit)) {
+            value = blockMap.get(word);
+        }
+
+        blockCount.decrementAndGet();
+        firstFreeWord.accumulateAndGet(word, Math::min);
+    }
+
+    // end of run of consecutive blocks starting at given index, limited to given length
+    private static int runEnd(int[] blocks, int start, int maxLength) {
+        int end = start + 1;
+        while(end < blocks.length && end - start < maxLength && blocks[end] == blocks[end - 1] + 1) {
+            ++end;
+        }
+        return end;
     }
 
     private void setNextBlock(int block, int nextBlock) throws IOException {
@@ -255,6 +787,30 @@ class BlockManager {
         byteStorage.putInt(offset, nextBlock);
     }
 
+    /**
+     * Writes each run of changed bytes of block map from current in-memory words with single bulk write.
+     */
+    private void writeMapBytes(BitSet changedBytes) throws IOException {
+        synchronized (mapWriteLock) {
+            int start = changedBytes.nextSetBit(0);
+            while(start >= 0) {
+                int end = changedBytes.nextClearBit(start);
+                byte[] run = new byte[end - start];
+                for(int i = start; i < end; ++i) {
+                    run[i - start] = mapByte(i);
+                }
+                byteStorage.putBytes(blockMapOffset + start, run);
+                start = changedBytes.nextSetBit(end);
+            }
+        }
+    }
+
+    private byte mapByte(int byteIndex) {
+        long value = blockMap.get(byteIndex / 8) >>> (byteIndex % 8 * 8);
+        int bitsInByte = Math.min(8, maxBlocks - byteIndex * 8);
+        return (byte) (value & (1 << bitsInByte) - 1);
+    }
+
     static int size(int maxBlocks) {
         int blockMapLength = (maxBlocks + 7) / 8;
         int blockTableLength = maxBlocks * 4;
@@ -266,32 +822,52 @@ class BlockManager {
     }
 
     int getBlockCount() {
-        lock.readLock().lock();
-        try {
-            return blockMap.cardinality();
-        }
-        finally {
-            lock.readLock().unlock();
-        }
+        return blockCount.get();
     }
 
     int getBlockSize() {
         return blockSize;
     }
 
-    private void setAllocated(int block) throws IOException {
-        blockMap.set(block);
-        int byteOffset = blockMapOffset + block / 8;
-        byte mapByte = byteStorage.getByte(byteOffset);
-        mapByte |= 1 << (block % 8);
-        byteStorage.putByte(byteOffset, mapByte);
+    static byte mapByte(BitSet map, int byteIndex) {
+        int value = 0;
+        for(int bit = 0; bit < 8; ++bit) {
+            if(map.get(byteIndex * 8 + bit)) {
+                value |= 1 << bit;
+            }
+        }
+        return (byte) value;
     }
 
-    private void setDeallocated(int block) throws IOException {
-        blockMap.clear(block);
-        int byteOffset = blockMapOffset + block / 8;
-        byte mapByte = byteStorage.getByte(byteOffset);
-        mapByte &= ~(1 << (block % 8));
-        byteStorage.putByte(byteOffset, mapByte);
+    /**
+     * Reads block table in pages of consecutive entries, page is reused while chain stays within it.
+     */
+    private class TableReader {
+
+        private final byte[] bytes = new byte[TABLE_PAGE_ENTRIES * Integer.BYTES];
+        private final ByteBuffer page = ByteBuffer.wrap(bytes);
+        private int pageStart = -1;
+        private int pageLength = 0;
+
+        /**
+         * @return blocks of chain after the first one
+         */
+        List<Integer> readChain(int firstBlock) throws IOException {
+            List<Integer> chain = new ArrayList<>();
+            for(int block = getNextBlock(firstBlock); block >= 0; block = getNextBlock(block)) {
+                chain.add(block);
+            }
+            return chain;
+        }
+
+        int getNextBlock(int block) throws IOException {
+            if(block < pageStart || block >= pageStart + pageLength) {
+                pageStart = block - block % TABLE_PAGE_ENTRIES;
+                pageLength = Math.min(TABLE_PAGE_ENTRIES, maxBlocks - pageStart);
+                byteStorage.getBytes(blockTableOffset + pageStart * Integer.BYTES, bytes, 0,
+                        pageLength * Integer.BYTES);
+            }
+            return page.getInt((block - pageStart) * Integer.BYTES);
+        }
     }
 }
@@ -0,0 +1,132 @@
+package com.company.vfs;
+
+import java.io.IOException;
+
+/**
+ * Bloom filter of directory entry names stored in its own block chain. Names are hashed in their
+ * UTF-8 encoding, so hashes of path regions and of encoded directory records are equal.
+ * Filter is never cleared, removed names are forgotten only when filter is rebuilt.
+ */
+class BloomFilter {
+
+    static final int BITS_PER_ENTRY = 10;
+    static final int HASH_COUNT = 7;
+
+    // filter is built for twice the number of entries, so it's rebuilt after as many changes
+    private static final int CAPACITY_FACTOR = 2;
+    private static final int MIN_BITS = 512;
+
+    private final BlockManager blockManager;
+    private final ByteStorage dataBlocksStorage;
+
+    BloomFilter(BlockManager blockManager, ByteStorage dataBlocksStorage) {
+        this.blockManager = blockManager;
+        this.dataBlocksStorage = dataBlocksStorage;
+    }
+
+    /**
+     * @return number of bits of filter built for given number of entries, multiple of 8
+     */
+    static int bitsFor(int entryCount) {
+        long bits = (long) entryCount * CAPACITY_FACTOR * BITS_PER_ENTRY;
+        bits = Math.max(MIN_BITS, (bits + 7) / 8 * 8);
+        return (int) Math.min(bits, Integer.MAX_VALUE - 7);
+    }
+
+    /**
+     * @return number of names which can be added to filter of given size keeping false positive rate low
+     */
+    static int capacity(int bits) {
+        return bits / BITS_PER_ENTRY;
+    }
+
+    /**
+     * Hashes UTF-8 encoding of string region, unpaired surrogates are encoded as '?' the same way
+     * String.getBytes does.
+     */
+    static long hash(String string, int start, int end) {
+        long hash = Hashing.FNV_OFFSET_BASIS;
+        for (int i = start; i < end; ++i) {
+            int length = PathUtils.utf8CharLength(string, i, end);
+            int codePoint = string.charAt(i);
+            if (length == 4) {
+                codePoint = Character.toCodePoint((char) codePoint, string.charAt(++i));
+            }
+            else if (length == 1 && codePoint >= 0x80) {
+                codePoint = '?';
+            }
+
+            for (int k = 0; k < length; ++k) {
+                hash = Hashing.fnv(hash, PathUtils.utf8Byte(codePoint, length, k) & 0xFF);
+            }
+        }
+        return Hashing.mix(hash);
+    }
+
+    /**
+     * Hashes first length bytes of UTF-8 encoded name.
+     */
+    static long hash(byte[] bytes, int length) {
+        long hash = Hashing.FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; ++i) {
+            hash = Hashing.fnv(hash, bytes[i] & 0xFF);
+        }
+        return Hashing.mix(hash);
+    }
+
+    /**
+     * Allocates block chain and writes filter containing given hashes in bulk.
+     * @return first block of filter
+     */
+    int create(int bits, long[] hashes, int count) throws IOException {
+        byte[] filter = new byte[bits / 8];
+        for (int i = 0; i < count; ++i) {
+            for (int k = 0; k < HASH_COUNT; ++k) {
+                int bit = bitIndex(hashes[i], k, bits);
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+
+        int firstBlock = blockManager.allocateBlockChain(blockCount(bits));
+        int blockSize = blockManager.getBlockSize();
+        for (int position = 0; position < filter.length; position += blockSize) {
+            int offset = blockManager.getGlobalOffset(firstBlock, position);
+            dataBlocksStorage.putBytes(offset, filter, position, Math.min(blockSize, filter.length - position));
+        }
+        return firstBlock;
+    }
+
+    void add(int firstBlock, int bits, long hash) throws IOException {
+        for (int k = 0; k < HASH_COUNT; ++k) {
+            int bit = bitIndex(hash, k, bits);
+            int offset = blockManager.getGlobalOffset(firstBlock, bit >>> 3);
+            byte value = dataBlocksStorage.getByte(offset);
+            dataBlocksStorage.putByte(offset, (byte) (value | 1 << (bit & 7)));
+        }
+    }
+
+    /**
+     * @return false if name with given hash was certainly never added to filter
+     */
+    boolean mightContain(int firstBlock, int bits, long hash) throws IOException {
+        for (int k = 0; k < HASH_COUNT; ++k) {
+            int bit = bitIndex(hash, k, bits);
+            int offset = blockManager.getGlobalOffset(firstBlock, bit >>> 3);
+            if ((dataBlocksStorage.getByte(offset) & 1 << (bit & 7)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int blockCount(int bits) {
+        int blockSize = blockManager.getBlockSize();
+        return (bits / 8 + blockSize - 1) / blockSize;
+    }
+
+    // double hashing, second hash is odd, so probes never collapse into single bit
+    private static int bitIndex(long hash, int k, int bits) {
+        long combined = (int) hash + (long) k * ((int) (hash >>> 32) | 1);
+        return (int) Math.floorMod(combined, (long) bits);
+    }
+}
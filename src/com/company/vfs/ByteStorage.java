@@ -1,6 +1,7 @@
 package com.company.vfs;
 
 import java.io.IOException;
+import java.util.function.IntSupplier;
 
 interface ByteStorage {
 
@@ -19,4 +20,17 @@ interface ByteStorage {
     void putBytes(int offset, byte[] source) throws IOException;
 
     void putBytes(int offset, byte[] source, int sourceOffset, int length) throws IOException;
+
+    /**
+     * Releases space beyond length returned by given supplier, if storage supports it. Length is computed
+     * when no other access to storage is in progress, storage grows back when data beyond it is accessed.
+     */
+    default void truncate(IntSupplier length) throws IOException {
+    }
+
+    /**
+     * Extends storage to given length. Storage which can't be extended should already be long enough.
+     */
+    default void grow(int length) throws IOException {
+    }
 }
@@ -0,0 +1,64 @@
+package com.company.vfs;
+
+/**
+ * Immutable snapshot of counters of metadata cache, which keeps recently used entry records in memory.
+ */
+public final class CacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+    private final int capacity;
+
+    CacheStatistics(long hits, long misses, long evictions, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return number of lookups answered by cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups which loaded record from storage
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of records evicted to keep cache within its capacity
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of cached records
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return maximum number of cached records
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return fraction of lookups answered by cache, 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,163 @@
+package com.company.vfs;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * Storage mapped to region of file in chunks of fixed size. Chunk is mapped, and file is extended to its end,
+ * only when data in it is accessed, so region of any length costs address space and file length of used
+ * chunks only, and disk space of written pages only on file systems supporting sparse files.
+ */
+class ChunkedFileByteStorage implements ByteStorage {
+
+    private final String path;
+    private final int offset;
+    private final int chunkSize;
+    private int length;
+    private ByteBuffer[] chunks;
+
+    ChunkedFileByteStorage(String path, int offset, int length, int chunkSize) {
+        if(chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize should be > 0");
+        }
+
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.chunks = new ByteBuffer[chunkCount(length)];
+    }
+
+    @Override
+    public void putByte(int offset, byte value) throws IOException {
+        chunk(offset).put(offset % chunkSize, value);
+    }
+
+    @Override
+    public byte getByte(int offset) throws IOException {
+        return chunk(offset).get(offset % chunkSize);
+    }
+
+    @Override
+    public int getInt(int offset) throws IOException {
+        if(offset % chunkSize + Integer.BYTES <= chunkSize) {
+            return chunk(offset).getInt(offset % chunkSize);
+        }
+
+        byte[] bytes = new byte[Integer.BYTES];
+        getBytes(offset, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    @Override
+    public void putInt(int offset, int value) throws IOException {
+        if(offset % chunkSize + Integer.BYTES <= chunkSize) {
+            chunk(offset).putInt(offset % chunkSize, value);
+            return;
+        }
+
+        putBytes(offset, ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+    }
+
+    @Override
+    public void getBytes(int offset, byte[] dst) throws IOException {
+        getBytes(offset, dst, 0, dst.length);
+    }
+
+    @Override
+    public void getBytes(int offset, byte[] dst, int dstOffset, int length) throws IOException {
+        while(length > 0) {
+            ByteBuffer chunk = chunk(offset);
+            int count = Math.min(length, chunk.capacity() - offset % chunkSize);
+            chunk.position(offset % chunkSize);
+            chunk.get(dst, dstOffset, count);
+            offset += count;
+            dstOffset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void putBytes(int offset, byte[] source) throws IOException {
+        putBytes(offset, source, 0, source.length);
+    }
+
+    @Override
+    public void putBytes(int offset, byte[] source, int sourceOffset, int length) throws IOException {
+        while(length > 0) {
+            ByteBuffer chunk = chunk(offset);
+            int count = Math.min(length, chunk.capacity() - offset % chunkSize);
+            chunk.position(offset % chunkSize);
+            chunk.put(source, sourceOffset, count);
+            offset += count;
+            sourceOffset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Unmaps chunks after the one containing the last byte of new length and truncates file after it.
+     * Region followed by other data in file is left as is.
+     */
+    @Override
+    public void truncate(IntSupplier length) throws IOException {
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw")) {
+            if(randomAccessFile.length() > offset + (long) this.length) {
+                return;
+            }
+
+            int keptChunks = chunkCount(Math.max(0, Math.min(this.length, length.getAsInt())));
+            long end = offset + Math.min((long) keptChunks * chunkSize, this.length);
+            if(end >= randomAccessFile.length()) {
+                return;
+            }
+
+            Arrays.fill(chunks, keptChunks, chunks.length, null);
+            randomAccessFile.setLength(end);
+        }
+    }
+
+    @Override
+    public void grow(int length) {
+        if(length <= this.length) {
+            return;
+        }
+
+        // the last chunk could be mapped shorter than chunk size, it's mapped again as a whole
+        int lastChunk = chunks.length - 1;
+        if(lastChunk >= 0 && chunks[lastChunk] != null && chunks[lastChunk].capacity() < chunkSize) {
+            chunks[lastChunk] = null;
+        }
+
+        this.length = length;
+        chunks = Arrays.copyOf(chunks, chunkCount(length));
+    }
+
+    private ByteBuffer chunk(int offset) throws IOException {
+        if(offset < 0 || offset >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int index = offset / chunkSize;
+        ByteBuffer chunk = chunks[index];
+        if(chunk == null) {
+            long start = (long) index * chunkSize;
+            try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw");
+                FileChannel channel = randomAccessFile.getChannel()) {
+                // file is extended to the end of mapped chunk
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, this.offset + start,
+                        Math.min(chunkSize, length - start));
+            }
+            chunks[index] = chunk;
+        }
+        return chunk;
+    }
+
+    private int chunkCount(int length) {
+        return (int) (((long) length + chunkSize - 1) / chunkSize);
+    }
+}
@@ -0,0 +1,39 @@
+package com.company.vfs;
+
+/**
+ * Immutable result of compaction. Storage file ends after the last allocated block,
+ * so its data region is as long as high-water mark.
+ */
+public final class CompactionStatistics {
+
+    private final int relocatedEntries;
+    private final long relocatedBlocks;
+    private final int highWaterMark;
+
+    CompactionStatistics(int relocatedEntries, long relocatedBlocks, int highWaterMark) {
+        this.relocatedEntries = relocatedEntries;
+        this.relocatedBlocks = relocatedBlocks;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return number of files and directories whose data was moved
+     */
+    public int getRelocatedEntries() {
+        return relocatedEntries;
+    }
+
+    /**
+     * @return number of moved blocks
+     */
+    public long getRelocatedBlocks() {
+        return relocatedBlocks;
+    }
+
+    /**
+     * @return number of blocks before the end of the last allocated block after compaction
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+}
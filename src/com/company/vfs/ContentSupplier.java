@@ -0,0 +1,18 @@
+package com.company.vfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Supplies content of file created by batch operation.
+ */
+@FunctionalInterface
+public interface ContentSupplier {
+
+    /**
+     * Opens stream over file content, stream is closed after content is written.
+     * @return stream over file content
+     * @throws IOException to stop batch operation with exception
+     */
+    InputStream open() throws IOException;
+}
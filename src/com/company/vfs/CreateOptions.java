@@ -0,0 +1,100 @@
+package com.company.vfs;
+
+/**
+ * Immutable set of options of new virtual file system. Options are stored in header of vfs file,
+ * so they are kept when file is opened again.
+ */
+public final class CreateOptions {
+
+    private static final CreateOptions DEFAULTS = new CreateOptions(false, false, false, false);
+
+    private final boolean pathIndex;
+    private final boolean delayedAllocation;
+    private final boolean autoGrowth;
+    private final boolean sparseImage;
+
+    private CreateOptions(boolean pathIndex, boolean delayedAllocation, boolean autoGrowth, boolean sparseImage) {
+        this.pathIndex = pathIndex;
+        this.delayedAllocation = delayedAllocation;
+        this.autoGrowth = autoGrowth;
+        this.sparseImage = sparseImage;
+    }
+
+    /**
+     * @return options with all features disabled
+     */
+    public static CreateOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Enables persistent index of full paths. Lookups of indexed paths cost single probe of index
+     * and confirmation in parent directory regardless of path depth, while moving directory
+     * costs rehashing paths of its whole subtree.
+     * @param enabled true to maintain path index
+     * @return options with changed value
+     */
+    public CreateOptions withPathIndex(boolean enabled) {
+        return new CreateOptions(enabled, delayedAllocation, autoGrowth, sparseImage);
+    }
+
+    /**
+     * Enables delayed allocation of blocks written by output streams. Written data is buffered in memory
+     * and blocks are allocated when stream is flushed or closed, as one run sized to the whole written range.
+     * Data isn't visible to readers and quota is checked only when stream is flushed or closed.
+     * @param enabled true to delay allocation
+     * @return options with changed value
+     */
+    public CreateOptions withDelayedAllocation(boolean enabled) {
+        return new CreateOptions(pathIndex, enabled, autoGrowth, sparseImage);
+    }
+
+    /**
+     * Enables automatic growth. When there are no free blocks left, file system doubles its maximum number
+     * of blocks in place instead of throwing BlockLimitExceededException, until file size limit is reached.
+     * @param enabled true to grow automatically
+     * @return options with changed value
+     */
+    public CreateOptions withAutoGrowth(boolean enabled) {
+        return new CreateOptions(pathIndex, delayedAllocation, enabled, sparseImage);
+    }
+
+    /**
+     * Enables sparse image. Underlying file is extended and mapped in chunks as blocks in them are used,
+     * instead of being extended to the size of all blocks at once, so file system of large maximum
+     * number of blocks is created instantly and takes space of written blocks only.
+     * @param enabled true to extend file on demand
+     * @return options with changed value
+     */
+    public CreateOptions withSparseImage(boolean enabled) {
+        return new CreateOptions(pathIndex, delayedAllocation, autoGrowth, enabled);
+    }
+
+    /**
+     * @return true if path index is maintained, otherwise false
+     */
+    public boolean isPathIndexEnabled() {
+        return pathIndex;
+    }
+
+    /**
+     * @return true if output streams delay allocation of blocks, otherwise false
+     */
+    public boolean isDelayedAllocationEnabled() {
+        return delayedAllocation;
+    }
+
+    /**
+     * @return true if file system grows when it runs out of blocks, otherwise false
+     */
+    public boolean isAutoGrowthEnabled() {
+        return autoGrowth;
+    }
+
+    /**
+     * @return true if underlying file is extended in chunks as blocks are used, otherwise false
+     */
+    public boolean isSparseImageEnabled() {
+        return sparseImage;
+    }
+}
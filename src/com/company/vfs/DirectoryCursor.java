@@ -0,0 +1,240 @@
+package com.company.vfs;
+
+import com.company.vfs.Metadata.Type;
+import com.company.vfs.exception.FileFormatException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight cursor over records of directory contents. Fields of current record are read directly
+ * from data blocks, name bytes are copied into reused buffer only when name is accessed, so moving
+ * over records doesn't create objects. Cursor doesn't track concurrent modifications and should be
+ * used under structure lock.
+ */
+class DirectoryCursor {
+
+    private static final int INITIAL_NAME_CAPACITY = 64;
+
+    private final BlockManager blockManager;
+    private final ByteStorage dataBlocksStorage;
+    private final int blockSize;
+
+    private int firstBlock;
+    private int dataLength;
+    private int position;
+    private int nextPosition;
+
+    private int metadataId;
+    private Type type;
+    private int nameLength;
+    private byte[] name = new byte[INITIAL_NAME_CAPACITY];
+    private boolean nameLoaded;
+
+    DirectoryCursor(BlockManager blockManager, ByteStorage dataBlocksStorage) {
+        this.blockManager = blockManager;
+        this.dataBlocksStorage = dataBlocksStorage;
+        this.blockSize = blockManager.getBlockSize();
+    }
+
+    /**
+     * Positions cursor before record at given position of directory contents.
+     * @return this cursor
+     */
+    DirectoryCursor reset(Metadata directory, int position) throws IOException {
+        this.firstBlock = directory.getFirstBlock();
+        this.dataLength = directory.getDataLength();
+        this.position = -1;
+        this.nextPosition = position;
+        return this;
+    }
+
+    /**
+     * Moves to the next live record, removed records are skipped.
+     * @return false if there are no more records
+     */
+    boolean next() throws IOException {
+        while (nextRecord()) {
+            if (metadataId != FileSystemEntry.TOMBSTONE_ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next record, including removed one.
+     * @return false if there are no more records
+     */
+    boolean nextRecord() throws IOException {
+        if (nextPosition >= dataLength) {
+            return false;
+        }
+
+        int namePosition = nextPosition + FileSystemEntry.NAME_OFFSET;
+        if (namePosition > dataLength) {
+            throw new FileFormatException("Invalid file system entry format.");
+        }
+
+        position = nextPosition;
+        metadataId = readInt(position);
+        nameLength = readInt(position + FileSystemEntry.NAME_LENGTH_OFFSET);
+        if (nameLength < 0 || nameLength > dataLength - namePosition) {
+            throw new FileFormatException("Invalid file system entry format.");
+        }
+
+        try {
+            type = Type.valueOf(dataBlocksStorage.getByte(offset(position + Integer.BYTES)));
+        }
+        catch (IllegalArgumentException e) {
+            throw new FileFormatException("Invalid file system entry format.");
+        }
+
+        nextPosition = namePosition + nameLength;
+        nameLoaded = false;
+        return true;
+    }
+
+    /**
+     * @return position of current record
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return position following current record
+     */
+    int getNextPosition() {
+        return nextPosition;
+    }
+
+    int getRecordLength() {
+        return nextPosition - position;
+    }
+
+    int getMetadataId() {
+        return metadataId;
+    }
+
+    boolean isTombstone() {
+        return metadataId == FileSystemEntry.TOMBSTONE_ID;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * @return length of UTF-8 encoded name
+     */
+    int getNameLength() {
+        return nameLength;
+    }
+
+    /**
+     * @return buffer containing UTF-8 encoded name in first getNameLength() bytes,
+     * buffer is reused and changes when cursor moves
+     */
+    byte[] getNameBytes() throws IOException {
+        loadName();
+        return name;
+    }
+
+    /**
+     * @return true if name is equal to given region of string
+     */
+    boolean nameEquals(String string, int start, int end) throws IOException {
+        if (PathUtils.utf8Length(string, start, end) != nameLength) {
+            return false;
+        }
+
+        loadName();
+        int index = 0;
+        for (int i = start; i < end; ++i) {
+            int length = PathUtils.utf8CharLength(string, i, end);
+            int codePoint = string.charAt(i);
+            if (length == 4) {
+                codePoint = Character.toCodePoint((char) codePoint, string.charAt(++i));
+            }
+            else if (length == 1 && codePoint >= 0x80) {
+                codePoint = '?';
+            }
+
+            for (int k = 0; k < length; ++k) {
+                if (name[index++] != PathUtils.utf8Byte(codePoint, length, k)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param prefix UTF-8 encoded prefix
+     * @return true if name starts with given prefix
+     */
+    boolean nameStartsWith(byte[] prefix) throws IOException {
+        if (prefix.length > nameLength) {
+            return false;
+        }
+
+        loadName();
+        for (int i = 0; i < prefix.length; ++i) {
+            if (name[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return decoded name, allocates new string
+     */
+    String getName() throws IOException {
+        loadName();
+        return new String(name, 0, nameLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return entry created from current record
+     */
+    FileSystemEntry toEntry() throws IOException {
+        return new FileSystemEntry(metadataId, getName(), type);
+    }
+
+    private void loadName() throws IOException {
+        if (nameLoaded) {
+            return;
+        }
+
+        if (name.length < nameLength) {
+            name = new byte[Math.max(nameLength, name.length * 2)];
+        }
+
+        int namePosition = position + FileSystemEntry.NAME_OFFSET;
+        int loaded = 0;
+        while (loaded < nameLength) {
+            int length = Math.min(nameLength - loaded, blockSize - (namePosition + loaded) % blockSize);
+            dataBlocksStorage.getBytes(offset(namePosition + loaded), name, loaded, length);
+            loaded += length;
+        }
+        nameLoaded = true;
+    }
+
+    private int readInt(int position) throws IOException {
+        if (position % blockSize <= blockSize - Integer.BYTES) {
+            return dataBlocksStorage.getInt(offset(position));
+        }
+
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; ++i) {
+            value = (value << 8) | (dataBlocksStorage.getByte(offset(position + i)) & 0xFF);
+        }
+        return value;
+    }
+
+    private int offset(int position) throws IOException {
+        return blockManager.getGlobalOffset(firstBlock, position);
+    }
+}
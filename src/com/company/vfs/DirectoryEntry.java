@@ -0,0 +1,54 @@
+package com.company.vfs;
+
+/**
+ * Immutable entry of directory listing.
+ */
+public final class DirectoryEntry {
+
+    private final String name;
+    private final int id;
+    private final boolean directory;
+    private final long size;
+
+    DirectoryEntry(String name, int id, boolean directory, long size) {
+        this.name = name;
+        this.id = id;
+        this.directory = directory;
+        this.size = size;
+    }
+
+    /**
+     * @return name of entry inside its directory
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return id of entry, unique among existing entries of filesystem
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return true if entry is directory, otherwise false
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return true if entry is file, otherwise false
+     */
+    public boolean isFile() {
+        return !directory;
+    }
+
+    /**
+     * @return length of file data in bytes, for directories length of directory contents
+     */
+    public long getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,117 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.FileFormatException;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Header stored at the beginning of contents of non-empty directory.
+ * Empty directories have no contents, so their header fields have default values.
+ */
+class DirectoryHeader {
+
+    // offsets of filter fields, which are read in place by lookups
+    static final int FILTER_BLOCK_OFFSET = 8;
+    static final int FILTER_BITS_OFFSET = 12;
+
+    // entry count, slack, filter block, filter bits and removed count fields
+    static final int BYTES = 5 * Integer.BYTES;
+
+    private int entryCount;
+    private int slack;
+    private int filterBlock = Metadata.NO_BLOCK;
+    private int filterBits;
+    private int removedCount;
+
+    DirectoryHeader() {
+    }
+
+    DirectoryHeader(int entryCount, int slack) {
+        this.entryCount = entryCount;
+        this.slack = slack;
+    }
+
+    /**
+     * @return number of live entries in directory
+     */
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    void setEntryCount(int entryCount) {
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * @return number of bytes occupied by removed entries
+     */
+    int getSlack() {
+        return slack;
+    }
+
+    void setSlack(int slack) {
+        this.slack = slack;
+    }
+
+    /**
+     * @return first block of Bloom filter of entry names, or NO_BLOCK if directory has no filter
+     */
+    int getFilterBlock() {
+        return filterBlock;
+    }
+
+    int getFilterBits() {
+        return filterBits;
+    }
+
+    void setFilter(int filterBlock, int filterBits) {
+        this.filterBlock = filterBlock;
+        this.filterBits = filterBits;
+        this.removedCount = 0;
+    }
+
+    boolean hasFilter() {
+        return filterBlock != Metadata.NO_BLOCK;
+    }
+
+    /**
+     * @return number of entries removed since filter was built, their names are still set in filter
+     */
+    int getRemovedCount() {
+        return removedCount;
+    }
+
+    void setRemovedCount(int removedCount) {
+        this.removedCount = removedCount;
+    }
+
+    static DirectoryHeader read(DataInputStream dataInputStream) throws IOException {
+        try {
+            DirectoryHeader header = new DirectoryHeader(dataInputStream.readInt(), dataInputStream.readInt());
+            header.filterBlock = dataInputStream.readInt();
+            header.filterBits = dataInputStream.readInt();
+            header.removedCount = dataInputStream.readInt();
+            if (header.entryCount < 0 || header.slack < 0 || header.filterBits < 0 || header.removedCount < 0 ||
+                    (header.hasFilter() && (header.filterBlock < 0 || header.filterBits == 0))) {
+                throw new FileFormatException("Invalid directory header format.");
+            }
+            return header;
+        }
+        catch (EOFException e) {
+            throw new FileFormatException("Invalid directory header format.");
+        }
+    }
+
+    byte[] toBytes() {
+        return ByteBuffer.allocate(BYTES)
+                .putInt(entryCount)
+                .putInt(slack)
+                .putInt(filterBlock)
+                .putInt(filterBits)
+                .putInt(removedCount)
+                .array();
+    }
+}
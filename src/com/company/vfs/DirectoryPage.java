@@ -0,0 +1,32 @@
+package com.company.vfs;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single page of directory listing.
+ */
+public final class DirectoryPage {
+
+    private final List<DirectoryEntry> entries;
+    private final String continuationToken;
+
+    DirectoryPage(List<DirectoryEntry> entries, String continuationToken) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * @return entries of this page in directory order
+     */
+    public List<DirectoryEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return token which can be passed to request following page, or null if this page is the last one
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+}
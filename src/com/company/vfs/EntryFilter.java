@@ -0,0 +1,80 @@
+package com.company.vfs;
+
+/**
+ * Immutable criteria of entries returned by walk and find operations.
+ * Name and type criteria are checked on directory records, so entries rejected by them
+ * don't require reading their metadata.
+ */
+public final class EntryFilter {
+
+    private static final EntryFilter ALL = new EntryFilter(null, true, true, 0, Long.MAX_VALUE);
+
+    private final GlobPattern namePattern;
+    private final boolean files;
+    private final boolean directories;
+    private final long minSize;
+    private final long maxSize;
+
+    private EntryFilter(GlobPattern namePattern, boolean files, boolean directories, long minSize, long maxSize) {
+        this.namePattern = namePattern;
+        this.files = files;
+        this.directories = directories;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return filter accepting all entries
+     */
+    public static EntryFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param glob glob pattern matched against entry name, see {@link GlobPattern}
+     * @return filter accepting only entries which names match pattern
+     * @throws IllegalArgumentException if glob is null
+     */
+    public EntryFilter withNameGlob(String glob) {
+        return new EntryFilter(GlobPattern.compile(glob), files, directories, minSize, maxSize);
+    }
+
+    /**
+     * @return filter accepting only files
+     */
+    public EntryFilter onlyFiles() {
+        return new EntryFilter(namePattern, files, false, minSize, maxSize);
+    }
+
+    /**
+     * @return filter accepting only directories
+     */
+    public EntryFilter onlyDirectories() {
+        return new EntryFilter(namePattern, false, directories, minSize, maxSize);
+    }
+
+    /**
+     * @param minSize minimum size in bytes, inclusive
+     * @param maxSize maximum size in bytes, inclusive
+     * @return filter accepting only entries which size is in range
+     * @throws IllegalArgumentException if range is invalid
+     */
+    public EntryFilter withSizeBetween(long minSize, long maxSize) {
+        if(minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid size range [" + minSize + ", " + maxSize + "].");
+        }
+        return new EntryFilter(namePattern, files, directories, minSize, maxSize);
+    }
+
+    boolean matchesName(String name) {
+        return namePattern == null || namePattern.matches(name);
+    }
+
+    boolean matchesType(boolean directory) {
+        return directory ? directories : files;
+    }
+
+    boolean matchesSize(long size) {
+        return size >= minSize && size <= maxSize;
+    }
+}
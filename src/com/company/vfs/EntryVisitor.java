@@ -0,0 +1,21 @@
+package com.company.vfs;
+
+import java.io.IOException;
+
+/**
+ * Visitor of entries found while walking over directory tree.
+ * Visitor may be called concurrently from several threads, directories of different branches
+ * are visited in parallel and in no particular order.
+ */
+@FunctionalInterface
+public interface EntryVisitor {
+
+    /**
+     * Called for each entry matching walk filter.
+     * @param path full path of entry
+     * @param entry entry name, type and size
+     * @return false to skip contents of visited directory, otherwise true
+     * @throws IOException to stop walk with exception
+     */
+    boolean visit(String path, DirectoryEntry entry) throws IOException;
+}
@@ -0,0 +1,66 @@
+package com.company.vfs;
+
+/**
+ * Immutable snapshot of filesystem entry attributes.
+ */
+public final class FileAttributes {
+
+    private final int id;
+    private final boolean directory;
+    private final long size;
+    private final int blockCount;
+    private final long generation;
+
+    FileAttributes(int id, boolean directory, long size, int blockCount, long generation) {
+        this.id = id;
+        this.directory = directory;
+        this.size = size;
+        this.blockCount = blockCount;
+        this.generation = generation;
+    }
+
+    /**
+     * @return id of entry, unique among existing entries of filesystem
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return true if entry is directory, otherwise false
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return true if entry is file, otherwise false
+     */
+    public boolean isFile() {
+        return !directory;
+    }
+
+    /**
+     * @return length of file data in bytes, for directories length of directory contents
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of blocks occupied by entry data
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Generation is increased on every change of entry data or length, for directories on every change
+     * of their contents. Data written by output stream is counted as single change when stream is flushed or closed.
+     * Equal generations of two snapshots of the same entry mean it wasn't changed in between.
+     * @return modification generation of entry
+     */
+    public long getGeneration() {
+        return generation;
+    }
+}
@@ -1,18 +1,33 @@
 package com.company.vfs;
 
+import com.company.vfs.Metadata.Type;
 import com.company.vfs.exception.FileFormatException;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 class FileSystemEntry {
 
+    // metadata id, type and name length fields
+    private static final int FIELDS_LENGTH = Integer.BYTES + Byte.BYTES + Integer.BYTES;
+
+    // offsets of record fields
+    static final int NAME_LENGTH_OFFSET = Integer.BYTES + Byte.BYTES;
+    static final int NAME_OFFSET = FIELDS_LENGTH;
+
+    // metadata id of removed entry, record is kept until directory is compacted
+    static final int TOMBSTONE_ID = -1;
+
     private final int metadataId;
     private final String name;
+    private final Type type;
 
-    FileSystemEntry(int metadataId, String name) {
+    FileSystemEntry(int metadataId, String name, Type type) {
 
         this.name = name;
         this.metadataId = metadataId;
+        this.type = type;
     }
 
     String getName() {
@@ -23,25 +38,55 @@ class FileSystemEntry {
         return metadataId;
     }
 
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * @return true if record belongs to removed entry
+     */
+    boolean isTombstone() {
+        return metadataId == TOMBSTONE_ID;
+    }
+
+    /**
+     * @return number of bytes occupied by entry record
+     */
+    int getRecordLength() {
+        return FIELDS_LENGTH + name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
     static FileSystemEntry read(DataInputStream dataInputStream) throws IOException {
         try {
             int metadataId = dataInputStream.readInt();
+            Type type = Type.valueOf(dataInputStream.readByte());
             int nameByteLength = dataInputStream.readInt();
-            byte nameBytes[] = new byte[nameByteLength];
-            if (dataInputStream.read(nameBytes) == -1) {
+            if (nameByteLength < 0 || nameByteLength > dataInputStream.available()) {
                 throw new FileFormatException("Invalid file system entry format.");
             }
-            return new FileSystemEntry(metadataId, new String(nameBytes, "UTF-8"));
+            byte nameBytes[] = new byte[nameByteLength];
+            dataInputStream.readFully(nameBytes);
+            return new FileSystemEntry(metadataId, new String(nameBytes, StandardCharsets.UTF_8), type);
         }
-        catch (EOFException e) {
+        catch (EOFException | IllegalArgumentException e) {
             throw new FileFormatException("Invalid file system entry format.");
         }
     }
 
     void write(DataOutputStream dataOutputStream) throws IOException {
-        dataOutputStream.writeInt(metadataId);
-        byte[] nameBytes = name.getBytes("UTF-8");
-        dataOutputStream.writeInt(nameBytes.length);
-        dataOutputStream.write(nameBytes);
+        dataOutputStream.write(toBytes());
+    }
+
+    /**
+     * @return encoded entry record
+     */
+    byte[] toBytes() {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(FIELDS_LENGTH + nameBytes.length)
+                .putInt(metadataId)
+                .put((byte) type.value)
+                .putInt(nameBytes.length)
+                .put(nameBytes)
+                .array();
     }
 }
@@ -4,27 +4,74 @@ import com.company.vfs.Metadata.Type;
 import com.company.vfs.exception.*;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 class FileSystemEntryManager {
 
+    private static final int PAGE_BATCH_SIZE = 256;
+    private static final int PAGE_SCAN_FACTOR = 64;
+    private static final String TOKEN_SEPARATOR = "-";
+    private static final int FIRST_ENTRY_POSITION = DirectoryHeader.BYTES;
+    private static final int COMPACTION_SLACK_RATIO = 2;
+    private static final int FIND_QUEUE_CAPACITY = 4096;
+    private static final long FIND_OFFER_TIMEOUT_MS = 100;
+    // smaller directories are scanned faster than filter is maintained
+    private static final int MIN_FILTER_ENTRIES = 64;
+    private static final int NO_FILTER = 0;
+    private static final int FILTER_REJECTED = 1;
+    private static final int FILTER_PASSED = 2;
+    // delayed allocation buffer is written when it reaches this size, so memory use of stream is bounded
+    private static final int DELAYED_ALLOCATION_LIMIT = 4 * 1024 * 1024;
+
     private final MetadataManager metadataManager;
     private final BlockManager blockManager;
     private final ByteStorage dataBlockStorage;
     private final ConcurrentHashMap<Metadata, Integer> openedFiles;
     private final ReadWriteLock fileSystemStructureLock;
+    private final PathIndex pathIndex;
+    private final boolean delayedAllocation;
+    private final BloomFilter bloomFilter;
+    private final LongAdder filterLookups = new LongAdder();
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+    private volatile ForkJoinPool walkPool;
+
+    // guards usage counters of directories, which are updated from ancestors chain of changed entry
+    private final Object usageLock = new Object();
 
-    FileSystemEntryManager(MetadataManager metadataManager, BlockManager blockManager, ByteStorage dataBlockStorage) {
+    // cursor is reused by lookups of the same thread, so methods using it should not call each other while iterating
+    private final ThreadLocal<DirectoryCursor> directoryCursor;
+
+    FileSystemEntryManager(MetadataManager metadataManager, BlockManager blockManager, ByteStorage dataBlockStorage,
+                           PathIndex pathIndex, boolean delayedAllocation) {
 
         this.metadataManager = metadataManager;
         this.blockManager = blockManager;
         this.dataBlockStorage = dataBlockStorage;
+        this.pathIndex = pathIndex;
+        this.delayedAllocation = delayedAllocation;
+        this.bloomFilter = new BloomFilter(blockManager, dataBlockStorage);
         this.openedFiles = new ConcurrentHashMap<>();
         this.fileSystemStructureLock = new ReentrantReadWriteLock();
+        this.directoryCursor = ThreadLocal.withInitial(() -> new DirectoryCursor(blockManager, dataBlockStorage));
     }
 
     void createDirectory(String path) throws IOException {
@@ -48,15 +95,11 @@ class FileSystemEntryManager {
                 throw new NotDirectoryException(pathTo);
             }
 
-            if (readDirectoryContents(metadata)
-                    .stream()
-                    .filter(e -> name.equals(e.getName()))
-                    .findFirst()
-                    .isPresent()) {
+            if (findDirectoryEntry(metadata, name) != null) {
                 throw new FileAlreadyExistsException(path);
             }
 
-            createFileSystemEntry(metadata, name, Type.Directory);
+            createFileSystemEntry(metadata, path, Type.Directory);
         }
         finally {
             fileSystemStructureLock.writeLock().unlock();
@@ -83,20 +126,132 @@ class FileSystemEntryManager {
                 throw new NotDirectoryException(pathTo);
             }
 
-            if (readDirectoryContents(metadata)
-                    .stream()
-                    .filter(e -> name.equals(e.getName()))
-                    .findFirst()
-                    .isPresent()) {
+            if (findDirectoryEntry(metadata, name) != null) {
                 throw new FileAlreadyExistsException(path);
             }
 
-            Metadata fileMetadata = createFileSystemEntry(metadata, name, Type.File);
-            return new EntryOutputStream(fileMetadata, false);
+            Metadata fileMetadata = createFileSystemEntry(metadata, path, Type.File);
+            return openOutputStream(fileMetadata, false);
+        }
+        finally {
+            fileSystemStructureLock.writeLock().unlock();
+        }
+    }
+
+    void createAll(Collection<NewEntry> newEntries) throws IOException {
+        // group entries by parent, parents are processed before their subdirectories
+        Map<String, List<NewEntry>> groups = new TreeMap<>(
+                Comparator.comparingInt((String p) -> PathUtils.getPathComponents(p).size())
+                        .thenComparing(Comparator.naturalOrder()));
+        Set<String> paths = new HashSet<>();
+        for (NewEntry newEntry : newEntries) {
+            String path = normalizePath(newEntry.getPath());
+            if (path.isEmpty() || !paths.add(path)) {
+                throw new FileAlreadyExistsException(newEntry.getPath());
+            }
+            groups.computeIfAbsent(PathUtils.getPathTo(path), p -> new ArrayList<>()).add(newEntry);
+        }
+
+        for (Map.Entry<String, List<NewEntry>> group : groups.entrySet()) {
+            createGroup(group.getKey(), group.getValue());
+        }
+    }
+
+    /**
+     * Creates entries of single directory holding structure lock once, file contents are written
+     * after lock is released.
+     */
+    private void createGroup(String pathTo, List<NewEntry> group) throws IOException {
+        List<Metadata> created;
+        fileSystemStructureLock.writeLock().lock();
+        try {
+            Metadata parentMetadata = getMetadata(pathTo);
+
+            if (parentMetadata == null) {
+                throw new NoSuchFileException(pathTo);
+            }
+
+            if (parentMetadata.getType() != Type.Directory) {
+                throw new NotDirectoryException(pathTo);
+            }
+
+            Set<String> existingNames = readDirectoryContents(parentMetadata)
+                    .stream()
+                    .map(FileSystemEntry::getName)
+                    .collect(Collectors.toSet());
+
+            List<Type> types = new ArrayList<>(group.size());
+            for (NewEntry newEntry : group) {
+                if (existingNames.contains(PathUtils.getName(normalizePath(newEntry.getPath())))) {
+                    throw new FileAlreadyExistsException(newEntry.getPath());
+                }
+                types.add(newEntry.isDirectory() ? Type.Directory : Type.File);
+            }
+
+            created = metadataManager.allocateMetadata(types);
+
+            List<FileSystemEntry> entries = new ArrayList<>(group.size());
+            for (int i = 0; i < group.size(); ++i) {
+                String name = PathUtils.getName(normalizePath(group.get(i).getPath()));
+                entries.add(new FileSystemEntry(created.get(i).getId(), name, types.get(i)));
+                transferUsage(created.get(i), null, parentMetadata);
+                indexPath(created.get(i), group.get(i).getPath());
+            }
+            appendDirectoryEntries(parentMetadata, entries);
+
+            for (int i = 0; i < group.size(); ++i) {
+                NewEntry newEntry = group.get(i);
+                long size = newEntry.getSize();
+                if (newEntry.getContent() == null || size <= 0) {
+                    continue;
+                }
+
+                int blockSize = blockManager.getBlockSize();
+                int blockCount = (int) Math.min((size + blockSize - 1) / blockSize, blockManager.getMaxBlocks());
+                try {
+                    created.get(i).setFirstBlock(allocateFirstBlock(created.get(i), blockCount));
+                }
+                catch (BlockLimitExceededException e) {
+                    // size is only a hint, blocks are allocated while content is written
+                }
+            }
+
+            // files stay opened until content is written, so they can't be deleted meanwhile,
+            // they are opened after all blocks are allocated, so nothing can fail with some of them opened
+            for (int i = 0; i < group.size(); ++i) {
+                if (group.get(i).getContent() != null) {
+                    openFile(created.get(i));
+                }
+            }
         }
         finally {
             fileSystemStructureLock.writeLock().unlock();
         }
+
+        IOException exception = null;
+        for (int i = 0; i < group.size(); ++i) {
+            NewEntry newEntry = group.get(i);
+            if (newEntry.getContent() == null) {
+                continue;
+            }
+
+            Metadata metadata = created.get(i);
+            try {
+                if (exception == null) {
+                    writeContent(metadata, newEntry.getContent());
+                }
+            }
+            catch (IOException e) {
+                exception = e;
+            }
+            finally {
+                closeFile(metadata);
+            }
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
     }
 
     void delete(String path) throws IOException {
@@ -114,16 +269,12 @@ class FileSystemEntryManager {
                 throw new NoSuchFileException(path);
             }
 
-            List<FileSystemEntry> entries = readDirectoryContents(parentMetadata);
-            Optional<FileSystemEntry> entryToDelete = entries.stream()
-                    .filter(e -> name.equals(e.getName()))
-                    .findFirst();
-
-            if (!entryToDelete.isPresent()) {
+            EntryLocation entryToDelete = findDirectoryEntry(parentMetadata, name);
+            if (entryToDelete == null) {
                 throw new NoSuchFileException(path);
             }
 
-            Metadata metadataToDelete = getEntryMetadata(entryToDelete.get());
+            Metadata metadataToDelete = getEntryMetadata(entryToDelete.entry);
             if (metadataToDelete.getType() == Type.Directory && metadataToDelete.getDataLength() > 0) {
                 throw new DirectoryNotEmptyException(path);
             }
@@ -132,11 +283,212 @@ class FileSystemEntryManager {
                 throw new AccessDeniedException("Opened file can not be deleted.");
             }
 
+            transferUsage(metadataToDelete, parentMetadata, null);
             blockManager.deallocateBlockChain(metadataToDelete.getFirstBlock());
             metadataManager.deallocateMetadata(metadataToDelete);
 
-            entries.remove(entryToDelete.get());
-            writeDirectoryContents(parentMetadata, entries);
+            removeDirectoryEntry(parentMetadata, entryToDelete);
+            unindexPath(metadataToDelete, path);
+        }
+        finally {
+            fileSystemStructureLock.writeLock().unlock();
+        }
+    }
+
+    void deleteRecursive(String path) throws IOException {
+        if(PathUtils.isRoot(path)) {
+            throw new AccessDeniedException("Root directory can not be deleted.");
+        }
+
+        fileSystemStructureLock.writeLock().lock();
+        try {
+            String name = PathUtils.getName(path);
+            String pathTo = PathUtils.getPathTo(path);
+
+            Metadata parentMetadata = getMetadata(pathTo);
+            if (parentMetadata == null || parentMetadata.getType() != Type.Directory) {
+                throw new NoSuchFileException(path);
+            }
+
+            EntryLocation entryToDelete = findDirectoryEntry(parentMetadata, name);
+            if (entryToDelete == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            // collect whole subtree before anything is changed, so opened files fail the call as a whole
+            List<Metadata> subtree = new ArrayList<>();
+            List<String> subtreePaths = new ArrayList<>();
+            List<String> openedPaths = new ArrayList<>();
+            collectSubtree(getEntryMetadata(entryToDelete.entry), path, subtree, subtreePaths, openedPaths);
+
+            if (!openedPaths.isEmpty()) {
+                throw new AccessDeniedException("Opened files can not be deleted: " + String.join(", ", openedPaths));
+            }
+
+            transferUsage(subtree.get(0), parentMetadata, null);
+
+            List<Integer> firstBlocks = new ArrayList<>();
+            for (Metadata metadata : subtree) {
+                if (metadata.getFirstBlock() >= 0) {
+                    firstBlocks.add(metadata.getFirstBlock());
+                }
+
+                if (metadata.getType() == Type.Directory && metadata.getDataLength() > 0) {
+                    int filterBlock = readHeaderField(metadata, DirectoryHeader.FILTER_BLOCK_OFFSET);
+                    if (filterBlock != Metadata.NO_BLOCK) {
+                        firstBlocks.add(filterBlock);
+                    }
+                }
+            }
+
+            blockManager.deallocateBlockChains(firstBlocks);
+            metadataManager.deallocateMetadata(subtree);
+
+            removeDirectoryEntry(parentMetadata, entryToDelete);
+            for (int i = 0; i < subtree.size(); ++i) {
+                unindexPath(subtree.get(i), subtreePaths.get(i));
+            }
+        }
+        finally {
+            fileSystemStructureLock.writeLock().unlock();
+        }
+    }
+
+    void move(String source, String target, boolean replaceExisting) throws IOException {
+        if(PathUtils.isRoot(source)) {
+            throw new AccessDeniedException("Root directory can not be moved.");
+        }
+
+        if(PathUtils.isRoot(target)) {
+            throw new FileAlreadyExistsException(target);
+        }
+
+        fileSystemStructureLock.writeLock().lock();
+        try {
+            String sourceName = PathUtils.getName(source);
+            String targetName = PathUtils.getName(target);
+            List<String> targetPathTo = PathUtils.getPathComponents(PathUtils.getPathTo(target));
+
+            Metadata sourceParent = getMetadata(PathUtils.getPathTo(source));
+            if (sourceParent == null || sourceParent.getType() != Type.Directory) {
+                throw new NoSuchFileException(source);
+            }
+
+            EntryLocation entryToMove = findDirectoryEntry(sourceParent, sourceName);
+            if (entryToMove == null) {
+                throw new NoSuchFileException(source);
+            }
+
+            // resolve target parent checking that directory is not moved into itself
+            FileSystemEntry movedEntry = entryToMove.entry;
+            Metadata targetParent = metadataManager.getRoot();
+            for (String component : targetPathTo) {
+                if (targetParent.getType() != Type.Directory) {
+                    throw new NotDirectoryException(PathUtils.getPathTo(target));
+                }
+
+                EntryLocation location = findDirectoryEntry(targetParent, component);
+                if (location == null) {
+                    throw new NoSuchFileException(PathUtils.getPathTo(target));
+                }
+
+                if (location.entry.getMetadataId() == movedEntry.getMetadataId()) {
+                    throw new AccessDeniedException("Directory can not be moved into itself.");
+                }
+
+                targetParent = getEntryMetadata(location.entry);
+            }
+
+            if (targetParent.getType() != Type.Directory) {
+                throw new NotDirectoryException(PathUtils.getPathTo(target));
+            }
+
+            FileSystemEntry renamedEntry = new FileSystemEntry(movedEntry.getMetadataId(), targetName,
+                    movedEntry.getType());
+
+            if (targetParent.equals(sourceParent) && sourceName.equals(targetName)) {
+                return;
+            }
+
+            // everything is checked before anything is changed, so failed move keeps existing target
+            EntryLocation replacedEntry = findDirectoryEntry(targetParent, targetName);
+            Metadata replacedMetadata = null;
+            if (replacedEntry != null) {
+                if (!replaceExisting) {
+                    throw new FileAlreadyExistsException(target);
+                }
+
+                replacedMetadata = getEntryMetadata(replacedEntry.entry);
+                if (replacedMetadata.getType() == Type.Directory && replacedMetadata.getDataLength() > 0) {
+                    throw new DirectoryNotEmptyException(target);
+                }
+
+                if (isOpened(replacedMetadata)) {
+                    throw new AccessDeniedException("Opened file can not be replaced.");
+                }
+            }
+
+            // replaced entry is unaccounted first, so its space is available to moved one
+            Metadata movedMetadata = getEntryMetadata(movedEntry);
+            if (replacedMetadata != null) {
+                transferUsage(replacedMetadata, targetParent, null);
+            }
+            if (!targetParent.equals(sourceParent)) {
+                try {
+                    transferUsage(movedMetadata, sourceParent, targetParent);
+                }
+                catch (IOException e) {
+                    if (replacedMetadata != null) {
+                        transferUsage(replacedMetadata, null, targetParent);
+                    }
+                    throw e;
+                }
+            }
+
+            // paths of whole subtree change, new paths are indexed before entry is linked
+            if (replacedMetadata != null) {
+                unindexPath(replacedMetadata, target);
+            }
+            List<Metadata> movedSubtree = new ArrayList<>();
+            List<String> movedPaths = new ArrayList<>();
+            if (pathIndex != null) {
+                collectSubtree(movedMetadata, source, movedSubtree, movedPaths, new ArrayList<>());
+                for (int i = 0; i < movedSubtree.size(); ++i) {
+                    pathIndex.put(PathIndex.hash(target + movedPaths.get(i).substring(source.length())),
+                            movedSubtree.get(i).getId());
+                }
+            }
+
+            if (replacedEntry != null) {
+                // record of replaced entry has the same name, so it's overwritten in place and target never disappears
+                writeEntryData(targetParent, replacedEntry.position, renamedEntry.toBytes());
+                removeDirectoryEntry(sourceParent, entryToMove);
+                blockManager.deallocateBlockChain(replacedMetadata.getFirstBlock());
+                metadataManager.deallocateMetadata(replacedMetadata);
+            }
+            else if (targetParent.equals(sourceParent) && renamedEntry.getRecordLength() == movedEntry.getRecordLength()) {
+                writeEntryData(sourceParent, entryToMove.position, renamedEntry.toBytes());
+                renameFilterEntry(sourceParent, targetName);
+            }
+            else {
+                // entry is linked to target first, so nothing is lost if target directory can't grow
+                try {
+                    appendDirectoryEntry(targetParent, renamedEntry);
+                }
+                catch (IOException e) {
+                    if (!targetParent.equals(sourceParent)) {
+                        transferUsage(movedMetadata, targetParent, sourceParent);
+                    }
+                    throw e;
+                }
+                removeDirectoryEntry(sourceParent, entryToMove);
+            }
+
+            for (int i = 0; i < movedSubtree.size(); ++i) {
+                String movedPath = movedPaths.get(i);
+                movedSubtree.get(i).setPathHash(PathIndex.hash(target + movedPath.substring(source.length())));
+                unindexPath(movedSubtree.get(i), movedPath);
+            }
         }
         finally {
             fileSystemStructureLock.writeLock().unlock();
@@ -158,13 +510,10 @@ class FileSystemEntryManager {
 
             return readDirectoryContents(metadata)
                     .stream()
-                    .filter(this::isDirectory)
+                    .filter(e -> e.getType() == Type.Directory)
                     .map(FileSystemEntry::getName)
                     .collect(Collectors.toList());
         }
-        catch (UncheckedIOException e) {
-            throw e.getCause();
-        }
         finally {
             fileSystemStructureLock.readLock().unlock();
         }
@@ -185,18 +534,176 @@ class FileSystemEntryManager {
 
             return readDirectoryContents(metadata)
                     .stream()
-                    .filter(this::isFile)
+                    .filter(e -> e.getType() == Type.File)
                     .map(FileSystemEntry::getName)
                     .collect(Collectors.toList());
         }
-        catch (UncheckedIOException e) {
-            throw e.getCause();
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    DirectoryStream<DirectoryEntry> list(String path) throws IOException {
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Metadata metadata = getMetadata(path);
+
+            if (metadata == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            if (metadata.getType() != Type.Directory) {
+                throw new NotDirectoryException(path);
+            }
+
+            return new EntryDirectoryStream(metadata);
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    DirectoryPage listPage(String path, String prefix, String continuationToken, int pageSize)
+            throws IOException {
+        int[] token = continuationToken != null ? decodeToken(continuationToken) : null;
+
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Metadata metadata = getMetadata(path);
+
+            if (metadata == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            if (metadata.getType() != Type.Directory) {
+                throw new NotDirectoryException(path);
+            }
+
+            int position = FIRST_ENTRY_POSITION;
+            if(token != null) {
+                position = resumeDirectoryContents(metadata, token[0], token[1], token[2], token[3]);
+            }
+
+            // bound number of scanned entries, so sparse prefix matches don't hold the lock for whole directory
+            int scanLimit = pageSize > Integer.MAX_VALUE / PAGE_SCAN_FACTOR ?
+                    Integer.MAX_VALUE : pageSize * PAGE_SCAN_FACTOR;
+            int dataLength = metadata.getDataLength();
+            byte[] prefixBytes = prefix != null ? prefix.getBytes(StandardCharsets.UTF_8) : null;
+            List<DirectoryEntry> result = new ArrayList<>();
+            int lastPosition = -1;
+            int lastId = FileSystemEntry.TOMBSTONE_ID;
+            int lastRecordLength = 0;
+            int scanned = 0;
+
+            // names are decoded only for entries matching prefix
+            DirectoryCursor cursor = directoryCursor.get().reset(metadata, position);
+            while(result.size() < pageSize && scanned < scanLimit && cursor.next()) {
+                lastPosition = cursor.getPosition();
+                lastId = cursor.getMetadataId();
+                lastRecordLength = cursor.getRecordLength();
+                ++scanned;
+
+                if(prefixBytes == null || cursor.nameStartsWith(prefixBytes)) {
+                    Metadata entryMetadata = metadataManager.getMetadata(lastId);
+                    result.add(new DirectoryEntry(cursor.getName(), lastId,
+                            cursor.getType() == Type.Directory, entryMetadata.getDataLength()));
+                }
+            }
+            position = cursor.getNextPosition();
+
+            String nextToken = null;
+            if(position < dataLength) {
+                nextToken = lastPosition >= 0 ? encodeToken(lastPosition, lastId, lastRecordLength,
+                        readNextEntryId(metadata, position)) : continuationToken;
+            }
+            return new DirectoryPage(result, nextToken);
         }
         finally {
             fileSystemStructureLock.readLock().unlock();
         }
     }
 
+    void walk(String path, EntryFilter filter, EntryVisitor visitor) throws IOException {
+        Metadata metadata = getDirectoryMetadata(path);
+        String rootPath = normalizePath(path);
+        try {
+            getWalkPool().invoke(new WalkTask(metadata, rootPath, filter, visitor, new AtomicBoolean(false)));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    Stream<String> find(String path, EntryFilter filter) throws IOException {
+        Metadata metadata = getDirectoryMetadata(path);
+        String rootPath = normalizePath(path);
+
+        BlockingQueue<Object> results = new LinkedBlockingQueue<>(FIND_QUEUE_CAPACITY);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        Object end = new Object();
+
+        Iterator<String> iterator = new Iterator<String>() {
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                if(next == null) {
+                    try {
+                        next = results.take();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        next = end;
+                    }
+
+                    // tasks still running after failure are stopped too
+                    if(next == end || next instanceof RuntimeException) {
+                        cancelled.set(true);
+                    }
+                }
+
+                if(next instanceof RuntimeException) {
+                    throw (RuntimeException) next;
+                }
+                return next != end;
+            }
+
+            @Override
+            public String next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                String result = (String) next;
+                next = null;
+                return result;
+            }
+        };
+
+        // walk refers to consumer weakly, so it's stopped when stream is dropped without being closed
+        WeakReference<Object> consumer = new WeakReference<>(iterator);
+        EntryVisitor visitor = (entryPath, entry) ->
+                new ResultOffer(results, cancelled, consumer, entryPath).offer();
+
+        getWalkPool().execute(() -> {
+            Object last = end;
+            try {
+                new WalkTask(metadata, rootPath, filter, visitor, cancelled).invoke();
+            }
+            catch (RuntimeException e) {
+                // failure is rethrown to consumer as is
+                last = e;
+            }
+            new ResultOffer(results, cancelled, consumer, last).offer();
+        });
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    cancelled.set(true);
+                    results.clear();
+                });
+    }
+
     boolean exists(String path) throws IOException {
         fileSystemStructureLock.readLock().lock();
         try {
@@ -250,7 +757,7 @@ class FileSystemEntryManager {
                 throw new NotFileException(path);
             }
 
-            return new EntryOutputStream(metadata, append);
+            return openOutputStream(metadata, append);
         }
         finally {
             fileSystemStructureLock.readLock().unlock();
@@ -277,313 +784,2233 @@ class FileSystemEntryManager {
         }
     }
 
-    private void openFile(Metadata metadata) {
-        boolean result = false;
-        while (!result) {
-            Integer timesOpened = openedFiles.get(metadata);
-            if(timesOpened == null) {
-                result = openedFiles.putIfAbsent(metadata, 1) == null;
-            }
-            else {
-                result = openedFiles.replace(metadata, timesOpened, timesOpened + 1);
-            }
+    FileChannel openChannel(String path, Set<? extends OpenOption> options) throws IOException {
+        boolean append = options.contains(StandardOpenOption.APPEND);
+        boolean writable = append || options.contains(StandardOpenOption.WRITE);
+        boolean readable = options.contains(StandardOpenOption.READ) || !writable;
+        boolean createNew = writable && options.contains(StandardOpenOption.CREATE_NEW);
+        boolean create = createNew || (writable && options.contains(StandardOpenOption.CREATE));
+        boolean truncate = writable && !append && options.contains(StandardOpenOption.TRUNCATE_EXISTING);
+
+        if(readable && append) {
+            throw new IllegalArgumentException("READ and APPEND options can't be combined.");
         }
-    }
 
-    private void closeFile(Metadata metadata) throws VirtualFileSystemException {
+        EntryChannel channel;
+        if(create) {
+            fileSystemStructureLock.writeLock().lock();
+            try {
+                Metadata metadata = getMetadata(path);
+                if(metadata != null && createNew) {
+                    throw new FileAlreadyExistsException(path);
+                }
 
-        boolean result = false;
-        while (!result) {
-            Integer timesOpened = openedFiles.getOrDefault(metadata, 0);
+                if(metadata == null) {
+                    if(PathUtils.isRoot(path)) {
+                        throw new NotFileException(path);
+                    }
 
-            if(timesOpened < 1) {
-                // should never happen
-                throw new VirtualFileSystemException("Attempt to close file which is not opened.");
-            }
+                    String pathTo = PathUtils.getPathTo(path);
+                    Metadata parentMetadata = getMetadata(pathTo);
+                    if (parentMetadata == null) {
+                        throw new NoSuchFileException(pathTo);
+                    }
 
-            if(timesOpened == 1) {
-                result = openedFiles.remove(metadata, timesOpened);
+                    if (parentMetadata.getType() != Type.Directory) {
+                        throw new NotDirectoryException(pathTo);
+                    }
+
+                    metadata = createFileSystemEntry(parentMetadata, path, Type.File);
+                }
+                else if(metadata.getType() != Type.File) {
+                    throw new NotFileException(path);
+                }
+
+                channel = new EntryChannel(metadata, readable, writable, append);
             }
-            else
+            finally {
+                fileSystemStructureLock.writeLock().unlock();
+            }
+        }
+        else {
+            fileSystemStructureLock.readLock().lock();
+            try {
+                Metadata metadata = getMetadata(path);
+
+                if (metadata == null) {
+                    throw new NoSuchFileException(path);
+                }
+
+                if (metadata.getType() != Type.File) {
+                    throw new NotFileException(path);
+                }
+
+                channel = new EntryChannel(metadata, readable, writable, append);
+            }
+            finally {
+                fileSystemStructureLock.readLock().unlock();
+            }
+        }
+
+        if(truncate) {
+            channel.truncate(0);
+        }
+
+        return channel;
+    }
+
+    FileAttributes stat(String path) throws IOException {
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Metadata metadata = getMetadata(path);
+
+            if (metadata == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            return toFileAttributes(metadata);
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Resolves all paths under single read lock. Paths are merged into trie, so shared prefixes are resolved
+     * once, and each directory is scanned once for all its requested entries.
+     * @return attributes in iteration order of paths, null for missing entries
+     */
+    List<FileAttributes> stat(Collection<String> paths) throws IOException {
+        LookupNode root = new LookupNode();
+        int index = 0;
+        for (String path : paths) {
+            root.add(path, index++);
+        }
+
+        List<FileAttributes> result = new ArrayList<>(Collections.nCopies(index, null));
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Deque<LookupNode> nodes = new ArrayDeque<>();
+            Deque<Metadata> nodeMetadata = new ArrayDeque<>();
+            nodes.push(root);
+            nodeMetadata.push(metadataManager.getRoot());
+
+            while (!nodes.isEmpty()) {
+                LookupNode node = nodes.pop();
+                Metadata metadata = nodeMetadata.pop();
+
+                FileAttributes attributes = toFileAttributes(metadata);
+                for (int i = 0; i < node.indices.size(); ++i) {
+                    result.set(node.indices.get(i), attributes);
+                }
+
+                if (node.children.isEmpty() || metadata.getType() != Type.Directory) {
+                    continue;
+                }
+
+                int remaining = node.children.size();
+                DirectoryCursor cursor = directoryCursor.get().reset(metadata, FIRST_ENTRY_POSITION);
+                while (remaining > 0 && cursor.next()) {
+                    // names are decoded only when some requested name has the same encoded length
+                    if (!node.nameLengths.get(cursor.getNameLength())) {
+                        continue;
+                    }
+
+                    LookupNode child = node.children.get(cursor.getName());
+                    if (child != null) {
+                        nodes.push(child);
+                        nodeMetadata.push(metadataManager.getMetadata(cursor.getMetadataId()));
+                        --remaining;
+                    }
+                }
+            }
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    FilterStatistics getFilterStatistics() {
+        return new FilterStatistics(filterLookups.sum(), filterRejections.sum(), filterFalsePositives.sum());
+    }
+
+    /**
+     * Counts runs of consecutive blocks of all files, files without data blocks are not counted.
+     */
+    FragmentationStatistics getFragmentationStatistics() throws IOException {
+        fileSystemStructureLock.readLock().lock();
+        try {
+            int files = 0;
+            long blocks = 0;
+            long runs = 0;
+            for (int id : metadataManager.getAllocatedIds()) {
+                Metadata metadata = metadataManager.getMetadata(id);
+                if (metadata == null || metadata.getType() != Type.File || metadata.getFirstBlock() < 0) {
+                    continue;
+                }
+
+                ++files;
+                blocks += blockManager.getBlockChainLength(metadata.getFirstBlock());
+                runs += blockManager.getRunCount(metadata.getFirstBlock());
+            }
+            return new FragmentationStatistics(files, blocks, runs);
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves data of each entry into run of consecutive blocks as close to the beginning of storage as possible,
+     * then truncates storage after the last allocated block. Chains of metadata and path index stay in place.
+     * Entry is relocated under lock of its metadata, directory also under structure write lock,
+     * so other entries are read and written meanwhile.
+     * Stops early when thread is interrupted, entries relocated so far stay relocated.
+     * @param maxBlocksPerSecond limit of relocated blocks per second, 0 for no limit
+     */
+    CompactionStatistics compactStorage(int maxBlocksPerSecond) throws IOException {
+        long start = System.nanoTime();
+        int entries = 0;
+        long blocks = 0;
+        for (int id : metadataManager.getAllocatedIds()) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
+            int relocated = relocateEntry(id);
+            if (relocated == 0) {
+                continue;
+            }
+
+            ++entries;
+            blocks += relocated;
+            if (maxBlocksPerSecond > 0) {
+                long delay = start + blocks * TimeUnit.SECONDS.toNanos(1) / maxBlocksPerSecond - System.nanoTime();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        // computed under lock of storage, so blocks allocated afterwards are written to storage grown back
+        dataBlockStorage.truncate(() -> blockManager.getHighWaterMark() * blockManager.getBlockSize());
+        return new CompactionStatistics(entries, blocks, blockManager.getHighWaterMark());
+    }
+
+    /**
+     * Switches entry to relocated copy of its blocks, copy is persisted before metadata points to it.
+     * @return number of relocated blocks
+     */
+    private int relocateEntry(int id) throws IOException {
+        Metadata metadata = metadataManager.getMetadata(id);
+        if (metadata == null) {
+            return 0;
+        }
+
+        // directory records are read under structure lock only
+        boolean directory = metadata.getType() == Type.Directory;
+        Lock lock = directory ? fileSystemStructureLock.writeLock() : fileSystemStructureLock.readLock();
+        lock.lock();
+        try {
+            // entry could be replaced by entry of another type before lock was taken
+            metadata = metadataManager.getMetadata(id);
+            if (metadata == null || (metadata.getType() == Type.Directory) != directory) {
+                return 0;
+            }
+
+            synchronized (metadata) {
+                int relocated = 0;
+                int firstBlock = metadata.getFirstBlock();
+                int relocatedBlock = relocateBlockChain(firstBlock);
+                if (relocatedBlock >= 0) {
+                    metadata.setFirstBlock(relocatedBlock);
+                    relocated += releaseRelocatedChain(firstBlock, relocatedBlock);
+                }
+
+                // filter chain is referenced only by header of directory
+                if (directory && metadata.getDataLength() > 0) {
+                    int fieldOffset = blockManager.getGlobalOffset(metadata.getFirstBlock(),
+                            DirectoryHeader.FILTER_BLOCK_OFFSET);
+                    int filterBlock = dataBlockStorage.getInt(fieldOffset);
+                    int relocatedFilterBlock = relocateBlockChain(filterBlock);
+                    if (relocatedFilterBlock >= 0) {
+                        dataBlockStorage.putInt(fieldOffset, relocatedFilterBlock);
+                        relocated += releaseRelocatedChain(filterBlock, relocatedFilterBlock);
+                    }
+                }
+                return relocated;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private int relocateBlockChain(int firstBlock) throws IOException {
+        return firstBlock < 0 ? Metadata.NO_BLOCK : blockManager.relocateBlockChain(firstBlock);
+    }
+
+    /**
+     * Deallocates original chain once nothing refers to it.
+     * @return number of relocated blocks
+     */
+    private int releaseRelocatedChain(int firstBlock, int relocatedBlock) throws IOException {
+        blockManager.deallocateBlockChain(firstBlock);
+        return blockManager.getBlockChainLength(relocatedBlock);
+    }
+
+    Usage usage(String path) throws IOException {
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Metadata metadata = getMetadata(path);
+
+            if (metadata == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            synchronized (usageLock) {
+                if (metadata.getType() == Type.File) {
+                    int dataLength = metadata.getDataLength();
+                    return new Usage(dataLength, blockCount(dataLength), 0, Metadata.NO_QUOTA);
+                }
+
+                return new Usage(metadata.getUsedBytes(), metadata.getUsedBlocks(), metadata.getUsedEntries(),
+                        metadata.getQuota());
+            }
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    void setQuota(String path, long quota) throws IOException {
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Metadata metadata = getMetadata(path);
+
+            if (metadata == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            if (metadata.getType() != Type.Directory) {
+                throw new NotDirectoryException(path);
+            }
+
+            synchronized (usageLock) {
+                metadata.setQuota(quota);
+            }
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    private OutputStream openOutputStream(Metadata metadata, boolean append) throws IOException {
+        return delayedAllocation ? new DelayedEntryOutputStream(metadata, append) : new EntryOutputStream(metadata, append);
+    }
+
+    private void openFile(Metadata metadata) {
+        boolean result = false;
+        while (!result) {
+            Integer timesOpened = openedFiles.get(metadata);
+            if(timesOpened == null) {
+                result = openedFiles.putIfAbsent(metadata, 1) == null;
+            }
+            else {
+                result = openedFiles.replace(metadata, timesOpened, timesOpened + 1);
+            }
+        }
+    }
+
+    private void closeFile(Metadata metadata) throws VirtualFileSystemException {
+
+        boolean result = false;
+        while (!result) {
+            Integer timesOpened = openedFiles.getOrDefault(metadata, 0);
+
+            if(timesOpened < 1) {
+                // should never happen
+                throw new VirtualFileSystemException("Attempt to close file which is not opened.");
+            }
+
+            if(timesOpened == 1) {
+                result = openedFiles.remove(metadata, timesOpened);
+            }
+            else
             {
                 result = openedFiles.replace(metadata, timesOpened, timesOpened - 1);
             }
-        }
-    }
+        }
+    }
+
+    private boolean isOpened(Metadata metadata) {
+        return openedFiles.containsKey(metadata);
+    }
+
+    /**
+     * Resolves path without allocations: components are iterated in place and compared
+     * with encoded names of directory records.
+     */
+    private Metadata getMetadata(String pathTo) throws IOException {
+        if (pathIndex != null) {
+            return getIndexedMetadata(pathTo);
+        }
+
+        Metadata current = metadataManager.getRoot();
+        int start = PathUtils.componentStart(pathTo, 0);
+        while (start < pathTo.length()) {
+            int end = PathUtils.componentEnd(pathTo, start);
+            if(current.getType() != Type.Directory) {
+                return null;
+            }
+
+            int metadataId = findDirectoryEntryId(current, pathTo, start, end);
+            if(metadataId < 0) {
+                return null;
+            }
+
+            current = metadataManager.getMetadata(metadataId);
+            start = PathUtils.componentStart(pathTo, end);
+        }
+
+        return current;
+    }
+
+    /**
+     * Resolves path with single probe of path index. Found entry is confirmed by path hash stored in its metadata
+     * and by its record in parent directory, so neither stale index entries nor hash collisions are returned.
+     */
+    private Metadata getIndexedMetadata(String path) throws IOException {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            --end;
+        }
+        if (end == 0) {
+            return metadataManager.getRoot();
+        }
+
+        int start = path.lastIndexOf('/', end - 1) + 1;
+        int nameEnd = end;
+        long hash = PathIndex.hash(path);
+        int metadataId = pathIndex.get(hash, id -> {
+            Metadata metadata = metadataManager.getMetadata(id);
+            if (metadata == null || metadata.getPathHash() != hash) {
+                return false;
+            }
+
+            Metadata parent = getParentMetadata(metadata);
+            return parent != null && findDirectoryEntryId(parent, path, start, nameEnd) == id;
+        });
+
+        return metadataId < 0 ? null : metadataManager.getMetadata(metadataId);
+    }
+
+    private void indexPath(Metadata metadata, String path) throws IOException {
+        if (pathIndex != null) {
+            long hash = PathIndex.hash(path);
+            pathIndex.put(hash, metadata.getId());
+            metadata.setPathHash(hash);
+        }
+    }
+
+    private void unindexPath(Metadata metadata, String path) throws IOException {
+        if (pathIndex != null) {
+            pathIndex.remove(PathIndex.hash(path), metadata.getId());
+        }
+    }
+
+    /**
+     * Finds live entry which name is equal to given region of path.
+     * @return metadata id of entry, or -1 if there is no such entry
+     */
+    private int findDirectoryEntryId(Metadata metadata, String path, int start, int end) throws IOException {
+        int filterResult = checkFilter(metadata, path, start, end);
+        if (filterResult == FILTER_REJECTED) {
+            return -1;
+        }
+
+        DirectoryCursor cursor = directoryCursor.get().reset(metadata, FIRST_ENTRY_POSITION);
+        while (cursor.next()) {
+            if (cursor.nameEquals(path, start, end)) {
+                return cursor.getMetadataId();
+            }
+        }
+
+        if (filterResult == FILTER_PASSED) {
+            filterFalsePositives.increment();
+        }
+        return -1;
+    }
+
+    /**
+     * Checks given region of path against Bloom filter of directory, reading filter fields of header in place.
+     * @return FILTER_REJECTED if directory certainly has no such entry, FILTER_PASSED if it may have one,
+     * NO_FILTER if directory has no filter
+     */
+    private int checkFilter(Metadata directory, String path, int start, int end) throws IOException {
+        if (directory.getDataLength() == 0) {
+            return NO_FILTER;
+        }
+
+        int filterBlock = readHeaderField(directory, DirectoryHeader.FILTER_BLOCK_OFFSET);
+        if (filterBlock == Metadata.NO_BLOCK) {
+            return NO_FILTER;
+        }
+
+        filterLookups.increment();
+        int filterBits = readHeaderField(directory, DirectoryHeader.FILTER_BITS_OFFSET);
+        if (bloomFilter.mightContain(filterBlock, filterBits, BloomFilter.hash(path, start, end))) {
+            return FILTER_PASSED;
+        }
+
+        filterRejections.increment();
+        return FILTER_REJECTED;
+    }
+
+    private int readHeaderField(Metadata directory, int fieldOffset) throws IOException {
+        return dataBlockStorage.getInt(blockManager.getGlobalOffset(directory.getFirstBlock(), fieldOffset));
+    }
+
+    private Metadata getDirectoryMetadata(String path) throws IOException {
+        fileSystemStructureLock.readLock().lock();
+        try {
+            Metadata metadata = getMetadata(path);
+
+            if (metadata == null) {
+                throw new NoSuchFileException(path);
+            }
+
+            if (metadata.getType() != Type.Directory) {
+                throw new NotDirectoryException(path);
+            }
+
+            return metadata;
+        }
+        finally {
+            fileSystemStructureLock.readLock().unlock();
+        }
+    }
+
+    private static String normalizePath(String path) {
+        List<String> components = PathUtils.getPathComponents(path);
+        return components.isEmpty() ? "" : "/" + String.join("/", components);
+    }
+
+    private ForkJoinPool getWalkPool() {
+        ForkJoinPool pool = walkPool;
+        if(pool == null) {
+            synchronized (this) {
+                if(walkPool == null) {
+                    walkPool = new ForkJoinPool();
+                }
+                pool = walkPool;
+            }
+        }
+        return pool;
+    }
+
+    private static String encodeToken(int position, int metadataId, int recordLength, int nextId) {
+        return Integer.toHexString(position) + TOKEN_SEPARATOR + Integer.toHexString(metadataId) +
+                TOKEN_SEPARATOR + Integer.toHexString(recordLength) +
+                TOKEN_SEPARATOR + Integer.toHexString(nextId);
+    }
+
+    private static int[] decodeToken(String token) {
+        String[] parts = token.split(TOKEN_SEPARATOR);
+        if(parts.length != 4) {
+            throw new IllegalArgumentException("Invalid continuation token.");
+        }
+
+        try {
+            int[] result = new int[4];
+            for(int i = 0; i < result.length; ++i) {
+                result[i] = Integer.parseUnsignedInt(parts[i], 16);
+            }
+
+            if(result[0] < 0 || result[2] <= 0) {
+                throw new IllegalArgumentException("Invalid continuation token.");
+            }
+            return result;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid continuation token.");
+        }
+    }
+
+    private void collectSubtree(Metadata root, String rootPath, List<Metadata> subtree, List<String> subtreePaths,
+                                List<String> openedPaths) throws IOException {
+
+        Deque<Metadata> directories = new ArrayDeque<>();
+        Deque<String> directoryPaths = new ArrayDeque<>();
+        subtree.add(root);
+        subtreePaths.add(rootPath);
+
+        if (root.getType() == Type.Directory) {
+            directories.push(root);
+            directoryPaths.push(rootPath);
+        }
+        else if (isOpened(root)) {
+            openedPaths.add(rootPath);
+        }
+
+        while (!directories.isEmpty()) {
+            Metadata directory = directories.pop();
+            String directoryPath = directoryPaths.pop();
+
+            for (FileSystemEntry entry : readDirectoryContents(directory)) {
+                Metadata metadata = getEntryMetadata(entry);
+                String entryPath = directoryPath + "/" + entry.getName();
+                subtree.add(metadata);
+                subtreePaths.add(entryPath);
+
+                if (metadata.getType() == Type.Directory) {
+                    directories.push(metadata);
+                    directoryPaths.push(entryPath);
+                }
+                else if (isOpened(metadata)) {
+                    openedPaths.add(entryPath);
+                }
+            }
+        }
+    }
+
+    private static FileAttributes toFileAttributes(Metadata metadata) throws IOException {
+        return metadata.readAttributes();
+    }
+
+    private DirectoryEntry toDirectoryEntry(FileSystemEntry entry) throws IOException {
+        Metadata entryMetadata = getEntryMetadata(entry);
+        return new DirectoryEntry(entry.getName(), entry.getMetadataId(),
+                entry.getType() == Type.Directory, entryMetadata.getDataLength());
+    }
+
+    private Metadata getEntryMetadata(FileSystemEntry fileSystemEntry) throws IOException {
+        return metadataManager.getMetadata(fileSystemEntry.getMetadataId());
+    }
+
+    private Metadata createFileSystemEntry(Metadata metadata, String path, Type type) throws IOException {
+        Metadata entryMetadata = metadataManager.allocateMetadata(type);
+        transferUsage(entryMetadata, null, metadata);
+        indexPath(entryMetadata, path);
+        appendDirectoryEntry(metadata, new FileSystemEntry(entryMetadata.getId(), PathUtils.getName(path), type));
+        return entryMetadata;
+    }
+
+    private void appendDirectoryEntry(Metadata metadata, FileSystemEntry entry) throws IOException {
+        appendDirectoryEntries(metadata, Collections.singletonList(entry));
+    }
+
+    private void appendDirectoryEntries(Metadata metadata, List<FileSystemEntry> entries) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (FileSystemEntry entry : entries) {
+            records.write(entry.toBytes());
+        }
+
+        DirectoryHeader header = readDirectoryHeader(metadata);
+        int position = Math.max(metadata.getDataLength(), FIRST_ENTRY_POSITION);
+        writeEntryData(metadata, position, records.toByteArray());
+
+        header.setEntryCount(header.getEntryCount() + entries.size());
+        if (header.hasFilter() && header.getEntryCount() + header.getRemovedCount() <=
+                BloomFilter.capacity(header.getFilterBits())) {
+            for (FileSystemEntry entry : entries) {
+                String name = entry.getName();
+                bloomFilter.add(header.getFilterBlock(), header.getFilterBits(),
+                        BloomFilter.hash(name, 0, name.length()));
+            }
+        }
+        else if (header.getEntryCount() >= MIN_FILTER_ENTRIES) {
+            rebuildFilter(metadata, header);
+        }
+        writeEntryData(metadata, 0, header.toBytes());
+    }
+
+    /**
+     * Adds new name of entry renamed in place to filter of directory. Old name stays in filter as removed one.
+     */
+    private void renameFilterEntry(Metadata metadata, String name) throws IOException {
+        DirectoryHeader header = readDirectoryHeader(metadata);
+        if (!header.hasFilter()) {
+            return;
+        }
+
+        header.setRemovedCount(header.getRemovedCount() + 1);
+        if (header.getEntryCount() + header.getRemovedCount() <= BloomFilter.capacity(header.getFilterBits())) {
+            bloomFilter.add(header.getFilterBlock(), header.getFilterBits(), BloomFilter.hash(name, 0, name.length()));
+        }
+        else {
+            rebuildFilter(metadata, header);
+        }
+        writeEntryData(metadata, 0, header.toBytes());
+    }
+
+    /**
+     * Removes entry record in place. Record is replaced by tombstone, unless it's the last one,
+     * directory is compacted when removed records occupy more than half of its contents.
+     */
+    private void removeDirectoryEntry(Metadata metadata, EntryLocation location) throws IOException {
+        DirectoryHeader header = readDirectoryHeader(metadata);
+        header.setEntryCount(header.getEntryCount() - 1);
+
+        if(header.getEntryCount() == 0) {
+            deleteFilter(metadata, header);
+            truncateEntry(metadata, 0);
+            return;
+        }
+
+        int recordLength = location.entry.getRecordLength();
+        if(location.position + recordLength == metadata.getDataLength()) {
+            truncateEntry(metadata, location.position);
+        }
+        else {
+            byte[] tombstone = ByteBuffer.allocate(Integer.BYTES).putInt(FileSystemEntry.TOMBSTONE_ID).array();
+            writeEntryData(metadata, location.position, tombstone);
+            header.setSlack(header.getSlack() + recordLength);
+        }
+
+        int slack = header.getSlack();
+        if(slack > blockManager.getBlockSize() && slack > metadata.getDataLength() / COMPACTION_SLACK_RATIO) {
+            writeDirectoryContents(metadata, readDirectoryContents(metadata));
+            return;
+        }
+
+        // removed names stay in filter, so it's rebuilt only when they make false positives too frequent
+        if(header.hasFilter()) {
+            header.setRemovedCount(header.getRemovedCount() + 1);
+            if(header.getEntryCount() < MIN_FILTER_ENTRIES / 2) {
+                deleteFilter(metadata, header);
+            }
+            else if(header.getEntryCount() + header.getRemovedCount() > BloomFilter.capacity(header.getFilterBits())) {
+                rebuildFilter(metadata, header);
+            }
+        }
+        writeEntryData(metadata, 0, header.toBytes());
+    }
+
+    /**
+     * Replaces Bloom filter of directory by new one built from its live entries, sized for twice their number.
+     * Header is updated but not written.
+     */
+    private void rebuildFilter(Metadata metadata, DirectoryHeader header) throws IOException {
+        long[] hashes = new long[header.getEntryCount()];
+        int count = 0;
+        DirectoryCursor cursor = directoryCursor.get().reset(metadata, FIRST_ENTRY_POSITION);
+        while (count < hashes.length && cursor.next()) {
+            hashes[count++] = BloomFilter.hash(cursor.getNameBytes(), cursor.getNameLength());
+        }
+
+        deleteFilter(metadata, header);
+        createFilter(metadata, header, hashes, count);
+    }
+
+    private void createFilter(Metadata metadata, DirectoryHeader header, long[] hashes, int count) throws IOException {
+        if (count < MIN_FILTER_ENTRIES) {
+            return;
+        }
+
+        int bits = BloomFilter.bitsFor(count);
+        try {
+            header.setFilter(bloomFilter.create(bits, hashes, count), bits);
+        }
+        catch (BlockLimitExceededException e) {
+            // filter is optional, directory is scanned without it
+            return;
+        }
+        synchronized (usageLock) {
+            updateUsage(metadata, 0, bloomFilter.blockCount(bits), 0);
+        }
+    }
+
+    private void deleteFilter(Metadata metadata, DirectoryHeader header) throws IOException {
+        if (!header.hasFilter()) {
+            return;
+        }
+
+        blockManager.deallocateBlockChain(header.getFilterBlock());
+        synchronized (usageLock) {
+            updateUsage(metadata, 0, -bloomFilter.blockCount(header.getFilterBits()), 0);
+        }
+        header.setFilter(Metadata.NO_BLOCK, 0);
+    }
+
+    private DirectoryHeader readDirectoryHeader(Metadata metadata) throws IOException {
+        if(metadata.getDataLength() == 0) {
+            return new DirectoryHeader();
+        }
+
+        try (DataInputStream inputStream = new DataInputStream(new EntryInputStream(metadata, 0))) {
+            return DirectoryHeader.read(inputStream);
+        }
+    }
+
+    /**
+     * Finds live entry with given name.
+     * @return entry and its position or null if there is no such entry
+     */
+    private EntryLocation findDirectoryEntry(Metadata metadata, String name) throws IOException {
+        int filterResult = checkFilter(metadata, name, 0, name.length());
+        if (filterResult == FILTER_REJECTED) {
+            return null;
+        }
+
+        DirectoryCursor cursor = directoryCursor.get().reset(metadata, FIRST_ENTRY_POSITION);
+        while (cursor.next()) {
+            if (cursor.nameEquals(name, 0, name.length())) {
+                return new EntryLocation(cursor.toEntry(), cursor.getPosition());
+            }
+        }
+
+        if (filterResult == FILTER_PASSED) {
+            filterFalsePositives.increment();
+        }
+        return null;
+    }
+
+    private List<FileSystemEntry> readDirectoryContents(Metadata metadata) throws IOException {
+        List<FileSystemEntry> contents = new ArrayList<>();
+        readDirectoryContents(metadata, FIRST_ENTRY_POSITION, Integer.MAX_VALUE, contents, null);
+        return contents;
+    }
+
+    /**
+     * Reads at most count live entries starting from given position of directory contents, removed entries are skipped.
+     * @param positions if not null, receives position of each read entry
+     * @return position following last read entry, or end of contents if less than count entries were read
+     */
+    private int readDirectoryContents(Metadata metadata, int position, int count,
+                                      List<FileSystemEntry> contents, List<Integer> positions) throws IOException {
+        DirectoryCursor cursor = directoryCursor.get().reset(metadata, position);
+        while (count > 0 && cursor.next()) {
+            contents.add(cursor.toEntry());
+            if (positions != null) {
+                positions.add(cursor.getPosition());
+            }
+            --count;
+        }
+        return cursor.getNextPosition();
+    }
+
+    /**
+     * Reads single record at given position, including removed one.
+     * @return record or null if there is no valid record at position
+     */
+    private FileSystemEntry readDirectoryRecord(Metadata metadata, int position) throws IOException {
+        if (position < FIRST_ENTRY_POSITION || position >= metadata.getDataLength()) {
+            return null;
+        }
+
+        try {
+            DirectoryCursor cursor = directoryCursor.get().reset(metadata, position);
+            return cursor.nextRecord() ? cursor.toEntry() : null;
+        }
+        catch (FileFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return id of first live entry at or after given position, or tombstone id if there is no such entry
+     */
+    private int readNextEntryId(Metadata metadata, int position) throws IOException {
+        DirectoryCursor cursor = directoryCursor.get().reset(metadata, position);
+        return cursor.next() ? cursor.getMetadataId() : FileSystemEntry.TOMBSTONE_ID;
+    }
+
+    /**
+     * Finds position of entry following the entry previously read from given position.
+     * If entry was removed in place, reading continues after its tombstone. If directory was compacted
+     * since then, reading continues from the entry which followed previously read one, and when it was
+     * removed too, from the entry following previously read one or first entry at or after its former position.
+     * @param nextId id of entry which followed previously read one, or tombstone id if it's unknown
+     */
+    private int resumeDirectoryContents(Metadata metadata, int lastPosition, int lastId, int lastRecordLength,
+                                        int nextId) throws IOException {
+        FileSystemEntry record = readDirectoryRecord(metadata, lastPosition);
+        if(record != null && (record.getMetadataId() == lastId || record.isTombstone()) &&
+                record.getRecordLength() == lastRecordLength) {
+            return lastPosition + lastRecordLength;
+        }
+
+        List<FileSystemEntry> entries = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        int position = FIRST_ENTRY_POSITION;
+        int dataLength = metadata.getDataLength();
+        int afterLastPosition = -1;
+        int resumePosition = -1;
+        while (position < dataLength) {
+            entries.clear();
+            positions.clear();
+            position = readDirectoryContents(metadata, position, PAGE_BATCH_SIZE, entries, positions);
+
+            for (int i = 0; i < entries.size(); ++i) {
+                FileSystemEntry entry = entries.get(i);
+                if(nextId != FileSystemEntry.TOMBSTONE_ID && entry.getMetadataId() == nextId) {
+                    return positions.get(i);
+                }
+
+                if(entry.getMetadataId() == lastId) {
+                    afterLastPosition = positions.get(i) + entry.getRecordLength();
+                }
+
+                if(resumePosition < 0 && positions.get(i) >= lastPosition) {
+                    resumePosition = positions.get(i);
+                }
+            }
+        }
+
+        if(afterLastPosition >= 0) {
+            return afterLastPosition;
+        }
+        return resumePosition < 0 ? Math.max(dataLength, FIRST_ENTRY_POSITION) : resumePosition;
+    }
+
+    private void writeDirectoryContents(Metadata metadata, List<FileSystemEntry> entries) throws IOException {
+        deleteFilter(metadata, readDirectoryHeader(metadata));
+        if(entries.isEmpty()) {
+            truncateEntry(metadata, 0);
+            return;
+        }
+
+        long[] hashes = new long[entries.size()];
+        for (int i = 0; i < hashes.length; ++i) {
+            String name = entries.get(i).getName();
+            hashes[i] = BloomFilter.hash(name, 0, name.length());
+        }
+        DirectoryHeader header = new DirectoryHeader(entries.size(), 0);
+        createFilter(metadata, header, hashes, hashes.length);
+
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        contents.write(header.toBytes());
+        for (FileSystemEntry entry : entries) {
+            contents.write(entry.toBytes());
+        }
+
+        byte[] bytes = contents.toByteArray();
+        writeEntryData(metadata, 0, bytes);
+        truncateEntry(metadata, bytes.length);
+    }
+
+    /**
+     * Writes data at given position of entry in bulk, extending entry if needed.
+     */
+    private void writeEntryData(Metadata metadata, int position, byte[] data) throws IOException {
+        writeEntryData(metadata, position, data, 0, data.length);
+    }
+
+    private void writeEntryData(Metadata metadata, int position, byte[] data, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+
+        synchronized (metadata) {
+            int dataLength = growEntry(metadata, position + len);
+            markModified(metadata);
+            try {
+                // missing blocks of written range are allocated at once, so they form single run when possible
+                int firstBlock = metadata.getFirstBlock();
+                if (firstBlock < 0) {
+                    firstBlock = allocateFirstBlock(metadata, blockCount(position + len));
+                    metadata.setFirstBlock(firstBlock);
+                }
+                else {
+                    blockManager.ensureGlobalOffset(firstBlock, position + len - 1);
+                }
+
+                int blockSize = blockManager.getBlockSize();
+                int written = 0;
+                while (written < len) {
+                    int offset = blockManager.ensureGlobalOffset(firstBlock, position + written);
+                    int length = Math.min(len - written, blockSize - (position + written) % blockSize);
+                    dataBlockStorage.putBytes(offset, data, off + written, length);
+                    written += length;
+                }
+            }
+            catch (IOException e) {
+                shrinkEntry(metadata, dataLength);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Streams supplied content into new file, blocks preallocated beyond content length are freed.
+     */
+    private void writeContent(Metadata metadata, ContentSupplier content) throws IOException {
+        int blockSize = blockManager.getBlockSize();
+        byte[] buffer = new byte[blockSize];
+        int position = 0;
+
+        try (InputStream inputStream = content.open()) {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                writeEntryData(metadata, position, buffer, 0, read);
+                position += read;
+            }
+        }
+        finally {
+            synchronized (metadata) {
+                truncateEntry(metadata, position);
+            }
+        }
+    }
+
+    private void truncateEntry(Metadata metadata, int length) throws IOException {
+        setEntryLength(metadata, length);
+        markModified(metadata);
+
+        int firstBlock = metadata.getFirstBlock();
+        if(firstBlock < 0) {
+            return;
+        }
+
+        if(length > 0) {
+            blockManager.truncateBlockChain(firstBlock, length);
+        }
+        else {
+            blockManager.deallocateBlockChain(firstBlock);
+            metadata.setFirstBlock(Metadata.NO_BLOCK);
+        }
+    }
+
+    /**
+     * Extends entry to given length before data is written, so quotas are checked before any block is allocated.
+     * @return previous length of entry, which should be restored by {@link #shrinkEntry} if write fails
+     */
+    private int growEntry(Metadata metadata, int length) throws IOException {
+        int dataLength = metadata.getDataLength();
+        if (length > dataLength) {
+            setEntryLength(metadata, length);
+        }
+        return dataLength;
+    }
+
+    private void shrinkEntry(Metadata metadata, int length) throws IOException {
+        if (length < metadata.getDataLength()) {
+            truncateEntry(metadata, length);
+        }
+    }
+
+    /**
+     * Increases modification generation of entry, called under lock of entry before its data is changed.
+     */
+    private void markModified(Metadata metadata) throws IOException {
+        metadata.setGeneration(metadata.getGeneration() + 1);
+    }
+
+    /**
+     * Changes data length of entry updating usage of directories containing it. Usage of file is accounted
+     * in its parent, while length of directory contents is accounted in directory itself.
+     */
+    private void setEntryLength(Metadata metadata, int length) throws IOException {
+        setEntryLength(metadata, length, length);
+    }
+
+    /**
+     * Changes data length of entry accounting given length, which is not less than data length,
+     * in usage of directories containing it.
+     */
+    private void setEntryLength(Metadata metadata, int length, int accountedLength) throws IOException {
+        synchronized (usageLock) {
+            int previousLength = metadata.getAccountedLength();
+            if (accountedLength != previousLength) {
+                boolean file = metadata.getType() == Type.File;
+                long bytes = file ? (long) accountedLength - previousLength : 0;
+                int blocks = blockCount(accountedLength) - blockCount(previousLength);
+                Metadata directory = file ? getParentMetadata(metadata) : metadata;
+
+                if (bytes > 0) {
+                    checkQuota(directory, bytes);
+                }
+                updateUsage(directory, bytes, blocks, 0);
+                metadata.setAccountedLength(accountedLength);
+            }
+
+            if (length != metadata.getDataLength()) {
+                metadata.setDataLength(length);
+            }
+        }
+    }
+
+    /**
+     * Extends file written by output stream, called under lock of file. Usage of directories is reserved
+     * up to the end of the last block of file, so usage lock is taken and directories are walked only when
+     * file gets a new block, and quota is checked against the whole block.
+     * Usage is settled to data length by {@link #releaseReservation} on flush or close of stream.
+     * @return previous length of file, which should be restored by {@link #shrinkEntry} if write fails
+     */
+    private int growFile(Metadata metadata, int length) throws IOException {
+        int dataLength = metadata.getDataLength();
+        if (length <= dataLength) {
+            return dataLength;
+        }
+
+        if (length <= metadata.getAccountedLength()) {
+            metadata.setDataLength(length);
+            return dataLength;
+        }
+
+        int reservedLength = (int) Math.min((long) blockCount(length) * blockManager.getBlockSize(), Integer.MAX_VALUE);
+        try {
+            setEntryLength(metadata, length, reservedLength);
+        }
+        catch (QuotaExceededException e) {
+            // close to quota space is not reserved, so exact length is checked on each write
+            setEntryLength(metadata, length, length);
+        }
+        return dataLength;
+    }
+
+    private void releaseReservation(Metadata metadata) throws IOException {
+        synchronized (metadata) {
+            int dataLength = metadata.getDataLength();
+            if (metadata.getAccountedLength() != dataLength) {
+                setEntryLength(metadata, dataLength);
+            }
+        }
+    }
+
+    /**
+     * Moves usage of entry subtree from one directory to another, any of them can be null when entry
+     * is created or deleted. Quotas of target directory and its ancestors are checked before anything is changed.
+     */
+    private void transferUsage(Metadata metadata, Metadata from, Metadata to) throws IOException {
+        synchronized (usageLock) {
+            long bytes;
+            int blocks;
+            int entries;
+            if (metadata.getType() == Type.Directory) {
+                bytes = metadata.getUsedBytes();
+                blocks = metadata.getUsedBlocks();
+                entries = metadata.getUsedEntries() + 1;
+            }
+            else {
+                bytes = metadata.getAccountedLength();
+                blocks = blockCount(metadata.getAccountedLength());
+                entries = 1;
+            }
+
+            // common ancestors are not affected, so usage is removed before quotas are checked
+            updateUsage(from, -bytes, -blocks, -entries);
+            try {
+                checkQuota(to, bytes);
+            }
+            catch (QuotaExceededException e) {
+                updateUsage(from, bytes, blocks, entries);
+                throw e;
+            }
+            updateUsage(to, bytes, blocks, entries);
+            metadata.setParentId(to != null ? to.getId() : Metadata.NO_PARENT);
+        }
+    }
+
+    private void checkQuota(Metadata directory, long bytes) throws IOException {
+        for (Metadata current = directory; current != null; current = getParentMetadata(current)) {
+            long quota = current.getQuota();
+            if (quota != Metadata.NO_QUOTA && current.getUsedBytes() + bytes > quota) {
+                throw new QuotaExceededException("Directory quota of " + quota + " bytes exceeded.");
+            }
+        }
+    }
+
+    private void updateUsage(Metadata directory, long bytes, int blocks, int entries) throws IOException {
+        if (bytes == 0 && blocks == 0 && entries == 0) {
+            return;
+        }
+
+        for (Metadata current = directory; current != null; current = getParentMetadata(current)) {
+            current.setUsage(current.getUsedBytes() + bytes, current.getUsedBlocks() + blocks,
+                    current.getUsedEntries() + entries);
+        }
+    }
+
+    /**
+     * Allocates first blocks of entry data after the first block of its parent directory,
+     * so data of entries of one directory is placed close together.
+     */
+    private int allocateFirstBlock(Metadata metadata, int blockCount) throws IOException {
+        Metadata parent = getParentMetadata(metadata);
+        int goalBlock = parent != null ? parent.getFirstBlock() : Metadata.NO_BLOCK;
+        return blockManager.allocateBlockChain(blockCount, goalBlock);
+    }
+
+    private Metadata getParentMetadata(Metadata metadata) throws IOException {
+        int parentId = metadata.getParentId();
+        return parentId == Metadata.NO_PARENT ? null : metadataManager.getMetadata(parentId);
+    }
+
+    private int blockCount(int length) {
+        int blockSize = blockManager.getBlockSize();
+        return (int) (((long) length + blockSize - 1) / blockSize);
+    }
+
+    private class EntryOutputStream extends OutputStream {
+
+        private final Metadata metadata;
+        private int position = 0;
+        private boolean modified = false;
+        private boolean closed = false;
+
+        EntryOutputStream(Metadata metadata, boolean append)
+                throws IOException {
+            this.metadata = metadata;
+
+            if(append) {
+                position = metadata.getDataLength();
+            }
+
+            openFile(metadata);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            synchronized (metadata) {
+                int dataLength = growFile(metadata, position + 1);
+                modified = true;
+                try {
+                    int firstBlock = metadata.getFirstBlock();
+                    if (firstBlock < 0) {
+                        firstBlock = allocateFirstBlock(metadata, 1);
+                        metadata.setFirstBlock(firstBlock);
+                    }
+
+                    int offset = blockManager.ensureGlobalOffset(firstBlock, position);
+                    dataBlockStorage.putByte(offset, (byte) b);
+                }
+                catch (IOException e) {
+                    shrinkEntry(metadata, dataLength);
+                    throw e;
+                }
+
+                ++position;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            }
+            else if ((off < 0) ||
+                    (off > b.length) ||
+                    (len < 0) ||
+                    ((off + len) > b.length) ||
+                    ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            else if (len == 0) {
+                return;
+            }
+
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            synchronized (metadata) {
+                int start = position;
+                int dataLength = growFile(metadata, position + len);
+                modified = true;
+                try {
+                    int firstBlock = metadata.getFirstBlock();
+                    if (firstBlock < 0) {
+                        firstBlock = allocateFirstBlock(metadata, 1);
+                        metadata.setFirstBlock(firstBlock);
+                    }
+
+                    int blockSize = blockManager.getBlockSize();
+                    while(len > 0) {
+                        int offset = blockManager.ensureGlobalOffset(firstBlock, position);
+                        int remainingInBlock = blockSize - position % blockSize;
+                        if(len > remainingInBlock) {
+                            dataBlockStorage.putBytes(offset, b, off, remainingInBlock);
+                            position += remainingInBlock;
+                            len -= remainingInBlock;
+                            off += remainingInBlock;
+                        }
+                        else {
+                            dataBlockStorage.putBytes(offset, b, off, len);
+                            position += len;
+                            break;
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    position = start;
+                    shrinkEntry(metadata, dataLength);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            settle();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if(!closed) {
+                try {
+                    settle();
+                }
+                finally {
+                    closeFile(metadata);
+                    closed = true;
+                }
+            }
+        }
+
+        /**
+         * Generation and usage of file are updated once per flush, not on every write.
+         */
+        private void settle() throws IOException {
+            if(modified) {
+                synchronized (metadata) {
+                    markModified(metadata);
+                }
+                modified = false;
+            }
+            releaseReservation(metadata);
+        }
+    }
+
+    /**
+     * Output stream buffering written data in memory, blocks are allocated only when buffer is written
+     * on flush, close or when it reaches its limit, so file written at once gets single run of blocks.
+     */
+    private class DelayedEntryOutputStream extends OutputStream {
+
+        private final Metadata metadata;
+        private int position = 0;
+        private byte[] buffer = new byte[0];
+        private int buffered = 0;
+        private boolean closed = false;
+
+        DelayedEntryOutputStream(Metadata metadata, boolean append) throws IOException {
+            this.metadata = metadata;
+
+            if(append) {
+                position = metadata.getDataLength();
+            }
+
+            openFile(metadata);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            ensureBuffered(1);
+            buffer[buffered++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            }
+            else if ((off < 0) ||
+                    (off > b.length) ||
+                    (len < 0) ||
+                    ((off + len) > b.length) ||
+                    ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            }
+            else if (len == 0) {
+                return;
+            }
+
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            while(len > 0) {
+                int length = Math.min(len, DELAYED_ALLOCATION_LIMIT);
+                ensureBuffered(length);
+                System.arraycopy(b, off, buffer, buffered, length);
+                buffered += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            writeBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(!closed) {
+                try {
+                    writeBuffer();
+                }
+                finally {
+                    closeFile(metadata);
+                    closed = true;
+                    buffer = null;
+                }
+            }
+        }
+
+        private void ensureBuffered(int length) throws IOException {
+            if(buffered + length > DELAYED_ALLOCATION_LIMIT) {
+                writeBuffer();
+            }
+            if(buffered + length > buffer.length) {
+                int capacity = Math.max(buffered + length, Math.min(buffer.length * 2, DELAYED_ALLOCATION_LIMIT));
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, blockManager.getBlockSize()));
+            }
+        }
+
+        private void writeBuffer() throws IOException {
+            if(buffered == 0) {
+                return;
+            }
+
+            if((long) position + buffered > Integer.MAX_VALUE) {
+                throw new VirtualFileSystemException("File size limit exceeded.");
+            }
+
+            writeEntryData(metadata, position, buffer, 0, buffered);
+            position += buffered;
+            buffered = 0;
+        }
+    }
+
+    private class EntryInputStream extends InputStream {
+
+        private final Metadata metadata;
+        private int position = 0;
+        private boolean closed = false;
+
+        EntryInputStream(Metadata metadata) {
+            this(metadata, 0);
+        }
+
+        EntryInputStream(Metadata metadata, int position) {
+            this.metadata = metadata;
+            this.position = position;
+            openFile(metadata);
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            synchronized (metadata) {
+                if (position >= metadata.getDataLength()) {
+                    return -1;
+                }
+
+                int offset = blockManager.getGlobalOffset(metadata.getFirstBlock(), position);
+                int result = dataBlockStorage.getByte(offset) & 0xFF;
+                ++position;
+
+                return result;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            }
+            else if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            else if (len == 0) {
+                return 0;
+            }
+
+            if(closed) {
+                throw new ClosedStreamException();
+            }
+
+            synchronized (metadata) {
+                int dataLength = metadata.getDataLength();
+                if (position >= dataLength) {
+                    return -1;
+                }
+
+                int blockSize = blockManager.getBlockSize();
+                int total = 0;
+                while (len > 0) {
+                    int available = dataLength - position;
+                    int remainingInBlock = blockSize - position % blockSize;
+                    int lengthToRead = len < available ? len : available;
+                    lengthToRead = lengthToRead < remainingInBlock ? lengthToRead : remainingInBlock;
+
+                    if(lengthToRead <= 0) {
+                        break;
+                    }
+
+                    // block after the last one doesn't exist, when data ends at block boundary
+                    int offset = blockManager.getGlobalOffset(metadata.getFirstBlock(), position);
+                    dataBlockStorage.getBytes(offset, b, off, lengthToRead);
+                    off += lengthToRead;
+                    total += lengthToRead;
+                    position += lengthToRead;
+                    len -= lengthToRead;
+                }
+
+                return total;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return metadata.getDataLength() - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if(!closed) {
+                closeFile(metadata);
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * Lazily reads directory entries in batches, holding structure lock only while batch is read.
+     * Iteration is weakly consistent: entries added or removed concurrently may or may not be returned.
+     */
+    private class EntryDirectoryStream implements DirectoryStream<DirectoryEntry> {
+
+        private static final int BATCH_SIZE = 256;
+
+        private final Metadata metadata;
+        private volatile boolean closed = false;
+        private boolean iteratorReturned = false;
+
+        EntryDirectoryStream(Metadata metadata) {
+            this.metadata = metadata;
+        }
+
+        @Override
+        public synchronized Iterator<DirectoryEntry> iterator() {
+            if(closed) {
+                throw new IllegalStateException("Directory stream is closed.");
+            }
+
+            if(iteratorReturned) {
+                throw new IllegalStateException("Iterator already obtained.");
+            }
+
+            iteratorReturned = true;
+            return new Iterator<DirectoryEntry>() {
+                private final DirectoryReader reader = new DirectoryReader(metadata);
+                private final List<DirectoryEntry> batch = new ArrayList<>();
+                private final List<FileSystemEntry> entries = new ArrayList<>();
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    if(closed) {
+                        return false;
+                    }
+
+                    if(index >= batch.size() && !reader.isFinished()) {
+                        try {
+                            readBatch();
+                        }
+                        catch (IOException e) {
+                            throw new DirectoryIteratorException(e);
+                        }
+                    }
+
+                    return index < batch.size();
+                }
+
+                @Override
+                public DirectoryEntry next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return batch.get(index++);
+                }
+
+                private void readBatch() throws IOException {
+                    batch.clear();
+                    entries.clear();
+                    index = 0;
+
+                    fileSystemStructureLock.readLock().lock();
+                    try {
+                        reader.readBatch(entries, BATCH_SIZE);
+                        for(FileSystemEntry entry: entries) {
+                            batch.add(toDirectoryEntry(entry));
+                        }
+                    }
+                    finally {
+                        fileSystemStructureLock.readLock().unlock();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+
+    /**
+     * Live entry record together with its position in directory contents.
+     */
+    private static class EntryLocation {
+
+        final FileSystemEntry entry;
+        final int position;
+
+        EntryLocation(FileSystemEntry entry, int position) {
+            this.entry = entry;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Node of trie of looked up paths, each node corresponds to path component.
+     */
+    private static class LookupNode {
+
+        final Map<String, LookupNode> children = new HashMap<>();
+        // UTF-8 lengths of children names
+        final BitSet nameLengths = new BitSet();
+        // indices of paths ending at this node
+        final List<Integer> indices = new ArrayList<>(1);
+
+        void add(String path, int index) {
+            LookupNode node = this;
+            for (int start = PathUtils.componentStart(path, 0); start < path.length(); ) {
+                int end = PathUtils.componentEnd(path, start);
+                // names are compared with decoded records, so unpaired surrogates are replaced the same way
+                String name = new String(path.substring(start, end).getBytes(StandardCharsets.UTF_8),
+                        StandardCharsets.UTF_8);
+                LookupNode child = node.children.get(name);
+                if (child == null) {
+                    child = new LookupNode();
+                    node.children.put(name, child);
+                    node.nameLengths.set(PathUtils.utf8Length(name, 0, name.length()));
+                }
+                node = child;
+                start = PathUtils.componentStart(path, end);
+            }
+            node.indices.add(index);
+        }
+    }
+
+    /**
+     * Reads directory entries in batches, each batch continues after the last entry of previous one,
+     * so structure lock may be released between batches. Batches should be read under structure read lock.
+     */
+    private class DirectoryReader {
+
+        private final Metadata metadata;
+        private final List<Integer> positions = new ArrayList<>();
+        private int position = FIRST_ENTRY_POSITION;
+        private int lastPosition = -1;
+        private int lastId;
+        private int lastRecordLength;
+        private int nextId = FileSystemEntry.TOMBSTONE_ID;
+        private boolean finished = false;
+
+        DirectoryReader(Metadata metadata) {
+            this.metadata = metadata;
+        }
+
+        /**
+         * Reads at most count following entries into entries list.
+         * @return false if no more entries are left
+         */
+        boolean readBatch(List<FileSystemEntry> entries, int count) throws IOException {
+            if(finished) {
+                return false;
+            }
 
-    private boolean isOpened(Metadata metadata) {
-        return openedFiles.containsKey(metadata);
-    }
+            if(metadata.getType() != Type.Directory) {
+                finished = true;
+                return false;
+            }
 
-    private Metadata getMetadata(String pathTo) throws IOException {
-        List<String> pathComponents = PathUtils.getPathComponents(pathTo);
-        Metadata current = metadataManager.getRoot();
-        for (String component: pathComponents) {
-            Optional<FileSystemEntry> entry = readDirectoryContents(current)
-                    .stream()
-                    .filter(e -> e.getName().equals(component))
-                    .findFirst();
+            if(lastPosition >= 0) {
+                position = resumeDirectoryContents(metadata, lastPosition, lastId, lastRecordLength, nextId);
+            }
 
-            if(!entry.isPresent()) {
-                return null;
+            int start = entries.size();
+            positions.clear();
+            position = readDirectoryContents(metadata, position, count, entries, positions);
+            int read = entries.size() - start;
+            finished = read < count;
+
+            if(read > 0) {
+                FileSystemEntry lastEntry = entries.get(entries.size() - 1);
+                lastId = lastEntry.getMetadataId();
+                lastRecordLength = lastEntry.getRecordLength();
+                lastPosition = positions.get(positions.size() - 1);
             }
 
-            current = getEntryMetadata(entry.get());
+            if(!finished) {
+                // remember following entry, so reading can continue from it if directory is compacted
+                nextId = readNextEntryId(metadata, position);
+            }
+            return read > 0;
         }
 
-        return current;
-    }
-
-    private Metadata getEntryMetadata(FileSystemEntry fileSystemEntry) throws IOException {
-        return metadataManager.getMetadata(fileSystemEntry.getMetadataId());
+        boolean isFinished() {
+            return finished;
+        }
     }
 
-    private Metadata createFileSystemEntry(Metadata metadata, String name, Type type) throws IOException {
-        Metadata entryMetadata = metadataManager.allocateMetadata(type);
-        try (DataOutputStream outputStream = new DataOutputStream(new EntryOutputStream(metadata, true))) {
-            FileSystemEntry entry = new FileSystemEntry(entryMetadata.getId(), name);
-            entry.write(outputStream);
+    /**
+     * Puts single result of find into queue. Walk worker waits for consumer as managed blocker,
+     * so pool shared by walks adds workers meanwhile. Waiting ends when find is cancelled
+     * or its consumer is garbage collected.
+     */
+    private static class ResultOffer implements ForkJoinPool.ManagedBlocker {
+
+        private final BlockingQueue<Object> results;
+        private final AtomicBoolean cancelled;
+        private final WeakReference<Object> consumer;
+        private final Object result;
+
+        ResultOffer(BlockingQueue<Object> results, AtomicBoolean cancelled, WeakReference<Object> consumer,
+                    Object result) {
+            this.results = results;
+            this.cancelled = cancelled;
+            this.consumer = consumer;
+            this.result = result;
         }
-        return entryMetadata;
-    }
 
-    private List<FileSystemEntry> readDirectoryContents(Metadata metadata) throws IOException {
-        List<FileSystemEntry> contents = new ArrayList<>();
-        try (DataInputStream inputStream = new DataInputStream(new EntryInputStream(metadata))) {
-            while (inputStream.available() > 0) {
-                contents.add(FileSystemEntry.read(inputStream));
+        /**
+         * @return false if find is cancelled
+         */
+        boolean offer() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled.set(true);
             }
+            return !cancelled.get();
         }
-        return contents;
-    }
 
-    private void writeDirectoryContents(Metadata metadata, List<FileSystemEntry> entries) throws IOException {
-        metadata.setDataLength(0);
-        try (DataOutputStream outputStream = new DataOutputStream(new EntryOutputStream(metadata, false))) {
-            for (FileSystemEntry entry : entries) {
-                entry.write(outputStream);
+        @Override
+        public boolean block() throws InterruptedException {
+            if(results.offer(result, FIND_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
             }
-        }
 
-        int length = metadata.getDataLength();
-        if(length > 0) {
-            blockManager.truncateBlockChain(metadata.getFirstBlock(), length);
+            if(consumer.get() == null) {
+                cancelled.set(true);
+            }
+            return cancelled.get();
         }
-        else {
-            blockManager.deallocateBlockChain(metadata.getFirstBlock());
-            metadata.setFirstBlock(Metadata.NO_BLOCK);
+
+        @Override
+        public boolean isReleasable() {
+            return cancelled.get() || results.offer(result);
         }
     }
 
-    private boolean isDirectory(FileSystemEntry entry) {
-        try {
-            Metadata entryMetadata =  metadataManager.getMetadata(entry.getMetadataId());
-            return entryMetadata.getType() == Type.Directory;
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+    /**
+     * Visits entries of single directory and forks tasks for its subdirectories.
+     * Subdirectories are referenced by metadata, so their paths are never resolved again.
+     * Name and type criteria of filter are checked on directory records before metadata is read.
+     * Walk stops reading and forking once it's cancelled.
+     */
+    private class WalkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int BATCH_SIZE = 256;
+
+        private final Metadata metadata;
+        private final String path;
+        private final EntryFilter filter;
+        private final EntryVisitor visitor;
+        private final AtomicBoolean cancelled;
+
+        WalkTask(Metadata metadata, String path, EntryFilter filter, EntryVisitor visitor, AtomicBoolean cancelled) {
+            this.metadata = metadata;
+            this.path = path;
+            this.filter = filter;
+            this.visitor = visitor;
+            this.cancelled = cancelled;
         }
-    }
 
-    private boolean isFile(FileSystemEntry entry) {
-        try {
-            Metadata entryMetadata =  metadataManager.getMetadata(entry.getMetadataId());
-            return entryMetadata.getType() == Type.File;
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        @Override
+        protected void compute() {
+            try {
+                List<WalkTask> subtasks = new ArrayList<>();
+                List<FileSystemEntry> entries = new ArrayList<>();
+                List<DirectoryEntry> matched = new ArrayList<>();
+                List<Metadata> directories = new ArrayList<>();
+                DirectoryReader reader = new DirectoryReader(metadata);
+
+                while (!reader.isFinished() && !cancelled.get()) {
+                    entries.clear();
+                    matched.clear();
+                    directories.clear();
+
+                    fileSystemStructureLock.readLock().lock();
+                    try {
+                        reader.readBatch(entries, BATCH_SIZE);
+                        for (FileSystemEntry entry : entries) {
+                            boolean isDirectory = entry.getType() == Type.Directory;
+                            Metadata entryMetadata = null;
+
+                            if (filter.matchesName(entry.getName()) && filter.matchesType(isDirectory)) {
+                                entryMetadata = getEntryMetadata(entry);
+                                long size = entryMetadata.getDataLength();
+                                if (filter.matchesSize(size)) {
+                                    matched.add(new DirectoryEntry(entry.getName(), entry.getMetadataId(),
+                                            isDirectory, size));
+                                }
+                            }
+
+                            if (isDirectory) {
+                                directories.add(entryMetadata != null ? entryMetadata : getEntryMetadata(entry));
+                            }
+                        }
+                    }
+                    finally {
+                        fileSystemStructureLock.readLock().unlock();
+                    }
+
+                    // visitor is called without holding the lock, so it may access filesystem
+                    Set<Integer> skipped = new HashSet<>();
+                    for (DirectoryEntry entry : matched) {
+                        if (!visitor.visit(childPath(entry.getName()), entry) && entry.isDirectory()) {
+                            skipped.add(entry.getId());
+                        }
+                    }
+
+                    for (int i = 0, directoryIndex = 0; i < entries.size(); ++i) {
+                        FileSystemEntry entry = entries.get(i);
+                        if (entry.getType() != Type.Directory) {
+                            continue;
+                        }
+
+                        Metadata directory = directories.get(directoryIndex++);
+                        if (!skipped.contains(entry.getMetadataId()) && !cancelled.get()) {
+                            WalkTask subtask = new WalkTask(directory, childPath(entry.getName()), filter, visitor,
+                                    cancelled);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        }
+                    }
+                }
+
+                for (WalkTask subtask : subtasks) {
+                    subtask.join();
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String childPath(String name) {
+            return path + "/" + name;
         }
     }
 
-    private class EntryOutputStream extends OutputStream {
+    private class EntryChannel extends FileChannel {
+
+        private static final int TRANSFER_BLOCKS = 16;
 
         private final Metadata metadata;
-        private int position = 0;
-        private boolean closed = false;
+        private final boolean readable;
+        private final boolean writable;
+        private final boolean append;
+        private long position = 0;
+        private byte[] buffer;
 
-        EntryOutputStream(Metadata metadata, boolean append)
-                throws IOException {
+        EntryChannel(Metadata metadata, boolean readable, boolean writable, boolean append) {
             this.metadata = metadata;
+            this.readable = readable;
+            this.writable = writable;
+            this.append = append;
+            openFile(metadata);
+        }
 
-            if(append) {
-                position = metadata.getDataLength();
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureReadable();
+            synchronized (metadata) {
+                int read = readAt(dst, position);
+                if(read > 0) {
+                    position += read;
+                }
+                return read;
             }
-
-            openFile(metadata);
         }
 
         @Override
-        public void write(int b) throws IOException {
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset > dsts.length - length) {
+                throw new IndexOutOfBoundsException();
+            }
 
-            if(closed) {
-                throw new ClosedStreamException();
+            ensureReadable();
+            synchronized (metadata) {
+                long total = 0;
+                for(int i = offset; i < offset + length; ++i) {
+                    int read = readAt(dsts[i], position);
+                    if(read < 0) {
+                        return total > 0 ? total : -1;
+                    }
+
+                    position += read;
+                    total += read;
+                    if(dsts[i].hasRemaining()) {
+                        break;
+                    }
+                }
+                return total;
             }
+        }
 
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ensureWritable();
             synchronized (metadata) {
-                int firstBlock = metadata.getFirstBlock();
-                if (firstBlock < 0) {
-                    firstBlock = blockManager.allocateBlockChain();
-                    metadata.setFirstBlock(firstBlock);
+                if(append) {
+                    position = metadata.getDataLength();
                 }
 
-                int offset = blockManager.ensureGlobalOffset(firstBlock, position);
-                dataBlockStorage.putByte(offset, (byte) b);
+                int written = writeAt(src, position);
+                position += written;
+                return written;
+            }
+        }
 
-                ++position;
-                int dataLength = metadata.getDataLength();
-                if(position > dataLength) {
-                    metadata.setDataLength(position);
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset > srcs.length - length) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            ensureWritable();
+            synchronized (metadata) {
+                if(append) {
+                    position = metadata.getDataLength();
                 }
+
+                long total = 0;
+                for(int i = offset; i < offset + length; ++i) {
+                    int written = writeAt(srcs[i], position);
+                    position += written;
+                    total += written;
+                }
+                return total;
             }
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            if (b == null) {
-                throw new NullPointerException();
+        public long position() throws IOException {
+            ensureOpen();
+            synchronized (metadata) {
+                return position;
             }
-            else if ((off < 0) ||
-                    (off > b.length) ||
-                    (len < 0) ||
-                    ((off + len) > b.length) ||
-                    ((off + len) < 0)) {
-                throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            if(newPosition < 0) {
+                throw new IllegalArgumentException("position should be >= 0");
             }
-            else if (len == 0) {
-                return;
+
+            ensureOpen();
+            synchronized (metadata) {
+                position = newPosition;
             }
+            return this;
+        }
 
-            if(closed) {
-                throw new ClosedStreamException();
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return metadata.getDataLength();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if(size < 0) {
+                throw new IllegalArgumentException("size should be >= 0");
             }
 
+            ensureWritable();
             synchronized (metadata) {
-                int firstBlock = metadata.getFirstBlock();
-                if (firstBlock < 0) {
-                    firstBlock = blockManager.allocateBlockChain();
-                    metadata.setFirstBlock(firstBlock);
+                int dataLength = metadata.getDataLength();
+                if(size < dataLength) {
+                    truncateEntry(metadata, (int) size);
+
+                    // zero the tail of the last block, so data written after a gap reads as zeros
+                    int blockSize = blockManager.getBlockSize();
+                    int tail = (int) (size % blockSize);
+                    if(tail > 0) {
+                        int offset = blockManager.getGlobalOffset(metadata.getFirstBlock(), (int) size);
+                        dataBlockStorage.putBytes(offset, new byte[blockSize - tail]);
+                    }
                 }
 
-                int blockSize = blockManager.getBlockSize();
-                while(len > 0) {
-                    int offset = blockManager.ensureGlobalOffset(firstBlock, position);
-                    int remainingInBlock = blockSize - position % blockSize;
-                    if(len > remainingInBlock) {
-                        dataBlockStorage.putBytes(offset, b, off, remainingInBlock);
-                        position += remainingInBlock;
-                        len -= remainingInBlock;
-                        off += remainingInBlock;
-                    }
-                    else {
-                        dataBlockStorage.putBytes(offset, b, off, len);
-                        position += len;
+                if(position > size) {
+                    position = size;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            ensureOpen();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            if(position < 0 || count < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            ensureReadable();
+            if(!target.isOpen()) {
+                throw new ClosedChannelException();
+            }
+
+            // monitor is not held while writing to target, so transfers between two entries can't deadlock
+            byte[] transferBuffer = new byte[blockManager.getBlockSize() * TRANSFER_BLOCKS];
+            long total = 0;
+            while(total < count) {
+                int read;
+                synchronized (metadata) {
+                    int length = (int) Math.min(transferBuffer.length, count - total);
+                    read = readAt(ByteBuffer.wrap(transferBuffer, 0, length), position + total);
+                }
+
+                if(read <= 0) {
+                    break;
+                }
+
+                ByteBuffer source = ByteBuffer.wrap(transferBuffer, 0, read);
+                while (source.hasRemaining()) {
+                    if(target.write(source) == 0) {
                         break;
                     }
                 }
 
-                int dataLength = metadata.getDataLength();
-                if(position > dataLength) {
-                    metadata.setDataLength(position);
+                total += source.position();
+                if(source.hasRemaining()) {
+                    break;
                 }
             }
+            return total;
         }
 
         @Override
-        public void close() throws IOException {
-            super.close();
-            if(!closed) {
-                closeFile(metadata);
-                closed = true;
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            if(position < 0 || count < 0) {
+                throw new IllegalArgumentException();
             }
-        }
-    }
 
-    private class EntryInputStream extends InputStream {
+            ensureWritable();
+            if(position > size()) {
+                return 0;
+            }
 
-        private final Metadata metadata;
-        private int position = 0;
-        private boolean closed = false;
+            byte[] transferBuffer = new byte[blockManager.getBlockSize() * TRANSFER_BLOCKS];
+            long total = 0;
+            while(total < count) {
+                int length = (int) Math.min(transferBuffer.length, count - total);
+                ByteBuffer destination = ByteBuffer.wrap(transferBuffer, 0, length);
+                int read = src.read(destination);
+                if(read <= 0) {
+                    break;
+                }
 
-        EntryInputStream(Metadata metadata) {
-            this.metadata = metadata;
-            openFile(metadata);
+                destination.flip();
+                synchronized (metadata) {
+                    writeAt(destination, position + total);
+                }
+                total += read;
+            }
+            return total;
         }
 
         @Override
-        public int read() throws IOException {
-
-            if(closed) {
-                throw new ClosedStreamException();
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if(position < 0) {
+                throw new IllegalArgumentException("position should be >= 0");
             }
 
+            ensureReadable();
             synchronized (metadata) {
-                if (position >= metadata.getDataLength()) {
-                    return -1;
-                }
+                return readAt(dst, position);
+            }
+        }
 
-                int offset = blockManager.getGlobalOffset(metadata.getFirstBlock(), position);
-                int result = dataBlockStorage.getByte(offset) & 0xFF;
-                ++position;
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if(position < 0) {
+                throw new IllegalArgumentException("position should be >= 0");
+            }
 
-                return result;
+            ensureWritable();
+            synchronized (metadata) {
+                return writeAt(src, position);
             }
         }
 
         @Override
-        public int read(byte[] b, int off, int len) throws IOException {
-            if (b == null) {
-                throw new NullPointerException();
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            throw new UnsupportedOperationException("Memory mapping is not supported.");
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            throw new UnsupportedOperationException("File locking is not supported.");
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            throw new UnsupportedOperationException("File locking is not supported.");
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            closeFile(metadata);
+        }
+
+        private int readAt(ByteBuffer dst, long position) throws IOException {
+            int dataLength = metadata.getDataLength();
+            if(position >= dataLength) {
+                return dst.hasRemaining() ? -1 : 0;
             }
-            else if (off < 0 || len < 0 || len > b.length - off) {
-                throw new IndexOutOfBoundsException();
+
+            int blockSize = blockManager.getBlockSize();
+            int current = (int) position;
+            int total = 0;
+            while(dst.hasRemaining() && current < dataLength) {
+                int offset = blockManager.getGlobalOffset(metadata.getFirstBlock(), current);
+                int length = Math.min(dst.remaining(), dataLength - current);
+                length = Math.min(length, blockSize - current % blockSize);
+
+                if(dst.hasArray()) {
+                    dataBlockStorage.getBytes(offset, dst.array(), dst.arrayOffset() + dst.position(), length);
+                    dst.position(dst.position() + length);
+                }
+                else {
+                    byte[] chunk = getBuffer();
+                    length = Math.min(length, chunk.length);
+                    dataBlockStorage.getBytes(offset, chunk, 0, length);
+                    dst.put(chunk, 0, length);
+                }
+
+                current += length;
+                total += length;
             }
-            else if (len == 0) {
-                return 0;
+            return total;
+        }
+
+        private int writeAt(ByteBuffer src, long position) throws IOException {
+            if(position + src.remaining() > Integer.MAX_VALUE) {
+                throw new VirtualFileSystemException("File size limit exceeded.");
             }
 
-            if(closed) {
-                throw new ClosedStreamException();
+            if(!src.hasRemaining()) {
+                return 0;
             }
 
-            synchronized (metadata) {
-                int dataLength = metadata.getDataLength();
-                if (position >= dataLength) {
-                    return -1;
+            int current = (int) position;
+            int total = 0;
+            int dataLength = growEntry(metadata, current + src.remaining());
+            markModified(metadata);
+            try {
+                int firstBlock = metadata.getFirstBlock();
+                if (firstBlock < 0) {
+                    firstBlock = allocateFirstBlock(metadata, 1);
+                    metadata.setFirstBlock(firstBlock);
                 }
 
                 int blockSize = blockManager.getBlockSize();
-                int total = 0;
-                while (len > 0) {
-                    int offset = blockManager.getGlobalOffset(metadata.getFirstBlock(), position);
-                    int available = dataLength - position;
-                    int remainingInBlock = blockSize - position % blockSize;
-                    int lengthToRead = len < available ? len : available;
-                    lengthToRead = lengthToRead < remainingInBlock ? lengthToRead : remainingInBlock;
+                while(src.hasRemaining()) {
+                    int offset = blockManager.ensureGlobalOffset(firstBlock, current);
+                    int length = Math.min(src.remaining(), blockSize - current % blockSize);
 
-                    if(lengthToRead <= 0) {
-                        break;
+                    if(src.hasArray()) {
+                        dataBlockStorage.putBytes(offset, src.array(), src.arrayOffset() + src.position(), length);
+                        src.position(src.position() + length);
+                    }
+                    else {
+                        byte[] chunk = getBuffer();
+                        length = Math.min(length, chunk.length);
+                        src.get(chunk, 0, length);
+                        dataBlockStorage.putBytes(offset, chunk, 0, length);
                     }
 
-                    dataBlockStorage.getBytes(offset, b, off, lengthToRead);
-                    off += lengthToRead;
-                    total += lengthToRead;
-                    position += lengthToRead;
-                    len -= lengthToRead;
+                    current += length;
+                    total += length;
                 }
+            }
+            catch (IOException e) {
+                src.position(src.position() - total);
+                shrinkEntry(metadata, dataLength);
+                throw e;
+            }
+            return total;
+        }
 
-                return total;
+        private byte[] getBuffer() {
+            if(buffer == null) {
+                buffer = new byte[blockManager.getBlockSize()];
             }
+            return buffer;
         }
 
-        @Override
-        public int available() throws IOException {
-            return metadata.getDataLength() - position;
+        private void ensureOpen() throws IOException {
+            if(!isOpen()) {
+                throw new ClosedChannelException();
+            }
         }
 
-        @Override
-        public void close() throws IOException {
-            super.close();
-            if(!closed) {
-                closeFile(metadata);
-                closed = true;
+        private void ensureReadable() throws IOException {
+            ensureOpen();
+            if(!readable) {
+                throw new NonReadableChannelException();
+            }
+        }
+
+        private void ensureWritable() throws IOException {
+            ensureOpen();
+            if(!writable) {
+                throw new NonWritableChannelException();
             }
         }
     }
@@ -0,0 +1,54 @@
+package com.company.vfs;
+
+/**
+ * Immutable snapshot of counters of directory Bloom filters, which answer lookups of missing
+ * names without scanning directory contents. Only directories large enough to have filter are counted.
+ */
+public final class FilterStatistics {
+
+    private final long lookups;
+    private final long rejections;
+    private final long falsePositives;
+
+    FilterStatistics(long lookups, long rejections, long falsePositives) {
+        this.lookups = lookups;
+        this.rejections = rejections;
+        this.falsePositives = falsePositives;
+    }
+
+    /**
+     * @return number of lookups checked against filter
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * @return number of lookups answered by filter without scanning directory
+     */
+    public long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * @return number of lookups passed by filter, which didn't find entry
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * @return fraction of lookups answered by filter, 0 if there were no lookups
+     */
+    public double getHitRate() {
+        return lookups == 0 ? 0 : (double) rejections / lookups;
+    }
+
+    /**
+     * @return fraction of lookups of missing names passed by filter, 0 if there were no such lookups
+     */
+    public double getFalsePositiveRate() {
+        long misses = rejections + falsePositives;
+        return misses == 0 ? 0 : (double) falsePositives / misses;
+    }
+}
@@ -0,0 +1,53 @@
+package com.company.vfs;
+
+/**
+ * Immutable snapshot of placement of file data. Each file consists of one or more runs
+ * of consecutive blocks, file read sequentially jumps once per run.
+ */
+public final class FragmentationStatistics {
+
+    private final int fileCount;
+    private final long blockCount;
+    private final long runCount;
+
+    FragmentationStatistics(int fileCount, long blockCount, long runCount) {
+        this.fileCount = fileCount;
+        this.blockCount = blockCount;
+        this.runCount = runCount;
+    }
+
+    /**
+     * @return number of files having data blocks
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return number of data blocks of files
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return number of runs of consecutive blocks of files
+     */
+    public long getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return average number of blocks per run, 0 if there are no files with data
+     */
+    public double getAverageRunLength() {
+        return runCount == 0 ? 0 : (double) blockCount / runCount;
+    }
+
+    /**
+     * @return average number of runs per file, 1 if files aren't fragmented, 0 if there are no files with data
+     */
+    public double getAverageRunsPerFile() {
+        return fileCount == 0 ? 0 : (double) runCount / fileCount;
+    }
+}
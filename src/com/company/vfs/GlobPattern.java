@@ -0,0 +1,107 @@
+package com.company.vfs;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Glob pattern matched against entry names and paths.
+ */
+public final class GlobPattern {
+
+    private final String glob;
+    private final Pattern pattern;
+
+    private GlobPattern(String glob) {
+        this.glob = glob;
+        this.pattern = Pattern.compile(toRegex(glob));
+    }
+
+    /**
+     * Compiles glob pattern.
+     * @param glob glob pattern
+     * @return compiled pattern
+     * @throws IllegalArgumentException if glob is null
+     * @throws PatternSyntaxException if pattern is invalid
+     */
+    public static GlobPattern compile(String glob) {
+        if(glob == null) {
+            throw new IllegalArgumentException("glob parameter can't be null.");
+        }
+        return new GlobPattern(glob);
+    }
+
+    /**
+     * @param name name or path to match
+     * @return true if whole name matches pattern, otherwise false
+     */
+    public boolean matches(CharSequence name) {
+        return pattern.matcher(name).matches();
+    }
+
+    /**
+     * Converts glob pattern to regular expression. Supported syntax is the same as of
+     * {@link java.nio.file.FileSystem#getPathMatcher(String)}: '*' matches any characters except '/',
+     * '**' matches any characters, '?' matches single character, '{a,b}' matches any of subpatterns,
+     * '[abc]', '[a-z]' and '[!a]' match set of characters and '\\' escapes following character.
+     * @param glob glob pattern
+     * @return regular expression
+     * @throws PatternSyntaxException if pattern is invalid
+     */
+    public static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for(int i = 0; i < glob.length(); ++i) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        ++i;
+                    }
+                    else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    regex.append(')');
+                    inGroup = false;
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if(end < 0) {
+                        throw new PatternSyntaxException("Missing ']'", glob, i);
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if(set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if(i + 1 < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public String toString() {
+        return glob;
+    }
+}
@@ -0,0 +1,27 @@
+package com.company.vfs;
+
+/**
+ * 64-bit FNV-1a hashing shared by path index and directory filters. Hashes are persisted,
+ * so these functions must not change.
+ */
+class Hashing {
+
+    static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    static long fnv(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, so low bits of hash depend on all its bits.
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -4,13 +4,20 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.function.IntSupplier;
 
+/**
+ * Storage mapped to region of file. Region is mapped only as far as file extends, file is extended
+ * to the whole region when data beyond it is accessed, so region truncated by compaction or grown
+ * stays short until it's used.
+ */
 class MappedFileByteStorage implements ByteStorage {
 
     private final String path;
     private final int offset;
-    private final int length;
+    private int length;
     private ByteBuffer byteBuffer;
+    private int mappedLength;
 
     MappedFileByteStorage(String path, int offset, int length) throws IOException {
 
@@ -18,64 +25,109 @@ class MappedFileByteStorage implements ByteStorage {
         this.offset = offset;
         this.length = length;
 
-        ensureMapping();
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw")) {
+            map((int) Math.max(0, Math.min(length, randomAccessFile.length() - offset)));
+        }
     }
 
     @Override
     public void putByte(int offset, byte value) throws IOException {
-        byteBuffer.put(offset, value);
+        buffer(offset + 1).put(offset, value);
     }
 
     @Override
     public byte getByte(int offset) throws IOException {
-        return byteBuffer.get(offset);
+        return buffer(offset + 1).get(offset);
     }
 
     @Override
     public int getInt(int offset) throws IOException {
-        return byteBuffer.getInt(offset);
+        return buffer(offset + Integer.BYTES).getInt(offset);
     }
 
     @Override
     public void putInt(int offset, int value) throws IOException {
-        byteBuffer.putInt(offset, value);
+        buffer(offset + Integer.BYTES).putInt(offset, value);
     }
 
     @Override
     public void getBytes(int offset, byte[] dst) throws IOException {
+        ByteBuffer byteBuffer = buffer(offset + dst.length);
         byteBuffer.position(offset);
         byteBuffer.get(dst);
     }
 
     @Override
-    public void getBytes(int offset, byte[] dst, int dstOffset, int length) {
+    public void getBytes(int offset, byte[] dst, int dstOffset, int length) throws IOException {
+        ByteBuffer byteBuffer = buffer(offset + length);
         byteBuffer.position(offset);
         byteBuffer.get(dst, dstOffset, length);
     }
 
     @Override
     public void putBytes(int offset, byte[] source) throws IOException {
+        ByteBuffer byteBuffer = buffer(offset + source.length);
         byteBuffer.position(offset);
         byteBuffer.put(source);
     }
 
     @Override
-    public void putBytes(int offset, byte[] source, int sourceOffset, int length) {
+    public void putBytes(int offset, byte[] source, int sourceOffset, int length) throws IOException {
+        ByteBuffer byteBuffer = buffer(offset + length);
         byteBuffer.position(offset);
         byteBuffer.put(source, sourceOffset, length);
     }
 
-    private void ensureMapping() throws IOException {
-        if(byteBuffer != null) {
+    /**
+     * Remaps shorter region first and only then truncates file, so mapped memory never lies beyond end of file.
+     * Region followed by other data in file is left as is.
+     */
+    @Override
+    public void truncate(IntSupplier length) throws IOException {
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw")) {
+            if(randomAccessFile.length() > offset + this.length) {
+                return;
+            }
+
+            int newLength = Math.max(0, Math.min(this.length, length.getAsInt()));
+            if(newLength >= mappedLength) {
+                return;
+            }
+
+            map(newLength);
+            randomAccessFile.setLength(offset + newLength);
+        }
+    }
+
+    @Override
+    public void grow(int length) {
+        this.length = Math.max(this.length, length);
+    }
+
+    // accesses beyond the whole region are left to buffer, which reports them as before
+    private ByteBuffer buffer(int end) throws IOException {
+        if(end > mappedLength && mappedLength < length) {
+            try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw")) {
+                if(randomAccessFile.length() < offset + length) {
+                    randomAccessFile.setLength(offset + length);
+                }
+            }
+            map(length);
+        }
+        return byteBuffer;
+    }
+
+    private void map(int length) throws IOException {
+        if(length == 0) {
+            byteBuffer = ByteBuffer.allocate(0);
+            mappedLength = 0;
             return;
         }
 
         try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw");
             FileChannel channel = randomAccessFile.getChannel()) {
-            if(randomAccessFile.length() < offset + length) {
-                randomAccessFile.setLength(offset + length);
-            }
             byteBuffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+            mappedLength = length;
         }
     }
 }
@@ -5,6 +5,8 @@ import java.io.IOException;
 interface Metadata {
 
     int NO_BLOCK = -1;
+    int NO_PARENT = -1;
+    long NO_QUOTA = -1;
 
     int getDataLength() throws IOException;
 
@@ -20,11 +22,65 @@ interface Metadata {
 
     int getId();
 
+    int getParentId() throws IOException;
+
+    void setParentId(int parentId) throws IOException;
+
+    /**
+     * @return total length of files in directory subtree
+     */
+    long getUsedBytes() throws IOException;
+
+    /**
+     * @return number of blocks used by directory subtree, including directory contents itself
+     */
+    int getUsedBlocks() throws IOException;
+
+    /**
+     * @return number of entries in directory subtree, excluding directory itself
+     */
+    int getUsedEntries() throws IOException;
+
+    void setUsage(long bytes, int blocks, int entries) throws IOException;
+
+    /**
+     * @return length of file accounted in usage of its directories, it's greater than data length
+     * while space reserved for file written by output stream is not released
+     */
+    int getAccountedLength();
+
+    void setAccountedLength(int length);
+
+    long getQuota() throws IOException;
+
+    void setQuota(long quota) throws IOException;
+
+    /**
+     * @return hash of entry path stored in path index, used to confirm that index entry is not stale
+     */
+    long getPathHash() throws IOException;
+
+    void setPathHash(long hash) throws IOException;
+
+    /**
+     * @return number of modifications of entry data, used to detect changes between two reads of attributes
+     */
+    long getGeneration() throws IOException;
+
+    void setGeneration(long generation) throws IOException;
+
+    /**
+     * Reads whole record in single bulk read, so attributes are consistent with each other.
+     */
+    FileAttributes readAttributes() throws IOException;
+
     enum Type {
         Undefined(0),
         Directory(1),
         File(2);
 
+        private static final Type[] VALUES = values();
+
         public final int value;
 
         Type(int value) {
@@ -32,7 +88,7 @@ interface Metadata {
         }
 
         public static Type valueOf(int value) {
-            for(Type type: Type.values()) {
+            for(Type type: VALUES) {
                 if(type.value == value) {
                     return type;
                 }
@@ -0,0 +1,204 @@
+package com.company.vfs;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of metadata objects keyed by id. Entries are held strongly in open addressing table
+ * and evicted by CLOCK algorithm when table is full. Evicted entries are remembered weakly until they
+ * are garbage collected, so entry still used by open stream is returned again instead of its copy,
+ * and there is never more than one metadata object with the same id.
+ */
+class MetadataCache<T extends Metadata> {
+
+    interface Loader<T> {
+        T load(int id) throws IOException;
+    }
+
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] ids;
+    private final Object[] values;
+    private final boolean[] referenced;
+    private int size;
+    private int hand;
+
+    private final Map<Integer, EvictedReference<T>> evicted = new HashMap<>();
+    private final ReferenceQueue<T> evictedQueue = new ReferenceQueue<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    MetadataCache(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be > 0");
+        }
+
+        // table is at most half full, so probe sequences stay short
+        int tableSize = Integer.highestOneBit(capacity) << 2;
+        this.capacity = capacity;
+        this.mask = tableSize - 1;
+        this.ids = new int[tableSize];
+        this.values = new Object[tableSize];
+        this.referenced = new boolean[tableSize];
+        Arrays.fill(ids, EMPTY);
+    }
+
+    /**
+     * Returns cached metadata with given id or loads it, loading happens under lock of cache, so concurrent
+     * callers never get different objects for the same id.
+     */
+    synchronized T get(int id, Loader<T> loader) throws IOException {
+        int slot = find(id);
+        if(slot >= 0) {
+            referenced[slot] = true;
+            hits.increment();
+            return value(slot);
+        }
+
+        T value = reclaim(id);
+        if(value != null) {
+            hits.increment();
+        }
+        else {
+            misses.increment();
+            value = loader.load(id);
+        }
+
+        insert(id, value);
+        return value;
+    }
+
+    /**
+     * Caches newly allocated metadata, replacing any previous object with the same id.
+     */
+    synchronized void put(T value) {
+        int id = value.getId();
+        remove(id);
+        insert(id, value);
+    }
+
+    synchronized void remove(int id) {
+        evicted.remove(id);
+
+        int slot = find(id);
+        if(slot >= 0) {
+            delete(slot);
+        }
+    }
+
+    CacheStatistics getStatistics() {
+        int currentSize;
+        synchronized (this) {
+            currentSize = size;
+        }
+        return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(), currentSize, capacity);
+    }
+
+    private int find(int id) {
+        for(int slot = home(id); ids[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if(ids[slot] == id) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(int id, T value) {
+        if(size == capacity) {
+            evict();
+        }
+
+        int slot = home(id);
+        while(ids[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        ids[slot] = id;
+        values[slot] = value;
+        referenced[slot] = false;
+        ++size;
+    }
+
+    // clock hand gives second chance to referenced entries, entries shifted into examined slot are examined too
+    private void evict() {
+        while(true) {
+            if(ids[hand] != EMPTY) {
+                if(!referenced[hand]) {
+                    T value = value(hand);
+                    expungeEvicted();
+                    evicted.put(ids[hand], new EvictedReference<>(value, evictedQueue));
+                    delete(hand);
+                    evictions.increment();
+                    return;
+                }
+                referenced[hand] = false;
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    private T reclaim(int id) {
+        EvictedReference<T> reference = evicted.remove(id);
+        return reference != null ? reference.get() : null;
+    }
+
+    private void expungeEvicted() {
+        for(Object reference = evictedQueue.poll(); reference != null; reference = evictedQueue.poll()) {
+            EvictedReference<?> evictedReference = (EvictedReference<?>) reference;
+            evicted.remove(evictedReference.id, evictedReference);
+        }
+    }
+
+    /**
+     * Removes entry without leaving a tombstone. Each following id of the probe run is moved into the hole
+     * with its value and reference bit, when hole is not before its home slot, so every cached id
+     * is still found by {@link #find} probing from its home.
+     */
+    private void delete(int slot) {
+        int hole = slot;
+        for(int next = (hole + 1) & mask; ids[next] != EMPTY; next = (next + 1) & mask) {
+            int home = home(ids[next]);
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                ids[hole] = ids[next];
+                values[hole] = values[next];
+                referenced[hole] = referenced[next];
+                hole = next;
+            }
+        }
+
+        ids[hole] = EMPTY;
+        values[hole] = null;
+        referenced[hole] = false;
+        --size;
+    }
+
+    private int home(int id) {
+        // ids are allocated densely, so they are scattered to avoid long clusters
+        int hash = id * 0x9E3779B9;
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(int slot) {
+        return (T) values[slot];
+    }
+
+    private static class EvictedReference<T extends Metadata> extends WeakReference<T> {
+
+        private final int id;
+
+        EvictedReference(T referent, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
+            this.id = referent.getId();
+        }
+    }
+}
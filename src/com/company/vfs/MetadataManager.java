@@ -3,10 +3,8 @@ package com.company.vfs;
 import com.company.vfs.Metadata.Type;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.*;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -18,22 +16,33 @@ class MetadataManager {
     private final static int MAX_METADATA_OFFSET = 0;
     private final static int MAP_OFFSET = 4;
 
+    static final int DEFAULT_CACHE_CAPACITY = 16384;
+
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private final Map<Integer, WeakReference<MappedMetadata>> metadataCache = new HashMap<>();
+    private final MetadataCache<MappedMetadata> metadataCache;
     private final BitSet metadataMap;
 
     private final BlockManager blockManager;
     private final ByteStorage dataBlocksStorage;
-    private final Metadata root;
+    private final MappedMetadata root;
 
     private int maxMetadata;
+    // no index below is free, so allocation doesn't rescan allocated prefix of metadata map
+    private int firstFree;
+    // chains are truncated lazily, so metadata chain can be longer than needed for maxMetadata
+    private int metadataBlocks;
 
     private final int metadataPerBlock;
 
     MetadataManager(BlockManager blockManager, ByteStorage dataBlocksStorage) throws IOException {
+        this(blockManager, dataBlocksStorage, DEFAULT_CACHE_CAPACITY);
+    }
+
+    MetadataManager(BlockManager blockManager, ByteStorage dataBlocksStorage, int cacheCapacity) throws IOException {
 
         this.blockManager = blockManager;
         this.dataBlocksStorage = dataBlocksStorage;
+        this.metadataCache = new MetadataCache<>(cacheCapacity);
         this.metadataPerBlock = blockManager.getBlockSize() / MappedMetadata.BYTES;
 
         maxMetadata = readMaxMetadata();
@@ -49,13 +58,16 @@ class MetadataManager {
             metadataMap = new BitSet();
         }
 
+        this.metadataBlocks = blockManager.getBlockChainLength(METADATA_BLOCK_CHAIN);
         this.root = new MappedMetadata(0);
         if(!isAllocated(0)) {
             setAllocated(0);
-            this.root.setType(Type.Directory);
-            this.root.setDataLength(0);
-            this.root.setFirstBlock(Metadata.NO_BLOCK);
+            this.root.initialize(Type.Directory);
         }
+        else {
+            this.root.load();
+        }
+        firstFree = metadataMap.nextClearBit(0);
     }
 
     Metadata getRoot() {
@@ -75,16 +87,11 @@ class MetadataManager {
         lock.readLock().lock();
         try {
             if (metadataMap.get(metadataId)) {
-
-                WeakReference<MappedMetadata> cachedMetadata = metadataCache.get(metadataId);
-                if(cachedMetadata != null && cachedMetadata.get() != null)
-                {
-                    return cachedMetadata.get();
-                }
-
-                MappedMetadata metadata = new MappedMetadata(metadataId);
-                metadataCache.put(metadataId, new WeakReference<>(metadata));
-                return metadata;
+                return metadataCache.get(metadataId, id -> {
+                    MappedMetadata metadata = new MappedMetadata(id);
+                    metadata.load();
+                    return metadata;
+                });
             }
 
             return null;
@@ -97,7 +104,7 @@ class MetadataManager {
     Metadata allocateMetadata(Type type) throws IOException {
         lock.writeLock().lock();
         try {
-            int index = metadataMap.nextClearBit(0);
+            int index = metadataMap.nextClearBit(firstFree);
 
             if(index >= maxMetadata) {
                 maxMetadata = index + 1;
@@ -105,13 +112,13 @@ class MetadataManager {
             }
 
             setAllocated(index);
+            firstFree = index + 1;
 
             MappedMetadata metadata = new MappedMetadata(index);
-            metadata.setType(type);
-            metadata.setDataLength(0);
-            metadata.setFirstBlock(Metadata.NO_BLOCK);
+            metadataBlocks = Math.max(metadataBlocks, index / metadataPerBlock + 1);
+            metadata.initialize(type);
 
-            metadataCache.put(index, new WeakReference<>(metadata));
+            metadataCache.put(metadata);
             return metadata;
         }
         finally {
@@ -119,30 +126,115 @@ class MetadataManager {
         }
     }
 
+    /**
+     * Allocates several metadata objects at once, each changed byte of metadata map is written only once.
+     * @param types types of allocated metadata
+     * @return allocated metadata in the same order as types
+     */
+    List<Metadata> allocateMetadata(List<Type> types) throws IOException {
+        lock.writeLock().lock();
+        try {
+            List<Metadata> result = new ArrayList<>(types.size());
+            BitSet changedBytes = new BitSet();
+            int previousMaxMetadata = maxMetadata;
+            int index = firstFree;
+            try {
+                for (Type type : types) {
+                    index = metadataMap.nextClearBit(index);
+                    MappedMetadata metadata = new MappedMetadata(index);
+                    metadataBlocks = Math.max(metadataBlocks, index / metadataPerBlock + 1);
+                    metadataMap.set(index);
+                    changedBytes.set(index / 8);
+                    result.add(metadata);
+
+                    if (index >= maxMetadata) {
+                        maxMetadata = index + 1;
+                    }
+
+                    metadata.initialize(type);
+                    metadataCache.put(metadata);
+                }
+            }
+            catch (IOException e) {
+                // map is not written yet, so it's enough to forget allocated indices
+                for (Metadata metadata : result) {
+                    metadataMap.clear(metadata.getId());
+                    metadataCache.remove(metadata.getId());
+                }
+                maxMetadata = previousMaxMetadata;
+                throw e;
+            }
+            if(!result.isEmpty()) {
+                firstFree = index + 1;
+            }
+
+            writeMaxMetadata(maxMetadata);
+            writeMapBytes(changedBytes);
+            return result;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     void deallocateMetadata(Metadata metadata) throws IOException {
         lock.writeLock().lock();
         try {
             int index = metadata.getId();
             setDeallocated(index);
+            firstFree = Math.min(firstFree, index);
             metadataCache.remove(index);
 
-            int max = metadataMap.previousSetBit(maxMetadata - 1) + 1;
-            if(max < maxMetadata) {
-                maxMetadata = max;
-                writeMaxMetadata(maxMetadata);
+            truncateMetadata();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-                int mapByteLength = (maxMetadata + 7) / 8;
-                blockManager.truncateBlockChain(MAP_BLOCK_CHAIN, MAP_OFFSET + mapByteLength);
-                blockManager.truncateBlockChain(METADATA_BLOCK_CHAIN,
-                        metadataOffset(maxMetadata) + MappedMetadata.BYTES);
+    /**
+     * Deallocates several metadata objects at once, each changed byte of metadata map is written only once
+     * and metadata chains are truncated at most once.
+     * @param metadataList metadata to deallocate
+     */
+    void deallocateMetadata(Collection<Metadata> metadataList) throws IOException {
+        lock.writeLock().lock();
+        try {
+            BitSet changedBytes = new BitSet();
+            for(Metadata metadata: metadataList) {
+                int index = metadata.getId();
+                metadataMap.clear(index);
+                metadataCache.remove(index);
+                changedBytes.set(index / 8);
+                firstFree = Math.min(firstFree, index);
             }
 
+            writeMapBytes(changedBytes);
+
+            truncateMetadata();
         }
         finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * @return ids of all allocated metadata in ascending order
+     */
+    int[] getAllocatedIds() {
+        lock.readLock().lock();
+        try {
+            return metadataMap.stream().toArray();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    CacheStatistics getCacheStatistics() {
+        return metadataCache.getStatistics();
+    }
+
     int getMetadataCount() {
         lock.readLock().lock();
         try {
@@ -153,30 +245,65 @@ class MetadataManager {
         }
     }
 
+    /**
+     * Chains keep room for twice the highest allocated id and are truncated only when they are longer than that,
+     * so create and delete churn at the top of id range doesn't free and reallocate the same blocks again and again.
+     */
+    private void truncateMetadata() throws IOException {
+        int max = metadataMap.previousSetBit(maxMetadata - 1) + 1;
+        if(max < maxMetadata) {
+            maxMetadata = max;
+            writeMaxMetadata(maxMetadata);
+        }
+
+        int keptBlocks = (2 * maxMetadata - 1) / metadataPerBlock + 1;
+        if(keptBlocks < metadataBlocks) {
+            int keptMetadata = keptBlocks * metadataPerBlock;
+            blockManager.truncateBlockChain(MAP_BLOCK_CHAIN, MAP_OFFSET + (keptMetadata + 7) / 8);
+            blockManager.truncateBlockChain(METADATA_BLOCK_CHAIN, keptBlocks * blockManager.getBlockSize());
+            metadataBlocks = keptBlocks;
+        }
+    }
+
     private boolean isAllocated(int index) {
         return metadataMap.get(index);
     }
 
     private void setAllocated(int index) throws IOException {
         metadataMap.set(index);
-        // Set bit in storage
-        int byteOffset = MAP_OFFSET + index / 8;
-        int offset = blockManager.ensureGlobalOffset(MAP_BLOCK_CHAIN, byteOffset);
-
-        byte mapByte = dataBlocksStorage.getByte(offset);
-        mapByte |= 1 << (index % 8);
-        dataBlocksStorage.putByte(offset, mapByte);
+        writeMapByte(index / 8);
     }
 
     private void setDeallocated(int index) throws IOException {
         metadataMap.clear(index);
-        // Set bit in storage
-        int byteOffset = MAP_OFFSET + index / 8;
-        int offset = blockManager.ensureGlobalOffset(MAP_BLOCK_CHAIN, byteOffset);
+        writeMapByte(index / 8);
+    }
 
-        byte mapByte = dataBlocksStorage.getByte(offset);
-        mapByte &= ~(1 << (index % 8));
-        dataBlocksStorage.putByte(offset, mapByte);
+    // in-memory map is authoritative, so byte is written without reading it from storage
+    private void writeMapByte(int byteIndex) throws IOException {
+        int offset = blockManager.ensureGlobalOffset(MAP_BLOCK_CHAIN, MAP_OFFSET + byteIndex);
+        dataBlocksStorage.putByte(offset, BlockManager.mapByte(metadataMap, byteIndex));
+    }
+
+    /**
+     * Writes each run of consecutive changed bytes of metadata map with single bulk write per block.
+     */
+    private void writeMapBytes(BitSet changedBytes) throws IOException {
+        int blockSize = blockManager.getBlockSize();
+        int start = changedBytes.nextSetBit(0);
+        while(start >= 0) {
+            int end = changedBytes.nextClearBit(start);
+            byte[] run = Arrays.copyOf(metadataMap.get(start * 8, end * 8).toByteArray(), end - start);
+
+            for(int written = 0; written < run.length; ) {
+                int position = MAP_OFFSET + start + written;
+                int length = Math.min(run.length - written, blockSize - position % blockSize);
+                int offset = blockManager.ensureGlobalOffset(MAP_BLOCK_CHAIN, position);
+                dataBlocksStorage.putBytes(offset, run, written, length);
+                written += length;
+            }
+            start = changedBytes.nextSetBit(end);
+        }
     }
 
     private int readMaxMetadata() throws IOException {
@@ -197,30 +324,64 @@ class MetadataManager {
 
     private class MappedMetadata implements Metadata {
 
-        private static final int BYTES = 12;
+        private static final int BYTES = 56;
         private static final int FIELD_SIZE = 4;
 
         private static final int TYPE_INDEX = 0;
         private static final int DATA_LENGTH_INDEX = 1;
         private static final int FIRST_BLOCK_INDEX = 2;
+        private static final int PARENT_ID_INDEX = 3;
+        // long fields take two indices
+        private static final int USED_BYTES_INDEX = 4;
+        private static final int USED_BLOCKS_INDEX = 6;
+        private static final int USED_ENTRIES_INDEX = 7;
+        private static final int QUOTA_INDEX = 8;
+        private static final int PATH_HASH_INDEX = 10;
+        private static final int GENERATION_INDEX = 12;
 
         private final int id;
         private final int offset;
 
-        volatile private Integer dataLength;
-        volatile private Integer firstBlock;
+        // fields used on every access are kept in memory, other fields are read from storage
+        volatile private int dataLength;
+        volatile private int firstBlock;
         volatile private Type type;
+        // reservation is not persisted, usage is settled when output stream is flushed or closed
+        volatile private int accountedLength;
 
         MappedMetadata(int id) throws IOException {
             this.id = id;
             this.offset = blockManager.ensureGlobalOffset(METADATA_BLOCK_CHAIN, metadataOffset(id));
         }
 
+        /**
+         * Reads fields kept in memory in single bulk read.
+         */
+        void load() throws IOException {
+            byte[] fields = new byte[(FIRST_BLOCK_INDEX + 1) * FIELD_SIZE];
+            dataBlocksStorage.getBytes(offset, fields);
+
+            ByteBuffer buffer = ByteBuffer.wrap(fields);
+            type = Type.valueOf(buffer.getInt(TYPE_INDEX * FIELD_SIZE));
+            dataLength = buffer.getInt(DATA_LENGTH_INDEX * FIELD_SIZE);
+            firstBlock = buffer.getInt(FIRST_BLOCK_INDEX * FIELD_SIZE);
+            accountedLength = dataLength;
+        }
+
+        void initialize(Type type) throws IOException {
+            setType(type);
+            setDataLength(0);
+            setAccountedLength(0);
+            setFirstBlock(Metadata.NO_BLOCK);
+            setParentId(Metadata.NO_PARENT);
+            setUsage(0, 0, 0);
+            setQuota(Metadata.NO_QUOTA);
+            setPathHash(0);
+            setGeneration(0);
+        }
+
         @Override
         public int getDataLength() throws IOException {
-            if(dataLength == null) {
-                dataLength = readField(DATA_LENGTH_INDEX);
-            }
             return dataLength;
         }
 
@@ -232,9 +393,6 @@ class MetadataManager {
 
         @Override
         public int getFirstBlock() throws IOException {
-            if(firstBlock == null) {
-                firstBlock = readField(FIRST_BLOCK_INDEX);
-            }
             return firstBlock;
         }
 
@@ -246,9 +404,6 @@ class MetadataManager {
 
         @Override
         public Type getType() throws IOException {
-            if(type == null) {
-                type = Type.valueOf(readField(TYPE_INDEX));
-            }
             return type;
         }
 
@@ -263,6 +418,93 @@ class MetadataManager {
             return id;
         }
 
+        @Override
+        public int getParentId() throws IOException {
+            return readField(PARENT_ID_INDEX);
+        }
+
+        @Override
+        public void setParentId(int parentId) throws IOException {
+            writeField(PARENT_ID_INDEX, parentId);
+        }
+
+        @Override
+        public long getUsedBytes() throws IOException {
+            return readLongField(USED_BYTES_INDEX);
+        }
+
+        @Override
+        public int getUsedBlocks() throws IOException {
+            return readField(USED_BLOCKS_INDEX);
+        }
+
+        @Override
+        public int getUsedEntries() throws IOException {
+            return readField(USED_ENTRIES_INDEX);
+        }
+
+        @Override
+        public void setUsage(long bytes, int blocks, int entries) throws IOException {
+            writeLongField(USED_BYTES_INDEX, bytes);
+            writeField(USED_BLOCKS_INDEX, blocks);
+            writeField(USED_ENTRIES_INDEX, entries);
+        }
+
+        @Override
+        public int getAccountedLength() {
+            return accountedLength;
+        }
+
+        @Override
+        public void setAccountedLength(int length) {
+            accountedLength = length;
+        }
+
+        @Override
+        public long getQuota() throws IOException {
+            return readLongField(QUOTA_INDEX);
+        }
+
+        @Override
+        public void setQuota(long quota) throws IOException {
+            writeLongField(QUOTA_INDEX, quota);
+        }
+
+        @Override
+        public long getPathHash() throws IOException {
+            return readLongField(PATH_HASH_INDEX);
+        }
+
+        @Override
+        public void setPathHash(long hash) throws IOException {
+            writeLongField(PATH_HASH_INDEX, hash);
+        }
+
+        @Override
+        public long getGeneration() throws IOException {
+            return readLongField(GENERATION_INDEX);
+        }
+
+        @Override
+        public void setGeneration(long generation) throws IOException {
+            writeLongField(GENERATION_INDEX, generation);
+        }
+
+        @Override
+        public FileAttributes readAttributes() throws IOException {
+            byte[] record = new byte[BYTES];
+            dataBlocksStorage.getBytes(offset, record);
+
+            ByteBuffer fields = ByteBuffer.wrap(record);
+            Type recordType = Type.valueOf(fields.getInt(TYPE_INDEX * FIELD_SIZE));
+            int length = fields.getInt(DATA_LENGTH_INDEX * FIELD_SIZE);
+            int blockSize = blockManager.getBlockSize();
+            int blocks = (int) (((long) length + blockSize - 1) / blockSize);
+
+            return new FileAttributes(id, recordType == Type.Directory, length, blocks,
+                    fields.getLong(GENERATION_INDEX * FIELD_SIZE));
+        }
+
         @Override
         public boolean equals(Object obj) {
             return  obj != null &&
@@ -283,5 +525,14 @@ class MetadataManager {
         private void writeField(int index, int value) throws IOException {
             dataBlocksStorage.putInt(offset + index * FIELD_SIZE, value);
         }
+
+        private long readLongField(int index) throws IOException {
+            return ((long) readField(index) << 32) | (readField(index + 1) & 0xFFFFFFFFL);
+        }
+
+        private void writeLongField(int index, long value) throws IOException {
+            writeField(index, (int) (value >>> 32));
+            writeField(index + 1, (int) value);
+        }
     }
 }
@@ -0,0 +1,97 @@
+package com.company.vfs;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Immutable description of entry created by batch operation.
+ */
+public final class NewEntry {
+
+    private final String path;
+    private final boolean directory;
+    private final long size;
+    private final ContentSupplier content;
+
+    private NewEntry(String path, boolean directory, long size, ContentSupplier content) {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        this.path = path;
+        this.directory = directory;
+        this.size = size;
+        this.content = content;
+    }
+
+    /**
+     * @param path path to directory
+     * @return description of new directory
+     * @throws IllegalArgumentException if path is null
+     */
+    public static NewEntry directory(String path) {
+        return new NewEntry(path, true, 0, null);
+    }
+
+    /**
+     * @param path path to file
+     * @return description of new empty file
+     * @throws IllegalArgumentException if path is null
+     */
+    public static NewEntry file(String path) {
+        return new NewEntry(path, false, 0, null);
+    }
+
+    /**
+     * @param path path to file
+     * @param content file content
+     * @return description of new file
+     * @throws IllegalArgumentException if path or content is null
+     */
+    public static NewEntry file(String path, byte[] content) {
+        if(content == null) {
+            throw new IllegalArgumentException("content parameter can't be null.");
+        }
+        return new NewEntry(path, false, content.length, () -> new ByteArrayInputStream(content));
+    }
+
+    /**
+     * @param path path to file
+     * @param size expected content size in bytes used to preallocate blocks, -1 if unknown
+     * @param content supplier of file content
+     * @return description of new file
+     * @throws IllegalArgumentException if path or content is null or size is less than -1
+     */
+    public static NewEntry file(String path, long size, ContentSupplier content) {
+        if(content == null) {
+            throw new IllegalArgumentException("content parameter can't be null.");
+        }
+        if(size < -1) {
+            throw new IllegalArgumentException("size parameter should be -1 or non negative.");
+        }
+        return new NewEntry(path, false, size, content);
+    }
+
+    /**
+     * @return path to entry
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return true if entry is directory, otherwise false
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return expected content size in bytes, -1 if unknown
+     */
+    public long getSize() {
+        return size;
+    }
+
+    ContentSupplier getContent() {
+        return content;
+    }
+}
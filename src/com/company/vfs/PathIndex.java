@@ -0,0 +1,233 @@
+package com.company.vfs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Persistent hash table mapping hash of full path to metadata id, stored in its own block chain.
+ * Table uses linear probing, entries are removed with backward shift, so there are no tombstones.
+ * Index may contain stale entries left by failed operations, so every found id has to be confirmed
+ * by caller against path hash stored in metadata, which is changed only after entry is linked at new path.
+ */
+class PathIndex {
+
+    static final int BLOCK_CHAIN = 2;
+
+    private static final int CAPACITY_OFFSET = 0;
+    private static final int SIZE_OFFSET = 4;
+    private static final int HEADER_SIZE = 16;
+
+    // slot is [long hash][int metadata id][int unused], so slots never cross boundary of block which size is
+    // multiple of slot size
+    private static final int SLOT_SIZE = 16;
+    private static final int ID_OFFSET = 8;
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int LOAD_FACTOR_PERCENT = 75;
+
+    private final BlockManager blockManager;
+    private final ByteStorage dataBlocksStorage;
+
+    private int capacity;
+    private int size;
+
+    private PathIndex(BlockManager blockManager, ByteStorage dataBlocksStorage) {
+        this.blockManager = blockManager;
+        this.dataBlocksStorage = dataBlocksStorage;
+    }
+
+    /**
+     * Initializes empty index in reserved block chain.
+     */
+    static PathIndex create(BlockManager blockManager, ByteStorage dataBlocksStorage) throws IOException {
+        PathIndex index = new PathIndex(blockManager, dataBlocksStorage);
+        index.clear(INITIAL_CAPACITY);
+        return index;
+    }
+
+    static PathIndex open(BlockManager blockManager, ByteStorage dataBlocksStorage) throws IOException {
+        PathIndex index = new PathIndex(blockManager, dataBlocksStorage);
+        index.capacity = index.readInt(CAPACITY_OFFSET);
+        index.size = index.readInt(SIZE_OFFSET);
+        return index;
+    }
+
+    /**
+     * Hashes path component by component, so paths differing only in separators have the same hash.
+     * @return hash of path, root has no components and hash of empty path
+     */
+    static long hash(String path) {
+        long hash = Hashing.FNV_OFFSET_BASIS;
+        for(int start = PathUtils.componentStart(path, 0); start < path.length(); ) {
+            int end = PathUtils.componentEnd(path, start);
+            hash = Hashing.fnv(hash, '/');
+            for(int i = start; i < end; ++i) {
+                hash = Hashing.fnv(hash, path.charAt(i));
+            }
+            start = PathUtils.componentStart(path, end);
+        }
+
+        // low bits used for slot index depend on all bits
+        return Hashing.mix(hash);
+    }
+
+    /**
+     * Probes slots of given hash, returning first id accepted by confirmation.
+     * @return metadata id, or -1 if no id is confirmed
+     */
+    int get(long hash, Confirmation confirmation) throws IOException {
+        int mask = capacity - 1;
+        for(int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            int metadataId = readId(slot);
+            if(metadataId == EMPTY) {
+                return -1;
+            }
+
+            if(readHash(slot) == hash && confirmation.confirm(metadataId)) {
+                return metadataId;
+            }
+        }
+    }
+
+    void put(long hash, int metadataId) throws IOException {
+        if((long) (size + 1) * 100 > (long) capacity * LOAD_FACTOR_PERCENT) {
+            grow();
+        }
+
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        for(int id = readId(slot); id != EMPTY; id = readId(slot)) {
+            if(id == metadataId && readHash(slot) == hash) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        writeSlot(slot, hash, metadataId);
+        writeSize(size + 1);
+    }
+
+    void remove(long hash, int metadataId) throws IOException {
+        int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        for(int id = readId(slot); ; id = readId(slot)) {
+            if(id == EMPTY) {
+                return;
+            }
+            if(id == metadataId && readHash(slot) == hash) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // shift following entries of the same cluster back, if removed slot is between their home and them
+        int hole = slot;
+        for(int next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+            int id = readId(next);
+            if(id == EMPTY) {
+                break;
+            }
+
+            long nextHash = readHash(next);
+            int home = (int) nextHash & mask;
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                writeSlot(hole, nextHash, id);
+                hole = next;
+            }
+        }
+
+        writeSlot(hole, 0, EMPTY);
+        writeSize(size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() throws IOException {
+        int oldCapacity = capacity;
+        long[] hashes = new long[size];
+        int[] ids = new int[size];
+        int count = 0;
+        for(int slot = 0; slot < oldCapacity; ++slot) {
+            int id = readId(slot);
+            if(id != EMPTY) {
+                hashes[count] = readHash(slot);
+                ids[count] = id;
+                ++count;
+            }
+        }
+
+        // chain is extended before anything is overwritten, so index stays intact if there are no free blocks
+        blockManager.ensureGlobalOffset(BLOCK_CHAIN, slotOffset(oldCapacity * 2) - 1);
+        clear(oldCapacity * 2);
+
+        int mask = capacity - 1;
+        for(int i = 0; i < count; ++i) {
+            int slot = (int) hashes[i] & mask;
+            while(readId(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            writeSlot(slot, hashes[i], ids[i]);
+        }
+        writeSize(count);
+    }
+
+    private void clear(int newCapacity) throws IOException {
+        int blockSize = blockManager.getBlockSize();
+        // block sized pattern of empty slots, id field of every slot is set to EMPTY
+        byte[] empty = new byte[blockSize];
+        for(int i = ID_OFFSET; i < blockSize; i += SLOT_SIZE) {
+            Arrays.fill(empty, i, i + 4, (byte) 0xFF);
+        }
+
+        int end = slotOffset(newCapacity);
+        for(int position = HEADER_SIZE; position < end; ) {
+            int offset = blockManager.ensureGlobalOffset(BLOCK_CHAIN, position);
+            int length = Math.min(end - position, blockSize - position % blockSize);
+            dataBlocksStorage.putBytes(offset, empty, position % blockSize, length);
+            position += length;
+        }
+
+        capacity = newCapacity;
+        writeInt(CAPACITY_OFFSET, newCapacity);
+        writeSize(0);
+    }
+
+    private long readHash(int slot) throws IOException {
+        int offset = slotOffset(slot);
+        return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private int readId(int slot) throws IOException {
+        return readInt(slotOffset(slot) + ID_OFFSET);
+    }
+
+    private void writeSlot(int slot, long hash, int metadataId) throws IOException {
+        int offset = slotOffset(slot);
+        writeInt(offset, (int) (hash >>> 32));
+        writeInt(offset + 4, (int) hash);
+        writeInt(offset + ID_OFFSET, metadataId);
+    }
+
+    private void writeSize(int size) throws IOException {
+        this.size = size;
+        writeInt(SIZE_OFFSET, size);
+    }
+
+    private int readInt(int position) throws IOException {
+        return dataBlocksStorage.getInt(blockManager.getGlobalOffset(BLOCK_CHAIN, position));
+    }
+
+    private void writeInt(int position, int value) throws IOException {
+        dataBlocksStorage.putInt(blockManager.getGlobalOffset(BLOCK_CHAIN, position), value);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    interface Confirmation {
+        boolean confirm(int metadataId) throws IOException;
+    }
+}
@@ -1,8 +1,7 @@
 package com.company.vfs;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 class PathUtils {
     static String getName(String path) {
@@ -28,12 +27,88 @@ class PathUtils {
     }
 
     static List<String> getPathComponents(String path) {
-        return Arrays.stream(path.split("/"))
-                .filter(p -> !p.isEmpty())
-                .collect(Collectors.toList());
+        List<String> components = new ArrayList<>();
+        for(int start = componentStart(path, 0); start < path.length(); ) {
+            int end = componentEnd(path, start);
+            components.add(path.substring(start, end));
+            start = componentStart(path, end);
+        }
+        return components;
     }
 
     static boolean isRoot(String path) {
         return path.isEmpty() || path.equals("/");
     }
+
+    /**
+     * @return index of first character of path component at or after from index, or path length if there is none
+     */
+    static int componentStart(String path, int from) {
+        while(from < path.length() && path.charAt(from) == '/') {
+            ++from;
+        }
+        return from;
+    }
+
+    /**
+     * @return index following last character of path component starting at start index
+     */
+    static int componentEnd(String path, int start) {
+        int end = path.indexOf('/', start);
+        return end < 0 ? path.length() : end;
+    }
+
+    /**
+     * @return number of bytes in UTF-8 encoding of string region
+     */
+    static int utf8Length(String string, int start, int end) {
+        int length = 0;
+        for(int i = start; i < end; ++i) {
+            int charLength = utf8CharLength(string, i, end);
+            length += charLength;
+            if(charLength == 4) {
+                ++i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return number of bytes in UTF-8 encoding of character at index, 4 for surrogate pair starting at index
+     */
+    static int utf8CharLength(String string, int index, int end) {
+        char c = string.charAt(index);
+        if(c < 0x80) {
+            return 1;
+        }
+        if(c < 0x800) {
+            return 2;
+        }
+        if(Character.isHighSurrogate(c) && index + 1 < end && Character.isLowSurrogate(string.charAt(index + 1))) {
+            return 4;
+        }
+        // unpaired surrogate is encoded as '?', the same way String.getBytes does
+        return Character.isSurrogate(c) ? 1 : 3;
+    }
+
+    /**
+     * Returns single byte of UTF-8 encoding of character, so names can be compared with encoded records
+     * without being encoded into new arrays.
+     * @param codePoint code point of character, '?' for unpaired surrogate
+     * @param length length of encoding returned by utf8CharLength
+     * @param index index of byte in encoding
+     * @return encoded byte
+     */
+    static byte utf8Byte(int codePoint, int length, int index) {
+        if(length == 1) {
+            return (byte) codePoint;
+        }
+
+        int shift = 6 * (length - 1 - index);
+        if(index == 0) {
+            int prefix = length == 2 ? 0xC0 : length == 3 ? 0xE0 : 0xF0;
+            return (byte) (prefix | (codePoint >> shift));
+        }
+        return (byte) (0x80 | ((codePoint >> shift) & 0x3F));
+    }
 }
@@ -1,6 +1,7 @@
 package com.company.vfs;
 
 import java.io.IOException;
+import java.util.function.IntSupplier;
 
 class SynchronizedByteStorage implements ByteStorage {
 
@@ -49,4 +50,14 @@ class SynchronizedByteStorage implements ByteStorage {
     synchronized public void putBytes(int offset, byte[] source, int sourceOffset, int length) throws IOException {
         byteStorage.putBytes(offset, source, sourceOffset, length);
     }
+
+    @Override
+    synchronized public void truncate(IntSupplier length) throws IOException {
+        byteStorage.truncate(length);
+    }
+
+    @Override
+    synchronized public void grow(int length) throws IOException {
+        byteStorage.grow(length);
+    }
 }
@@ -0,0 +1,53 @@
+package com.company.vfs;
+
+/**
+ * Immutable snapshot of space used by filesystem entry. For directories values are aggregated
+ * over whole subtree and maintained incrementally, so they are available without walking it.
+ */
+public final class Usage {
+
+    /**
+     * Value of quota, meaning that directory has no quota.
+     */
+    public static final long NO_QUOTA = Metadata.NO_QUOTA;
+
+    private final long bytes;
+    private final int blocks;
+    private final int entries;
+    private final long quota;
+
+    Usage(long bytes, int blocks, int entries, long quota) {
+        this.bytes = bytes;
+        this.blocks = blocks;
+        this.entries = entries;
+        this.quota = quota;
+    }
+
+    /**
+     * @return length of file, for directories total length of files in subtree
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of blocks used by entry, for directories including blocks of directory contents
+     */
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return number of files and directories in subtree, not including directory itself, for files 0
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return maximum total length of files in directory subtree, or {@link #NO_QUOTA}
+     */
+    public long getQuota() {
+        return quota;
+    }
+}
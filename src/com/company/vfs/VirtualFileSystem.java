@@ -3,9 +3,18 @@ package com.company.vfs;
 import com.company.vfs.exception.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
 
 /**
  * Emulates filesystem-like structure inside a single file.
@@ -17,8 +26,18 @@ import java.util.List;
  */
 public class VirtualFileSystem implements FileSystem {
 
-    private static final int MAGIC_CONSTANT = 0x70AD70E5;
-    private static final int HEADER_SIZE = 12;
+    private static final int MAGIC_CONSTANT = 0x70AD70EC;
+    // magic, block size, max blocks, flags, block manager offset and data offset fields
+    private static final int HEADER_SIZE = 24;
+    private static final int MAX_BLOCKS_OFFSET = 8;
+
+    private static final int FLAG_PATH_INDEX = 1;
+    private static final int FLAG_DELAYED_ALLOCATION = 2;
+    private static final int FLAG_AUTO_GROWTH = 4;
+    private static final int FLAG_SPARSE_IMAGE = 8;
+
+    // sparse image is extended and mapped in chunks of this size
+    private static final int SPARSE_CHUNK_SIZE = 16 * 1024 * 1024;
 
     private static final int DEFAULT_BLOCK_SIZE = 4096;
 
@@ -61,18 +80,24 @@ public class VirtualFileSystem implements FileSystem {
 
             int blockSize = randomAccessFile.readInt();
             int maxBlocks = randomAccessFile.readInt();
+            int flags = randomAccessFile.readInt();
+            int blockManagerOffset = randomAccessFile.readInt();
+            int dataOffset = randomAccessFile.readInt();
 
-            ByteStorage dataBlocksStorage = new SynchronizedByteStorage(
-                    new MappedFileByteStorage(path, HEADER_SIZE + BlockManager.size(maxBlocks), maxBlocks * blockSize));
+            ByteStorage dataBlocksStorage = mapRegion(path, dataOffset, maxBlocks * blockSize, flags);
 
-            ByteStorage blockManagerStorage = new SynchronizedByteStorage(
-                    new MappedFileByteStorage(path, HEADER_SIZE, BlockManager.size(maxBlocks)));
+            ByteStorage blockManagerStorage = mapRegion(path, blockManagerOffset, BlockManager.size(maxBlocks), flags);
             BlockManager blockManager = new BlockManager(blockSize, maxBlocks, blockManagerStorage, dataBlocksStorage);
+            blockManager.setGrowth(new ImageGrowth(path, blockSize, dataOffset, flags),
+                    (flags & FLAG_AUTO_GROWTH) != 0);
 
             MetadataManager metadataManager = new MetadataManager(blockManager, dataBlocksStorage);
 
+            PathIndex pathIndex = (flags & FLAG_PATH_INDEX) != 0 ?
+                    PathIndex.open(blockManager, dataBlocksStorage) : null;
+
             FileSystemEntryManager fileSystemEntryManager = new FileSystemEntryManager(metadataManager,
-                    blockManager, dataBlocksStorage);
+                    blockManager, dataBlocksStorage, pathIndex, (flags & FLAG_DELAYED_ALLOCATION) != 0);
 
             return new VirtualFileSystem(blockManager, metadataManager, fileSystemEntryManager);
         }
@@ -84,37 +109,75 @@ public class VirtualFileSystem implements FileSystem {
      * @return Builder object which can be used to configure vfs
      */
     public static VirtualFileSystem create(String path, int maxBlocks) throws IOException {
+        return create(path, maxBlocks, CreateOptions.defaults());
+    }
+
+    /**
+     * Creates new virtual file system with given options in provided path
+     * @param path path to file to be created
+     * @param maxBlocks maximum number of blocks
+     * @param options options of new file system
+     * @return VirtualFileSystem object associated with created file
+     * @throws IllegalArgumentException if path or options is null, or if file system of maxBlocks blocks
+     * can't be addressed
+     * @throws FileAlreadyExistsException if file already exists
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public static VirtualFileSystem create(String path, int maxBlocks, CreateOptions options) throws IOException {
         if(path == null) {
             throw new IllegalArgumentException("path parameter can't be null.");
         }
+        if(options == null) {
+            throw new IllegalArgumentException("options parameter can't be null.");
+        }
+
+        int blockSize = DEFAULT_BLOCK_SIZE;
+        // offsets within file are ints
+        if(HEADER_SIZE + (maxBlocks + 7L) / 8 + (long) maxBlocks * (Integer.BYTES + blockSize) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxBlocks parameter exceeds file size limit.");
+        }
 
         File file = new File(path);
         if(file.exists()) {
             throw new FileAlreadyExistsException(path);
         }
 
-        int blockSize = DEFAULT_BLOCK_SIZE;
+        int flags = (options.isPathIndexEnabled() ? FLAG_PATH_INDEX : 0) |
+                (options.isDelayedAllocationEnabled() ? FLAG_DELAYED_ALLOCATION : 0) |
+                (options.isAutoGrowthEnabled() ? FLAG_AUTO_GROWTH : 0) |
+                (options.isSparseImageEnabled() ? FLAG_SPARSE_IMAGE : 0);
+        // block map and table precede data until file system grows, then they are moved after data
+        int blockManagerOffset = HEADER_SIZE;
+        int dataOffset = HEADER_SIZE + BlockManager.size(maxBlocks);
 
         RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
         randomAccessFile.writeInt(MAGIC_CONSTANT);
         randomAccessFile.writeInt(blockSize);
         randomAccessFile.writeInt(maxBlocks);
+        randomAccessFile.writeInt(flags);
+        randomAccessFile.writeInt(blockManagerOffset);
+        randomAccessFile.writeInt(dataOffset);
 
-        ByteStorage dataBlocksStorage = new SynchronizedByteStorage(
-                new MappedFileByteStorage(path, HEADER_SIZE + BlockManager.size(maxBlocks), maxBlocks * blockSize));
+        ByteStorage dataBlocksStorage = mapRegion(path, dataOffset, maxBlocks * blockSize, flags);
 
-        ByteStorage blockManagerStorage = new SynchronizedByteStorage(
-                new MappedFileByteStorage(path, HEADER_SIZE, BlockManager.size(maxBlocks)));
+        ByteStorage blockManagerStorage = mapRegion(path, blockManagerOffset, BlockManager.size(maxBlocks), flags);
         BlockManager blockManager = new BlockManager(blockSize, maxBlocks, blockManagerStorage, dataBlocksStorage);
+        blockManager.setGrowth(new ImageGrowth(path, blockSize, dataOffset, flags), options.isAutoGrowthEnabled());
 
-        // 0 and 1 block chains reserved for metadata
+        // 0 and 1 block chains reserved for metadata, 2 for path index
         blockManager.allocateBlockChain();
         blockManager.allocateBlockChain();
 
+        PathIndex pathIndex = null;
+        if(options.isPathIndexEnabled()) {
+            blockManager.allocateBlockChain();
+            pathIndex = PathIndex.create(blockManager, dataBlocksStorage);
+        }
+
         MetadataManager metadataManager = new MetadataManager(blockManager, dataBlocksStorage);
 
         FileSystemEntryManager fileSystemEntryManager = new FileSystemEntryManager(metadataManager,
-                blockManager, dataBlocksStorage);
+                blockManager, dataBlocksStorage, pathIndex, options.isDelayedAllocationEnabled());
 
         return new VirtualFileSystem(blockManager, metadataManager, fileSystemEntryManager);
     }
@@ -153,6 +216,116 @@ public class VirtualFileSystem implements FileSystem {
         return fileSystemEntryManager.getFiles(path);
     }
 
+    /**
+     * Opens stream over entries of target directory. Entries are read lazily in batches
+     * in a single pass over directory, each entry contains name, type and size.
+     * Iteration is weakly consistent, entries created or deleted after stream was opened
+     * may or may not be returned. Iterator throws DirectoryIteratorException if some error
+     * occurs while reading underlying file.
+     * @param path path to directory
+     * @return stream over directory entries
+     * @throws IllegalArgumentException if path is null
+     * @throws NoSuchFileException if target directory doesn't exist
+     * @throws NotDirectoryException if target is not directory
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public DirectoryStream<DirectoryEntry> list(String path) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        return fileSystemEntryManager.list(path);
+    }
+
+    /**
+     * Returns single page of target directory listing. Entries are returned in stable directory order,
+     * following page is requested by passing continuation token of previous one, and costs the same
+     * regardless of how many pages were read before. Page may contain less than pageSize entries
+     * even if not all entries were returned yet, listing is finished only when continuation token is null.
+     * @param path path to directory
+     * @param prefix only entries which names start with prefix are returned, null to return all entries
+     * @param continuationToken token of previous page, null to request first page
+     * @param pageSize maximum number of entries in page
+     * @return page of directory entries
+     * @throws IllegalArgumentException if path is null, pageSize is not positive or token is invalid
+     * @throws NoSuchFileException if target directory doesn't exist
+     * @throws NotDirectoryException if target is not directory
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public DirectoryPage listPage(String path, String prefix, String continuationToken, int pageSize)
+            throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize parameter should be positive.");
+        }
+        return fileSystemEntryManager.listPage(path, prefix, continuationToken, pageSize);
+    }
+
+    /**
+     * Walks over all entries of directory tree under target directory, target itself is not visited.
+     * Subdirectories are traversed in parallel, visitor is called concurrently and in no particular order.
+     * Structure lock is not held while visitor is called, so visitor may access filesystem.
+     * Walk is weakly consistent, entries created or deleted while walking may or may not be visited.
+     * @param path path to root directory of walk
+     * @param visitor visitor called for each entry
+     * @throws IllegalArgumentException if path or visitor is null
+     * @throws NoSuchFileException if target directory doesn't exist
+     * @throws NotDirectoryException if target is not directory
+     * @throws IOException if visitor throws or some error occurs while reading or writing underlying file
+     */
+    public void walk(String path, EntryVisitor visitor) throws IOException {
+        walk(path, EntryFilter.all(), visitor);
+    }
+
+    /**
+     * Walks over entries of directory tree under target directory which match filter.
+     * Filter doesn't restrict traversal, directories not matching filter are still descended into.
+     * See {@link #walk(String, EntryVisitor)}.
+     * @param path path to root directory of walk
+     * @param filter criteria of visited entries
+     * @param visitor visitor called for each matching entry
+     * @throws IllegalArgumentException if any parameter is null
+     * @throws NoSuchFileException if target directory doesn't exist
+     * @throws NotDirectoryException if target is not directory
+     * @throws IOException if visitor throws or some error occurs while reading or writing underlying file
+     */
+    public void walk(String path, EntryFilter filter, EntryVisitor visitor) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        if(filter == null) {
+            throw new IllegalArgumentException("filter parameter can't be null.");
+        }
+        if(visitor == null) {
+            throw new IllegalArgumentException("visitor parameter can't be null.");
+        }
+        fileSystemEntryManager.walk(path, filter, visitor);
+    }
+
+    /**
+     * Finds paths of all entries under target directory matching filter. Tree is traversed in parallel
+     * in background while results are consumed, so first results are available before walk is finished.
+     * Paths are returned in no particular order. Stream should be closed to stop walk if it's not fully consumed.
+     * Stream throws UncheckedIOException if some error occurs while reading underlying file.
+     * @param path path to root directory of search
+     * @param filter criteria of returned entries
+     * @return stream of found paths
+     * @throws IllegalArgumentException if path or filter is null
+     * @throws NoSuchFileException if target directory doesn't exist
+     * @throws NotDirectoryException if target is not directory
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public Stream<String> find(String path, EntryFilter filter) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        if(filter == null) {
+            throw new IllegalArgumentException("filter parameter can't be null.");
+        }
+        return fileSystemEntryManager.find(path, filter);
+    }
+
     /**
      * Checks if entry exists in filesystem
      * @param path path to entry
@@ -168,6 +341,26 @@ public class VirtualFileSystem implements FileSystem {
         return fileSystemEntryManager.exists(path);
     }
 
+    /**
+     * Creates many entries at once. Entries are grouped by parent directory, and each directory
+     * is locked and appended to once per batch rather than once per entry. Parent directories may
+     * be created by the same batch. File contents are streamed after their directory is unlocked,
+     * into blocks preallocated according to expected size.
+     * Batch is not atomic: if some entry can't be created, directories processed before stay changed.
+     * @param newEntries entries to create
+     * @throws IllegalArgumentException if newEntries is null
+     * @throws FileAlreadyExistsException if some entry already exists or is specified twice
+     * @throws NoSuchFileException if parent directory of some entry doesn't exist
+     * @throws NotDirectoryException if parent of some entry is not directory
+     * @throws IOException if content supplier throws or some error occurs while reading or writing underlying file
+     */
+    public void createAll(Collection<NewEntry> newEntries) throws IOException {
+        if(newEntries == null) {
+            throw new IllegalArgumentException("newEntries parameter can't be null.");
+        }
+        fileSystemEntryManager.createAll(newEntries);
+    }
+
     /**
      * Deletes filesystem entry in given path
      * @param path path to entry
@@ -185,6 +378,71 @@ public class VirtualFileSystem implements FileSystem {
         fileSystemEntryManager.delete(path);
     }
 
+    /**
+     * Deletes filesystem entry in given path together with all its contents. Nothing is deleted
+     * if any file of the subtree is opened, exception message lists paths of opened files.
+     * @param path path to entry
+     * @throws IllegalArgumentException if path is null
+     * @throws AccessDeniedException if target is root directory or any file of subtree is opened
+     * @throws NoSuchFileException if target doesn't exist
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public void deleteRecursive(String path) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        fileSystemEntryManager.deleteRecursive(path);
+    }
+
+    /**
+     * Moves or renames filesystem entry. Entry keeps its id and data, only directory records are changed,
+     * so cost doesn't depend on file size or directory subtree size. Move is atomic: concurrent lookups
+     * see entry either in source or in target path. Opened files may be moved.
+     * @param source path to entry
+     * @param target new path of entry
+     * @throws IllegalArgumentException if source or target is null
+     * @throws AccessDeniedException if source is root directory or target is inside source directory
+     * @throws NoSuchFileException if source or target parent directory doesn't exist
+     * @throws NotDirectoryException if target parent is not directory
+     * @throws FileAlreadyExistsException if target already exists
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public void move(String source, String target) throws IOException {
+        if(source == null) {
+            throw new IllegalArgumentException("source parameter can't be null.");
+        }
+        if(target == null) {
+            throw new IllegalArgumentException("target parameter can't be null.");
+        }
+        fileSystemEntryManager.move(source, target, false);
+    }
+
+    /**
+     * Moves or renames filesystem entry as {@link #move(String, String)} does, optionally replacing existing target.
+     * Target is replaced atomically: it's unlinked under the same lock, and only after everything is checked,
+     * so concurrent lookups see either replaced or moved entry in target path, and failed move keeps target.
+     * @param source path to entry
+     * @param target new path of entry
+     * @param replaceExisting replace existing file or empty directory in target path
+     * @throws IllegalArgumentException if source or target is null
+     * @throws AccessDeniedException if source is root directory, target is inside source directory
+     * or replaced target is opened file
+     * @throws NoSuchFileException if source or target parent directory doesn't exist
+     * @throws NotDirectoryException if target parent is not directory
+     * @throws FileAlreadyExistsException if target already exists and replaceExisting is false
+     * @throws DirectoryNotEmptyException if replaced target is not empty directory
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public void move(String source, String target, boolean replaceExisting) throws IOException {
+        if(source == null) {
+            throw new IllegalArgumentException("source parameter can't be null.");
+        }
+        if(target == null) {
+            throw new IllegalArgumentException("target parameter can't be null.");
+        }
+        fileSystemEntryManager.move(source, target, replaceExisting);
+    }
+
     /**
      * Checks if filesystem entry is directory
      * @param path path to entry
@@ -291,6 +549,109 @@ public class VirtualFileSystem implements FileSystem {
         return fileSystemEntryManager.readFile(path);
     }
 
+    /**
+     * Returns attributes of filesystem entry with given path. Path is resolved once and whole metadata record
+     * is read at once, so it's cheaper than separate calls of exists, isFile and reading file size.
+     * @param path path to entry
+     * @return attributes of entry
+     * @throws IllegalArgumentException if path is null
+     * @throws NoSuchFileException if entry doesn't exist
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public FileAttributes stat(String path) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        return fileSystemEntryManager.stat(path);
+    }
+
+    /**
+     * Returns attributes of several filesystem entries at once. Paths sharing prefixes are resolved together,
+     * so each directory is visited once, and all entries are read under single structure lock.
+     * @param paths paths to entries
+     * @return attributes in iteration order of paths, null for entries which don't exist
+     * @throws IllegalArgumentException if paths is null or contains null
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public List<FileAttributes> stat(Collection<String> paths) throws IOException {
+        if(paths == null) {
+            throw new IllegalArgumentException("paths parameter can't be null.");
+        }
+        for(String path : paths) {
+            if(path == null) {
+                throw new IllegalArgumentException("paths parameter can't contain null.");
+            }
+        }
+        return fileSystemEntryManager.stat(paths);
+    }
+
+    /**
+     * Returns space used by filesystem entry with given path. Usage of directories is maintained
+     * incrementally, so it's returned in constant time regardless of subtree size.
+     * @param path path to entry
+     * @return usage of entry
+     * @throws IllegalArgumentException if path is null
+     * @throws NoSuchFileException if entry doesn't exist
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public Usage usage(String path) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        return fileSystemEntryManager.usage(path);
+    }
+
+    /**
+     * Sets maximum total length of files in subtree of directory with given path. Writes exceeding
+     * quota of directory or any of its ancestors fail before blocks are allocated, as do moves
+     * of entries into such directory. Setting quota lower than current usage only prevents further growth.
+     * @param path path to directory
+     * @param quota maximum total length of files in bytes, or {@link Usage#NO_QUOTA} to remove quota
+     * @throws IllegalArgumentException if path is null or quota is negative
+     * @throws NoSuchFileException if directory doesn't exist
+     * @throws NotDirectoryException if target is not directory
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public void setQuota(String path, long quota) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        if(quota < 0 && quota != Usage.NO_QUOTA) {
+            throw new IllegalArgumentException("quota parameter can't be negative.");
+        }
+        fileSystemEntryManager.setQuota(path, quota);
+    }
+
+    /**
+     * Opens file with given path and returns FileChannel which can be used for random access
+     * reading and writing. Supported options are READ, WRITE, APPEND, CREATE, CREATE_NEW and
+     * TRUNCATE_EXISTING, other options are ignored. Channel doesn't support mapping and locking.
+     * @param path path of file to open
+     * @param options options specifying how file is opened
+     * @return FileChannel associated with file
+     * @throws IllegalArgumentException if path or options is null or options combination is invalid
+     * @throws FileAlreadyExistsException if CREATE_NEW is specified and entry already exists
+     * @throws NoSuchFileException if file doesn't exist and shouldn't be created
+     * @throws NotFileException if target is not file
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public FileChannel openChannel(String path, Set<? extends OpenOption> options) throws IOException {
+        if(path == null) {
+            throw new IllegalArgumentException("path parameter can't be null.");
+        }
+        if(options == null) {
+            throw new IllegalArgumentException("options parameter can't be null.");
+        }
+        return fileSystemEntryManager.openChannel(path, options);
+    }
+
+    /**
+     * @return size of block in bytes
+     */
+    public int getBlockSize() {
+        return blockManager.getBlockSize();
+    }
+
     /**
      * @return maximum number of blocks
      */
@@ -298,6 +659,20 @@ public class VirtualFileSystem implements FileSystem {
         return blockManager.getMaxBlocks();
     }
 
+    /**
+     * Grows file system in place to given number of blocks. Data region of file is extended and block map
+     * and table are moved after it, files are read during growth, while allocation of blocks waits for it.
+     * File systems created with auto growth option grow the same way when they run out of blocks.
+     * Once block map and table follow data, compaction no longer truncates underlying file.
+     * @param maxBlocks new maximum number of blocks
+     * @throws IllegalArgumentException if maxBlocks isn't greater than current maximum number of blocks
+     * or file system of that size can't be addressed
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public void grow(int maxBlocks) throws IOException {
+        blockManager.grow(maxBlocks);
+    }
+
     /**
      * @return number of allocated blocks
      */
@@ -311,4 +686,119 @@ public class VirtualFileSystem implements FileSystem {
     public int getEntriesCount() {
         return metadataManager.getMetadataCount();
     }
+
+    /**
+     * @return counters of lookups answered by directory Bloom filters since file system was opened
+     */
+    public FilterStatistics getFilterStatistics() {
+        return fileSystemEntryManager.getFilterStatistics();
+    }
+
+    /**
+     * Returns fragmentation of file data. Average length of runs of consecutive blocks close to
+     * number of blocks per file means files are read sequentially without jumps.
+     * @return counters of runs of consecutive blocks of all files
+     * @throws IOException if some error occurs while reading underlying file
+     */
+    public FragmentationStatistics getFragmentationStatistics() throws IOException {
+        return fileSystemEntryManager.getFragmentationStatistics();
+    }
+
+    /**
+     * Compacts file system in calling thread, see {@link #compactInBackground}.
+     * @return counters of relocated data and high-water mark after compaction
+     * @throws IOException if some error occurs while reading or writing underlying file
+     */
+    public CompactionStatistics compact() throws IOException {
+        return fileSystemEntryManager.compactStorage(0);
+    }
+
+    /**
+     * Starts compaction in background thread. Data of each file and directory is moved into run of
+     * consecutive blocks as close to the beginning of file system as possible, then underlying file is
+     * truncated after the last allocated block. Entries are read and written as usual during compaction,
+     * only the entry being moved waits for it. Cancelling returned future interrupts compaction,
+     * entries moved so far stay moved.
+     * @param maxBlocksPerSecond limit of moved blocks per second, 0 for no limit
+     * @return future completed with counters of relocated data and high-water mark after compaction
+     * @throws IllegalArgumentException if maxBlocksPerSecond is negative
+     */
+    public Future<CompactionStatistics> compactInBackground(int maxBlocksPerSecond) {
+        if(maxBlocksPerSecond < 0) {
+            throw new IllegalArgumentException("maxBlocksPerSecond parameter can't be negative.");
+        }
+
+        FutureTask<CompactionStatistics> task =
+                new FutureTask<>(() -> fileSystemEntryManager.compactStorage(maxBlocksPerSecond));
+        Thread thread = new Thread(task, "vfs-compaction");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * @return counters of metadata cache since file system was opened
+     */
+    public CacheStatistics getCacheStatistics() {
+        return metadataManager.getCacheStatistics();
+    }
+
+    /**
+     * Maps region of file as a whole, or in chunks mapped on demand if file is sparse.
+     */
+    private static ByteStorage mapRegion(String path, int offset, int length, int flags) throws IOException {
+        if((flags & FLAG_SPARSE_IMAGE) != 0) {
+            return new SynchronizedByteStorage(new ChunkedFileByteStorage(path, offset, length, SPARSE_CHUNK_SIZE));
+        }
+        return new SynchronizedByteStorage(new MappedFileByteStorage(path, offset, length));
+    }
+
+    /**
+     * Places grown block map and table right after data region, which always starts at the same offset,
+     * so data is never moved. Header is switched to them by single write of its max blocks, flags
+     * and block manager offset fields.
+     */
+    private static class ImageGrowth implements BlockManager.Growth {
+
+        private final String path;
+        private final int blockSize;
+        private final int dataOffset;
+        private final int flags;
+
+        ImageGrowth(String path, int blockSize, int dataOffset, int flags) {
+            this.path = path;
+            this.blockSize = blockSize;
+            this.dataOffset = dataOffset;
+            this.flags = flags;
+        }
+
+        @Override
+        public ByteStorage mapStorage(int maxBlocks) throws IOException {
+            return mapRegion(path, blockManagerOffset(maxBlocks), BlockManager.size(maxBlocks), flags);
+        }
+
+        @Override
+        public void commit(int maxBlocks) throws IOException {
+            byte[] fields = ByteBuffer.allocate(3 * Integer.BYTES)
+                    .putInt(maxBlocks)
+                    .putInt(flags)
+                    .putInt(blockManagerOffset(maxBlocks))
+                    .array();
+            try(RandomAccessFile randomAccessFile = new RandomAccessFile(path, "rw")) {
+                randomAccessFile.seek(MAX_BLOCKS_OFFSET);
+                randomAccessFile.write(fields);
+            }
+        }
+
+        @Override
+        public int getMaxBlocksLimit() {
+            // offsets within file are ints, so block manager should end before Integer.MAX_VALUE
+            long bytesPerBlock = blockSize + Integer.BYTES + 1;
+            return (int) Math.min(Integer.MAX_VALUE, (Integer.MAX_VALUE - dataOffset) / bytesPerBlock);
+        }
+
+        private int blockManagerOffset(int maxBlocks) {
+            return dataOffset + maxBlocks * blockSize;
+        }
+    }
 }
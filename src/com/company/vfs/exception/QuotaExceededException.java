@@ -0,0 +1,7 @@
+package com.company.vfs.exception;
+
+public class QuotaExceededException extends VirtualFileSystemException {
+    public QuotaExceededException(String s) {
+        super(s);
+    }
+}
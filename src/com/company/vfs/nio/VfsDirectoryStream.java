@@ -0,0 +1,75 @@
+package com.company.vfs.nio;
+
+import com.company.vfs.DirectoryEntry;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+class VfsDirectoryStream implements DirectoryStream<Path> {
+
+    private final VfsPath directory;
+    private final DirectoryStream<DirectoryEntry> entries;
+    private final Filter<? super Path> filter;
+    private volatile boolean closed = false;
+    private boolean iteratorReturned = false;
+
+    VfsDirectoryStream(VfsPath directory, DirectoryStream<DirectoryEntry> entries, Filter<? super Path> filter) {
+        this.directory = directory;
+        this.entries = entries;
+        this.filter = filter;
+    }
+
+    @Override
+    public synchronized Iterator<Path> iterator() {
+        if(closed) {
+            throw new IllegalStateException("Directory stream is closed.");
+        }
+
+        if(iteratorReturned) {
+            throw new IllegalStateException("Iterator already obtained.");
+        }
+
+        iteratorReturned = true;
+        Iterator<DirectoryEntry> iterator = entries.iterator();
+        return new Iterator<Path>() {
+            private Path next;
+
+            @Override
+            public boolean hasNext() {
+                while(next == null && !closed && iterator.hasNext()) {
+                    Path path = directory.resolve(iterator.next().getName());
+                    try {
+                        if(filter == null || filter.accept(path)) {
+                            next = path;
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Path next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Path result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        entries.close();
+    }
+}
@@ -0,0 +1,30 @@
+package com.company.vfs.nio;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+class VfsFileAttributeView implements BasicFileAttributeView {
+
+    private final VfsPath path;
+
+    VfsFileAttributeView(VfsPath path) {
+        this.path = path;
+    }
+
+    @Override
+    public String name() {
+        return "basic";
+    }
+
+    @Override
+    public BasicFileAttributes readAttributes() throws IOException {
+        return path.getFileSystem().provider().readAttributes(path, BasicFileAttributes.class);
+    }
+
+    @Override
+    public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+        // timestamps are not stored in image
+    }
+}
@@ -0,0 +1,110 @@
+package com.company.vfs.nio;
+
+import com.company.vfs.FileAttributes;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BasicFileAttributes backed by {@link FileAttributes} snapshot. Timestamps are not stored in image
+ * and always reported as epoch.
+ */
+class VfsFileAttributes implements BasicFileAttributes {
+
+    private static final FileTime NO_TIME = FileTime.fromMillis(0);
+
+    private final FileAttributes attributes;
+
+    VfsFileAttributes(FileAttributes attributes) {
+        this.attributes = attributes;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return NO_TIME;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return NO_TIME;
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return NO_TIME;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return attributes.isFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return attributes.isDirectory();
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return attributes.getSize();
+    }
+
+    @Override
+    public Object fileKey() {
+        return attributes.getId();
+    }
+
+    Map<String, Object> toMap(String[] names) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for(String name: names) {
+            switch (name) {
+                case "*":
+                    for(String attribute: new String[] { "lastModifiedTime", "lastAccessTime", "creationTime",
+                            "size", "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey" }) {
+                        result.put(attribute, get(attribute));
+                    }
+                    break;
+                default:
+                    result.put(name, get(name));
+            }
+        }
+        return result;
+    }
+
+    private Object get(String name) {
+        switch (name) {
+            case "lastModifiedTime":
+                return lastModifiedTime();
+            case "lastAccessTime":
+                return lastAccessTime();
+            case "creationTime":
+                return creationTime();
+            case "size":
+                return size();
+            case "isRegularFile":
+                return isRegularFile();
+            case "isDirectory":
+                return isDirectory();
+            case "isSymbolicLink":
+                return isSymbolicLink();
+            case "isOther":
+                return isOther();
+            case "fileKey":
+                return fileKey();
+            default:
+                throw new IllegalArgumentException("Attribute '" + name + "' is not recognized.");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.company.vfs.nio;
+
+import com.company.vfs.VirtualFileSystem;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+
+/**
+ * FileStore of {@link VfsFileSystem}, reports space in terms of image blocks.
+ */
+class VfsFileStore extends FileStore {
+
+    private final VfsFileSystem fileSystem;
+
+    VfsFileStore(VfsFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public String name() {
+        return fileSystem.getImagePath().toString();
+    }
+
+    @Override
+    public String type() {
+        return VfsFileSystemProvider.SCHEME;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException {
+        VirtualFileSystem virtualFileSystem = fileSystem.getVirtualFileSystem();
+        return (long) virtualFileSystem.getMaxBlocks() * virtualFileSystem.getBlockSize();
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        VirtualFileSystem virtualFileSystem = fileSystem.getVirtualFileSystem();
+        long freeBlocks = virtualFileSystem.getMaxBlocks() - virtualFileSystem.getBlocksCount();
+        return freeBlocks * virtualFileSystem.getBlockSize();
+    }
+
+    @Override
+    public long getUnallocatedSpace() throws IOException {
+        return getUsableSpace();
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+        return type == BasicFileAttributeView.class;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(String name) {
+        return name.equals("basic");
+    }
+
+    @Override
+    public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws IOException {
+        switch (attribute) {
+            case "totalSpace":
+                return getTotalSpace();
+            case "usableSpace":
+                return getUsableSpace();
+            case "unallocatedSpace":
+                return getUnallocatedSpace();
+            default:
+                throw new UnsupportedOperationException("Attribute '" + attribute + "' is not supported.");
+        }
+    }
+}
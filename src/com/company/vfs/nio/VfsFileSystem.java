@@ -0,0 +1,151 @@
+package com.company.vfs.nio;
+
+import com.company.vfs.GlobPattern;
+import com.company.vfs.VirtualFileSystem;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.*;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Collections;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * java.nio.file.FileSystem view of {@link VirtualFileSystem} image.
+ * Closing this object only detaches it from provider, VirtualFileSystem itself doesn't hold any resources.
+ */
+class VfsFileSystem extends FileSystem {
+
+    private final VfsFileSystemProvider provider;
+    private final Path imagePath;
+    private final VirtualFileSystem virtualFileSystem;
+    private final VfsFileStore fileStore;
+    private volatile boolean open = true;
+
+    VfsFileSystem(VfsFileSystemProvider provider, Path imagePath, VirtualFileSystem virtualFileSystem) {
+        this.provider = provider;
+        this.imagePath = imagePath;
+        this.virtualFileSystem = virtualFileSystem;
+        this.fileStore = new VfsFileStore(this);
+    }
+
+    @Override
+    public VfsFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(open) {
+            open = false;
+            provider.removeFileSystem(imagePath);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.singletonList(new VfsPath(this, "/"));
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.singletonList(fileStore);
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        if(more.length == 0) {
+            return new VfsPath(this, first);
+        }
+
+        StringBuilder builder = new StringBuilder(first);
+        for(String segment: more) {
+            if(segment.isEmpty()) {
+                continue;
+            }
+            if(builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(segment);
+        }
+        return new VfsPath(this, builder.toString());
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colonIndex = syntaxAndPattern.indexOf(':');
+        if(colonIndex <= 0) {
+            throw new IllegalArgumentException("Syntax and pattern should be separated with ':'.");
+        }
+
+        String syntax = syntaxAndPattern.substring(0, colonIndex);
+        String pattern = syntaxAndPattern.substring(colonIndex + 1);
+        String regex;
+        if(syntax.equalsIgnoreCase("glob")) {
+            regex = GlobPattern.toRegex(pattern);
+        }
+        else if(syntax.equalsIgnoreCase("regex")) {
+            regex = pattern;
+        }
+        else {
+            throw new UnsupportedOperationException("Syntax '" + syntax + "' is not supported.");
+        }
+
+        Pattern compiled = Pattern.compile(regex);
+        return path -> compiled.matcher(path.toString()).matches();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchService newWatchService() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    VirtualFileSystem getVirtualFileSystem() throws ClosedFileSystemException {
+        if(!open) {
+            throw new ClosedFileSystemException();
+        }
+        return virtualFileSystem;
+    }
+
+    Path getImagePath() {
+        return imagePath;
+    }
+
+    URI toUri(String path) {
+        try {
+            String encodedPath = new URI(null, null, path, null).getRawPath();
+            return new URI(VfsFileSystemProvider.SCHEME + ":" + imagePath.toUri() + "!" + encodedPath);
+        }
+        catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.company.vfs.nio;
+
+import com.company.vfs.DirectoryEntry;
+import com.company.vfs.FileAttributes;
+import com.company.vfs.VirtualFileSystem;
+import com.company.vfs.exception.FileFormatException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FileSystemProvider for "vfs" URI scheme, exposes {@link VirtualFileSystem} images through java.nio.file API.
+ * URIs have form {@code vfs:<image file URI>!<path inside image>}, for example
+ * {@code vfs:file:///tmp/image.vfs!/foo/bar.txt}. New image is created by
+ * {@link #newFileSystem(URI, Map)} when environment contains "create" = "true" and "maxBlocks" entries.
+ * File channels returned by provider transfer data directly between image blocks and buffers,
+ * so Files.copy and FileChannel.transferTo/transferFrom work in block sized chunks.
+ */
+public class VfsFileSystemProvider extends FileSystemProvider {
+
+    static final String SCHEME = "vfs";
+
+    private static final String CREATE_PROPERTY = "create";
+    private static final String MAX_BLOCKS_PROPERTY = "maxBlocks";
+
+    private final Map<Path, VfsFileSystem> fileSystems = new ConcurrentHashMap<>();
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        return newFileSystem(getImagePath(uri), env);
+    }
+
+    @Override
+    public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+        Path imagePath = path.toAbsolutePath().normalize();
+        synchronized (fileSystems) {
+            if(fileSystems.containsKey(imagePath)) {
+                throw new FileSystemAlreadyExistsException(imagePath.toString());
+            }
+
+            VirtualFileSystem virtualFileSystem;
+            if(Files.exists(imagePath)) {
+                try {
+                    virtualFileSystem = VirtualFileSystem.open(imagePath.toString());
+                }
+                catch (FileFormatException | EOFException e) {
+                    throw new UnsupportedOperationException("File is not virtual filesystem image.", e);
+                }
+            }
+            else if(Boolean.parseBoolean(String.valueOf(env.get(CREATE_PROPERTY)))) {
+                Object maxBlocks = env.get(MAX_BLOCKS_PROPERTY);
+                if(maxBlocks == null) {
+                    throw new IllegalArgumentException("maxBlocks property is required to create image.");
+                }
+                virtualFileSystem = VirtualFileSystem.create(imagePath.toString(),
+                        Integer.parseInt(String.valueOf(maxBlocks)));
+            }
+            else {
+                throw new NoSuchFileException(imagePath.toString());
+            }
+
+            VfsFileSystem fileSystem = new VfsFileSystem(this, imagePath, virtualFileSystem);
+            fileSystems.put(imagePath, fileSystem);
+            return fileSystem;
+        }
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        Path imagePath = getImagePath(uri).toAbsolutePath().normalize();
+        VfsFileSystem fileSystem = fileSystems.get(imagePath);
+        if(fileSystem == null) {
+            throw new FileSystemNotFoundException(imagePath.toString());
+        }
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        String specificPart = uri.getRawSchemeSpecificPart();
+        int separatorIndex = specificPart.indexOf("!/");
+        String path = separatorIndex < 0 ? "/" : URI.create(specificPart.substring(separatorIndex + 1)).getPath();
+        return getFileSystem(uri).getPath(path);
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+                                              FileAttribute<?>... attrs) throws IOException {
+        return newFileChannel(path, options, attrs);
+    }
+
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options,
+                                      FileAttribute<?>... attrs) throws IOException {
+        VfsPath vfsPath = toVfsPath(path);
+        try {
+            return getVirtualFileSystem(vfsPath).openChannel(vfsPath.toVirtualPath(), options);
+        }
+        catch (IOException e) {
+            throw translate(e, vfsPath);
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        VfsPath vfsPath = toVfsPath(dir);
+        VirtualFileSystem virtualFileSystem = getVirtualFileSystem(vfsPath);
+        try {
+            return new VfsDirectoryStream(vfsPath, virtualFileSystem.list(vfsPath.toVirtualPath()), filter);
+        }
+        catch (IOException e) {
+            throw translate(e, vfsPath);
+        }
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        VfsPath vfsPath = toVfsPath(dir);
+        try {
+            getVirtualFileSystem(vfsPath).createDirectory(vfsPath.toVirtualPath());
+        }
+        catch (IOException e) {
+            throw translate(e, vfsPath);
+        }
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        VfsPath vfsPath = toVfsPath(path);
+        try {
+            getVirtualFileSystem(vfsPath).delete(vfsPath.toVirtualPath());
+        }
+        catch (IOException e) {
+            throw translate(e, vfsPath);
+        }
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        VfsPath sourcePath = toVfsPath(source);
+        VfsPath targetPath = toVfsPath(target);
+        boolean replaceExisting = Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING);
+
+        if(isSameFile(sourcePath, targetPath)) {
+            return;
+        }
+
+        VirtualFileSystem sourceFileSystem = getVirtualFileSystem(sourcePath);
+        VirtualFileSystem targetFileSystem = getVirtualFileSystem(targetPath);
+        String sourceVirtualPath = sourcePath.toVirtualPath();
+        String targetVirtualPath = targetPath.toVirtualPath();
+
+        FileAttributes attributes = readFileAttributes(sourcePath);
+        try {
+            if(targetFileSystem.exists(targetVirtualPath)) {
+                if(!replaceExisting) {
+                    throw new FileAlreadyExistsException(targetPath.toString());
+                }
+                targetFileSystem.delete(targetVirtualPath);
+            }
+
+            if(attributes.isDirectory()) {
+                targetFileSystem.createDirectory(targetVirtualPath);
+                return;
+            }
+        }
+        catch (IOException e) {
+            throw translate(e, targetPath);
+        }
+
+        try(FileChannel in = newFileChannel(sourcePath, EnumSet.of(StandardOpenOption.READ));
+            FileChannel out = newFileChannel(targetPath,
+                    EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))) {
+            long size = in.size();
+            long position = 0;
+            while(position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if(transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        VfsPath sourcePath = toVfsPath(source);
+        VfsPath targetPath = toVfsPath(target);
+
+        if(isSameFile(sourcePath, targetPath)) {
+            return;
+        }
+
+        if(sourcePath.getFileSystem() != targetPath.getFileSystem()) {
+            if(Arrays.asList(options).contains(StandardCopyOption.ATOMIC_MOVE)) {
+                throw new AtomicMoveNotSupportedException(source.toString(), target.toString(),
+                        "Atomic move between different filesystems is not supported.");
+            }
+            moveBetweenFileSystems(sourcePath, targetPath, options);
+            return;
+        }
+
+        VirtualFileSystem virtualFileSystem = getVirtualFileSystem(sourcePath);
+        String targetVirtualPath = targetPath.toVirtualPath();
+        try {
+            virtualFileSystem.move(sourcePath.toVirtualPath(), targetVirtualPath,
+                    Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING));
+        }
+        catch (com.company.vfs.exception.FileAlreadyExistsException |
+                com.company.vfs.exception.DirectoryNotEmptyException e) {
+            throw translate(e, targetPath);
+        }
+        catch (IOException e) {
+            throw translate(e, sourcePath);
+        }
+    }
+
+    private void moveBetweenFileSystems(VfsPath sourcePath, VfsPath targetPath, CopyOption... options)
+            throws IOException {
+        FileAttributes attributes = readFileAttributes(sourcePath);
+        if(attributes.isDirectory()) {
+            VirtualFileSystem virtualFileSystem = getVirtualFileSystem(sourcePath);
+            String virtualPath = sourcePath.toVirtualPath();
+            try(DirectoryStream<DirectoryEntry> entries = virtualFileSystem.list(virtualPath)) {
+                if(entries.iterator().hasNext()) {
+                    throw new FileSystemException(sourcePath.toString(), targetPath.toString(),
+                            "Moving non-empty directories between filesystems is not supported.");
+                }
+            }
+            catch (IOException e) {
+                throw translate(e, sourcePath);
+            }
+        }
+
+        copy(sourcePath, targetPath, options);
+        delete(sourcePath);
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if(path.equals(path2)) {
+            return true;
+        }
+
+        if(!(path instanceof VfsPath) || !(path2 instanceof VfsPath) ||
+                path.getFileSystem() != path2.getFileSystem()) {
+            return false;
+        }
+
+        VfsPath vfsPath = (VfsPath) path;
+        VfsPath vfsPath2 = (VfsPath) path2;
+        if(vfsPath.toVirtualPath().equals(vfsPath2.toVirtualPath())) {
+            return true;
+        }
+
+        VirtualFileSystem virtualFileSystem = getVirtualFileSystem(vfsPath);
+        if(!virtualFileSystem.exists(vfsPath.toVirtualPath()) ||
+                !virtualFileSystem.exists(vfsPath2.toVirtualPath())) {
+            return false;
+        }
+
+        return readFileAttributes(vfsPath).getId() == readFileAttributes(vfsPath2).getId();
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        return false;
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        VfsPath vfsPath = toVfsPath(path);
+        readFileAttributes(vfsPath);
+        return vfsPath.getFileSystem().getFileStores().iterator().next();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        readFileAttributes(toVfsPath(path));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if(type == BasicFileAttributeView.class) {
+            return (V) new VfsFileAttributeView(toVfsPath(path));
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if(type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Only BasicFileAttributes are supported.");
+        }
+        return (A) new VfsFileAttributes(readFileAttributes(toVfsPath(path)));
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        String names = attributes;
+        int colonIndex = attributes.indexOf(':');
+        if(colonIndex >= 0) {
+            if(!attributes.substring(0, colonIndex).equals("basic")) {
+                throw new UnsupportedOperationException("View '" + attributes.substring(0, colonIndex) +
+                        "' is not supported.");
+            }
+            names = attributes.substring(colonIndex + 1);
+        }
+
+        VfsFileAttributes fileAttributes = new VfsFileAttributes(readFileAttributes(toVfsPath(path)));
+        return fileAttributes.toMap(names.split(","));
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        throw new UnsupportedOperationException("Setting attributes is not supported.");
+    }
+
+    void removeFileSystem(Path imagePath) {
+        fileSystems.remove(imagePath);
+    }
+
+    private FileAttributes readFileAttributes(VfsPath path) throws IOException {
+        try {
+            return getVirtualFileSystem(path).stat(path.toVirtualPath());
+        }
+        catch (IOException e) {
+            throw translate(e, path);
+        }
+    }
+
+    private static VirtualFileSystem getVirtualFileSystem(VfsPath path) {
+        return path.getFileSystem().getVirtualFileSystem();
+    }
+
+    private static VfsPath toVfsPath(Path path) {
+        if(path == null) {
+            throw new NullPointerException();
+        }
+
+        if(!(path instanceof VfsPath)) {
+            throw new ProviderMismatchException();
+        }
+
+        return (VfsPath) path;
+    }
+
+    private static Path getImagePath(URI uri) {
+        if(!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme should be '" + SCHEME + "'.");
+        }
+
+        String specificPart = uri.getRawSchemeSpecificPart();
+        int separatorIndex = specificPart.indexOf("!/");
+        String imageUri = separatorIndex < 0 ? specificPart : specificPart.substring(0, separatorIndex);
+        return Paths.get(URI.create(imageUri));
+    }
+
+    private static IOException translate(IOException e, VfsPath path) {
+        String file = path.toString();
+        if(e instanceof com.company.vfs.exception.NoSuchFileException) {
+            return new NoSuchFileException(file);
+        }
+        if(e instanceof com.company.vfs.exception.FileAlreadyExistsException) {
+            return new FileAlreadyExistsException(file);
+        }
+        if(e instanceof com.company.vfs.exception.NotDirectoryException) {
+            return new NotDirectoryException(file);
+        }
+        if(e instanceof com.company.vfs.exception.DirectoryNotEmptyException) {
+            return new DirectoryNotEmptyException(file);
+        }
+        if(e instanceof com.company.vfs.exception.AccessDeniedException) {
+            return new AccessDeniedException(file, null, e.getMessage());
+        }
+        if(e instanceof com.company.vfs.exception.NotFileException) {
+            return new FileSystemException(file, null, "Not a regular file");
+        }
+        return e;
+    }
+}
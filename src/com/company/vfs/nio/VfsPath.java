@@ -0,0 +1,375 @@
+package com.company.vfs.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Path inside {@link VfsFileSystem}. Names are separated with '/', absolute paths start with '/'.
+ */
+class VfsPath implements Path {
+
+    private static final String SEPARATOR = "/";
+
+    private final VfsFileSystem fileSystem;
+    private final String path;
+    private volatile int[] offsets;
+
+    VfsPath(VfsFileSystem fileSystem, String path) {
+        this.fileSystem = fileSystem;
+        this.path = normalizeSeparators(path);
+    }
+
+    @Override
+    public VfsFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return path.startsWith(SEPARATOR);
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? new VfsPath(fileSystem, SEPARATOR) : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        int count = getNameCount();
+        if(count == 0) {
+            return null;
+        }
+
+        if(count == 1 && !isAbsolute()) {
+            return this;
+        }
+
+        return getName(count - 1);
+    }
+
+    @Override
+    public Path getParent() {
+        int count = getNameCount();
+        if(count == 0 || (count == 1 && !isAbsolute())) {
+            return null;
+        }
+
+        if(count == 1) {
+            return getRoot();
+        }
+
+        return new VfsPath(fileSystem, path.substring(0, getOffsets()[count - 1] - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return getOffsets().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        return subpath(index, index + 1);
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        int[] offsets = getOffsets();
+        if(beginIndex < 0 || beginIndex >= offsets.length || endIndex > offsets.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException();
+        }
+
+        int begin = offsets[beginIndex];
+        int end = endIndex == offsets.length ? path.length() : offsets[endIndex] - 1;
+        return new VfsPath(fileSystem, path.substring(begin, end));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if(!(other instanceof VfsPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+
+        VfsPath that = (VfsPath) other;
+        if(that.isAbsolute() != isAbsolute() || that.getNameCount() > getNameCount()) {
+            return false;
+        }
+
+        for(int i = 0; i < that.getNameCount(); ++i) {
+            if(!that.getName(i).toString().equals(getName(i).toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if(!(other instanceof VfsPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+
+        VfsPath that = (VfsPath) other;
+        if(that.isAbsolute()) {
+            return equals(that);
+        }
+
+        int count = getNameCount();
+        int otherCount = that.getNameCount();
+        if(otherCount > count || that.path.isEmpty()) {
+            return path.isEmpty() && that.path.isEmpty();
+        }
+
+        for(int i = 0; i < otherCount; ++i) {
+            if(!that.getName(otherCount - i - 1).toString().equals(getName(count - i - 1).toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        List<String> names = new ArrayList<>();
+        for(int i = 0; i < getNameCount(); ++i) {
+            String name = getName(i).toString();
+            if(name.equals(".")) {
+                continue;
+            }
+
+            if(name.equals("..")) {
+                if(!names.isEmpty() && !names.get(names.size() - 1).equals("..")) {
+                    names.remove(names.size() - 1);
+                    continue;
+                }
+
+                if(isAbsolute()) {
+                    continue;
+                }
+            }
+
+            names.add(name);
+        }
+
+        String normalized = String.join(SEPARATOR, names);
+        return new VfsPath(fileSystem, isAbsolute() ? SEPARATOR + normalized : normalized);
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        VfsPath that = checkPath(other);
+        if(that.isAbsolute()) {
+            return that;
+        }
+
+        if(that.path.isEmpty()) {
+            return this;
+        }
+
+        if(path.isEmpty()) {
+            return that;
+        }
+
+        return new VfsPath(fileSystem, path + SEPARATOR + that.path);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        checkPath(other);
+        Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(fileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        VfsPath that = checkPath(other);
+        if(that.isAbsolute() != isAbsolute()) {
+            throw new IllegalArgumentException("Both paths should be either absolute or relative.");
+        }
+
+        if(path.equals(that.path)) {
+            return new VfsPath(fileSystem, "");
+        }
+
+        int count = path.isEmpty() ? 0 : getNameCount();
+        int otherCount = that.path.isEmpty() ? 0 : that.getNameCount();
+        int common = 0;
+        while(common < count && common < otherCount &&
+                getName(common).toString().equals(that.getName(common).toString())) {
+            ++common;
+        }
+
+        List<String> names = new ArrayList<>();
+        for(int i = common; i < count; ++i) {
+            names.add("..");
+        }
+        for(int i = common; i < otherCount; ++i) {
+            names.add(that.getName(i).toString());
+        }
+
+        return new VfsPath(fileSystem, String.join(SEPARATOR, names));
+    }
+
+    @Override
+    public URI toUri() {
+        return fileSystem.toUri(toAbsolutePath().toString());
+    }
+
+    @Override
+    public VfsPath toAbsolutePath() {
+        return isAbsolute() ? this : new VfsPath(fileSystem, SEPARATOR + path);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        VfsPath realPath = (VfsPath) toAbsolutePath().normalize();
+        fileSystem.provider().checkAccess(realPath);
+        return realPath;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        return new Iterator<Path>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < getNameCount();
+            }
+
+            @Override
+            public Path next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getName(index++);
+            }
+        };
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return path.compareTo(((VfsPath) other).path);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof VfsPath &&
+                ((VfsPath) obj).fileSystem == fileSystem &&
+                ((VfsPath) obj).path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * @return absolute normalized path string which can be passed to VirtualFileSystem
+     */
+    String toVirtualPath() {
+        return toAbsolutePath().normalize().toString();
+    }
+
+    private VfsPath checkPath(Path path) {
+        if(path == null) {
+            throw new NullPointerException();
+        }
+
+        if(!(path instanceof VfsPath)) {
+            throw new ProviderMismatchException();
+        }
+
+        return (VfsPath) path;
+    }
+
+    private int[] getOffsets() {
+        int[] result = offsets;
+        if(result == null) {
+            List<Integer> starts = new ArrayList<>();
+            int index = isAbsolute() ? 1 : 0;
+            if(path.isEmpty()) {
+                starts.add(0);
+            }
+            while(index < path.length()) {
+                starts.add(index);
+                int next = path.indexOf('/', index);
+                index = next < 0 ? path.length() : next + 1;
+            }
+
+            result = new int[starts.size()];
+            for(int i = 0; i < result.length; ++i) {
+                result[i] = starts.get(i);
+            }
+            offsets = result;
+        }
+        return result;
+    }
+
+    private static String normalizeSeparators(String path) {
+        StringBuilder builder = new StringBuilder(path.length());
+        char previous = 0;
+        for(int i = 0; i < path.length(); ++i) {
+            char c = path.charAt(i);
+            if(c == '\u0000') {
+                throw new InvalidPathException(path, "Nul character not allowed");
+            }
+            if(c != '/' || previous != '/') {
+                builder.append(c);
+            }
+            previous = c;
+        }
+
+        int length = builder.length();
+        if(length > 1 && builder.charAt(length - 1) == '/') {
+            builder.setLength(length - 1);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.company.vfs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures throughput of block allocation when 1 to 64 files grow concurrently, each thread appends
+ * blocks to its own chain one by one, the way streams extend files.
+ * Run with: java -cp out com.company.vfs.BlockAllocationBenchmark [blocksPerFile]
+ */
+public class BlockAllocationBenchmark {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int[] FILE_COUNTS = { 1, 2, 4, 8, 16, 32, 64 };
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int blocksPerFile = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        System.out.println("files  blocks/s");
+        for (int files : FILE_COUNTS) {
+            double best = 0;
+            for (int round = 0; round < ROUNDS; ++round) {
+                best = Math.max(best, run(files, blocksPerFile));
+            }
+            System.out.printf("%5d  %.0f%n", files, best);
+        }
+    }
+
+    private static double run(int files, int blocksPerFile) throws Exception {
+        int maxBlocks = files * blocksPerFile;
+        ByteStorage storage = new SynchronizedByteStorage(
+                new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(maxBlocks))));
+        ByteStorage dataBlocksStorage = new SynchronizedByteStorage(
+                new ByteBufferByteStorage(ByteBuffer.allocate(maxBlocks * BLOCK_SIZE)));
+        BlockManager blockManager = new BlockManager(BLOCK_SIZE, maxBlocks, storage, dataBlocksStorage);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < files; ++i) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    int firstBlock = blockManager.allocateBlockChain();
+                    for (int block = 1; block < blocksPerFile; ++block) {
+                        blockManager.ensureGlobalOffset(firstBlock, block * BLOCK_SIZE);
+                    }
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        return maxBlocks * 1e9 / elapsed;
+    }
+}
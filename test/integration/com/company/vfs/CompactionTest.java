@@ -0,0 +1,110 @@
+package com.company.vfs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class CompactionTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int FILE_BLOCKS = 20;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        FileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024);
+
+        fs.createDirectory("/data");
+        for (int i = 0; i < 100; ++i) {
+            try (OutputStream outputStream = fs.createFile("/data/small" + i)) {
+                outputStream.write(new byte[BLOCK_SIZE]);
+            }
+        }
+
+        try (OutputStream outputStream = fs.createFile("/data/large")) {
+            outputStream.write(content(FILE_BLOCKS * BLOCK_SIZE, 7));
+        }
+
+        for (int i = 0; i < 100; ++i) {
+            fs.delete("/data/small" + i);
+        }
+    }
+
+    @Test
+    public void compactShouldMoveDataToFrontAndTruncateFile() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        long lengthBefore = new File(FILESYSTEM_FILENAME).length();
+        int blocks = fs.getBlocksCount();
+
+        CompactionStatistics statistics = fs.compact();
+
+        assertTrue(statistics.getRelocatedBlocks() >= FILE_BLOCKS);
+        assertThat(fs.getBlocksCount(), is(blocks));
+        // large file was written after small ones, so it moves to their place
+        assertTrue(statistics.getHighWaterMark() < 100);
+        assertTrue(new File(FILESYSTEM_FILENAME).length() <= lengthBefore - (1024 - 100) * BLOCK_SIZE);
+        assertThat(fs.getFragmentationStatistics().getAverageRunsPerFile(), is(1.0));
+        assertContent(fs, "/data/large", FILE_BLOCKS * BLOCK_SIZE, 7);
+
+        // storage grows back when blocks after the end of file are allocated
+        try (OutputStream outputStream = fs.createFile("/data/grown")) {
+            outputStream.write(content(900 * BLOCK_SIZE, 3));
+        }
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        assertContent(reopened, "/data/large", FILE_BLOCKS * BLOCK_SIZE, 7);
+        assertContent(reopened, "/data/grown", 900 * BLOCK_SIZE, 3);
+        assertThat(reopened.getBlocksCount(), is(fs.getBlocksCount()));
+    }
+
+    @Test
+    public void compactInBackgroundShouldKeepConcurrentWrites() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        Future<CompactionStatistics> compaction = fs.compactInBackground(200);
+        try (OutputStream outputStream = fs.createFile("/data/concurrent")) {
+            for (int i = 0; i < FILE_BLOCKS; ++i) {
+                outputStream.write(content(BLOCK_SIZE, i));
+            }
+        }
+
+        CompactionStatistics statistics = compaction.get(30, TimeUnit.SECONDS);
+        assertTrue(statistics.getRelocatedEntries() > 0);
+        assertContent(fs, "/data/large", FILE_BLOCKS * BLOCK_SIZE, 7);
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        byte[] data = Utils.readAll(reopened, "/data/concurrent");
+        assertThat(data.length, is(FILE_BLOCKS * BLOCK_SIZE));
+        for (int i = 0; i < FILE_BLOCKS; ++i) {
+            assertArrayEquals(content(BLOCK_SIZE, i), Arrays.copyOfRange(data, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE));
+        }
+    }
+
+    private static byte[] content(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * seed + i / BLOCK_SIZE);
+        }
+        return data;
+    }
+
+    private static void assertContent(VirtualFileSystem fs, String path, int length, int seed) throws Exception {
+        assertArrayEquals(content(length, seed), Utils.readAll(fs, path));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
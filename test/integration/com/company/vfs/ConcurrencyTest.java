@@ -124,6 +124,42 @@ public class ConcurrencyTest {
         }
     }
 
+    @Test
+    public void concurrentlyWrittenFilesShouldNotInterleave() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 4096);
+        fs.createDirectory("/data");
+
+        int numberOfThreads = 4;
+        int blocksPerFile = 256;
+        byte[] block = new byte[4096];
+        ArrayList<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < numberOfThreads; ++i) {
+            String path = "/data/" + i;
+            Thread thread = new Thread(() -> {
+                try(OutputStream outputStream = fs.createFile(path)) {
+                    for(int k = 0; k < blocksPerFile; ++k) {
+                        outputStream.write(block);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    fail();
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        for(Thread t: threads) {
+            t.join();
+        }
+
+        FragmentationStatistics statistics = fs.getFragmentationStatistics();
+        assertThat(statistics.getFileCount(), is(numberOfThreads));
+        assertThat(statistics.getBlockCount(), is((long) numberOfThreads * blocksPerFile));
+        assertTrue(statistics.getAverageRunLength() >= 32);
+    }
+
     @Test
     public void createAndDeleteDirectory() throws Exception {
         VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 4096);
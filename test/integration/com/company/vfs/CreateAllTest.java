@@ -0,0 +1,126 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.BlockLimitExceededException;
+import com.company.vfs.exception.FileAlreadyExistsException;
+import com.company.vfs.exception.NoSuchFileException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class CreateAllTest {
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024);
+    }
+
+    @Test
+    public void createAll() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createDirectory("existing");
+
+        byte[] data = new byte[10000];
+        Arrays.fill(data, (byte) 42);
+
+        List<NewEntry> entries = new ArrayList<>();
+        for(int i = 0; i < 100; ++i) {
+            entries.add(NewEntry.file("archive/files/" + i + ".txt", ("file " + i).getBytes("UTF-8")));
+        }
+        entries.add(NewEntry.file("existing/data.bin", data.length, () -> new ByteArrayInputStream(data)));
+        entries.add(NewEntry.file("existing/unknown.bin", -1, () -> new ByteArrayInputStream(data)));
+        entries.add(NewEntry.file("existing/overestimated.bin", 100000, () -> new ByteArrayInputStream(data)));
+        entries.add(NewEntry.file("archive/empty"));
+        entries.add(NewEntry.directory("archive/files"));
+        entries.add(NewEntry.directory("archive"));
+
+        fs.createAll(entries);
+
+        assertThat(fs.getDirectories("/"), is(Arrays.asList("existing", "archive")));
+        assertThat(fs.getDirectories("archive"), is(Arrays.asList("files")));
+        assertThat(fs.getFiles("archive"), is(Arrays.asList("empty")));
+        assertThat(fs.getFiles("archive/files").size(), is(100));
+        for(int i = 0; i < 100; ++i) {
+            assertThat(new String(Utils.readAll(fs, "archive/files/" + i + ".txt"), "UTF-8"), is("file " + i));
+        }
+        assertThat(Utils.readAll(fs, "existing/data.bin"), is(data));
+        assertThat(Utils.readAll(fs, "existing/unknown.bin"), is(data));
+        assertThat(Utils.readAll(fs, "existing/overestimated.bin"), is(data));
+
+        int blocksCount = fs.getBlocksCount();
+        fs.delete("existing/overestimated.bin");
+        assertThat(fs.getBlocksCount(), is(blocksCount - 3));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void createAllShouldThrow_When_EntryExists() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createDirectory("foo");
+        fs.createAll(Arrays.asList(NewEntry.file("bar"), NewEntry.directory("/foo/")));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void createAllShouldThrow_When_EntryIsDuplicated() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createAll(Arrays.asList(NewEntry.file("foo/bar"), NewEntry.directory("foo"), NewEntry.file("/foo/bar")));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void createAllShouldThrow_When_NoParent() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createAll(Arrays.asList(NewEntry.directory("foo"), NewEntry.file("bar/baz")));
+    }
+
+    @Test
+    public void createAllShouldCloseFiles_When_ContentFails() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        try {
+            fs.createAll(Arrays.asList(NewEntry.file("good", new byte[] { 1 }),
+                    NewEntry.file("bad", -1, () -> { throw new IOException("broken"); })));
+            fail();
+        }
+        catch (IOException e) {
+            assertThat(e.getMessage(), is("broken"));
+        }
+
+        fs.delete("good");
+        fs.delete("bad");
+        assertThat(fs.getEntriesCount(), is(1));
+    }
+
+    @Test
+    public void createAllShouldCloseFiles_When_BlocksCanNotBePreallocated() throws Exception {
+        removeFilesystemFile();
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 64);
+        byte[] data = new byte[400 * 1024];
+        try {
+            fs.createAll(Arrays.asList(NewEntry.file("/a", new byte[100]),
+                    NewEntry.file("/b", data.length, () -> new ByteArrayInputStream(data))));
+            fail();
+        }
+        catch (BlockLimitExceededException e) {
+            // expected
+        }
+
+        assertThat(Utils.readAll(fs, "/a"), is(new byte[100]));
+        fs.delete("/a");
+        fs.delete("/b");
+        assertThat(fs.getEntriesCount(), is(1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
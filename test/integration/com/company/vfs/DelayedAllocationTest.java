@@ -0,0 +1,105 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.QuotaExceededException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class DelayedAllocationTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024, CreateOptions.defaults().withDelayedAllocation(true));
+    }
+
+    @Test
+    public void interleavedWritesShouldGetSingleRuns() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createDirectory("/data");
+
+        int length = 40 * BLOCK_SIZE + 10;
+        try (OutputStream first = fs.createFile("/data/first"); OutputStream second = fs.createFile("/data/second")) {
+            int blocks = fs.getBlocksCount();
+            for (int i = 0; i < length; ++i) {
+                first.write(i);
+                second.write(i * 3);
+            }
+
+            assertThat(fs.getBlocksCount(), is(blocks));
+            assertThat(fs.stat("/data/first").getSize(), is(0L));
+        }
+
+        FragmentationStatistics statistics = fs.getFragmentationStatistics();
+        assertThat(statistics.getFileCount(), is(2));
+        assertThat(statistics.getRunCount(), is(2L));
+        assertThat(fs.stat("/data/second").getSize(), is((long) length));
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        try (InputStream inputStream = reopened.readFile("/data/second")) {
+            for (int i = 0; i < length; ++i) {
+                assertThat(inputStream.read(), is((i * 3) & 0xFF));
+            }
+            assertThat(inputStream.read(), is(-1));
+        }
+    }
+
+    @Test
+    public void flushShouldWriteBufferedData() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        try (OutputStream outputStream = fs.createFile("/file")) {
+            outputStream.write(new byte[] {1, 2, 3});
+            outputStream.flush();
+            assertThat(fs.stat("/file").getSize(), is(3L));
+
+            outputStream.write(4);
+        }
+
+        try (OutputStream outputStream = fs.writeFile("/file", true)) {
+            outputStream.write(new byte[] {5, 6});
+        }
+
+        byte[] data = new byte[6];
+        try (InputStream inputStream = fs.readFile("/file")) {
+            assertThat(inputStream.read(data), is(6));
+        }
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, data);
+    }
+
+    @Test
+    public void closeShouldThrow_When_QuotaExceeded() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createDirectory("/limited");
+        fs.setQuota("/limited", 100);
+
+        OutputStream outputStream = fs.createFile("/limited/file");
+        int blocks = fs.getBlocksCount();
+        outputStream.write(new byte[200]);
+        try {
+            outputStream.close();
+            fail();
+        }
+        catch (QuotaExceededException e) {
+            assertThat(fs.stat("/limited/file").getSize(), is(0L));
+            assertThat(fs.getBlocksCount(), is(blocks));
+        }
+
+        // stream is closed even though its data wasn't written
+        fs.delete("/limited/file");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
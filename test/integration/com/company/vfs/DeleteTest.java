@@ -68,6 +68,56 @@ public class DeleteTest {
         assertFalse(fs.exists("/bar"));
     }
 
+    @Test
+    public void deleteRecursive() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        int entriesCount = fs.getEntriesCount();
+        int blocksCount = fs.getBlocksCount();
+
+        fs.createDirectory("/baz/deep");
+        for(int i = 0; i < 100; ++i) {
+            fs.createDirectory("/baz/deep/" + i);
+            try(OutputStream outputStream = fs.createFile("/baz/deep/" + i + "/data")) {
+                outputStream.write(new byte[5000]);
+            }
+        }
+
+        fs.deleteRecursive("/baz/deep");
+        assertFalse(fs.exists("/baz/deep"));
+        assertEquals(entriesCount, fs.getEntriesCount());
+        assertEquals(blocksCount, fs.getBlocksCount());
+
+        fs.deleteRecursive("foo");
+        assertFalse(fs.exists("foo"));
+        assertFalse(fs.exists("/foo/Новая Папка 547/quine.cpp"));
+        assertTrue(fs.exists("bar"));
+
+        fs.deleteRecursive("base.db");
+        assertFalse(fs.exists("base.db"));
+    }
+
+    @Test
+    public void deleteRecursiveShouldThrow_When_FileIsOpened() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        int entriesCount = fs.getEntriesCount();
+
+        InputStream inputStream = fs.readFile("/foo/Новая Папка 547/quine.cpp");
+        try {
+            fs.deleteRecursive("foo");
+            fail();
+        }
+        catch (AccessDeniedException e) {
+            assertTrue(e.getMessage().contains("quine.cpp"));
+        }
+        finally {
+            inputStream.close();
+        }
+
+        assertEquals(entriesCount, fs.getEntriesCount());
+        assertTrue(fs.exists("/foo/Новая Папка 547/quine.cpp"));
+        assertTrue(fs.exists("/foo/empty"));
+    }
+
     @Test(expected = DirectoryNotEmptyException.class)
     public void deleteShouldThrow_When_DirectoryNotEmpty() throws Exception {
         FileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
@@ -7,8 +7,13 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
 import static com.company.vfs.Utils.removeFilesystemFile;
@@ -75,6 +80,35 @@ public class DirectoryApiTest {
         }
     }
 
+    @Test
+    public void existsShouldNotAllocate() throws Exception {
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+        for(int i = 0; i < 200; ++i) {
+            fs.createDirectory("/baz/dir" + i);
+        }
+        String path = "/baz/dir199/" + INNER_DIRECTORIES[1];
+        fs.createDirectory(path);
+
+        for(int i = 0; i < 10000; ++i) {
+            assertTrue(fs.exists(path));
+        }
+
+        int calls = 10000;
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for(int i = 0; i < calls; ++i) {
+            fs.exists(path);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue("allocated " + allocated / calls + " bytes per call", allocated / calls < 256);
+    }
+
     @Test
     public void createManyDirectories() throws Exception {
         VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
@@ -93,6 +127,256 @@ public class DirectoryApiTest {
         assertThat(fs.getDirectories(basePath), is(directories));
     }
 
+    @Test
+    public void list() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        try(OutputStream outputStream = fs.createFile("/foo/data")) {
+            outputStream.write(new byte[42]);
+        }
+
+        List<String> names = new ArrayList<>();
+        try(DirectoryStream<DirectoryEntry> entries = fs.list("/foo")) {
+            for(DirectoryEntry entry: entries) {
+                names.add(entry.getName());
+                if(entry.getName().equals("data")) {
+                    assertTrue(entry.isFile());
+                    assertThat(entry.getSize(), is(42L));
+                }
+                else {
+                    assertTrue(entry.isDirectory());
+                }
+            }
+        }
+
+        List<String> expected = new ArrayList<>(Arrays.asList(INNER_DIRECTORIES));
+        expected.add("data");
+        assertThat(names, is(expected));
+    }
+
+    @Test
+    public void listManyEntries() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        List<String> directories = new ArrayList<>();
+        for(int i = 0; i < 1000; ++i) {
+            directories.add("dir" + i);
+            fs.createDirectory("/bar/dir" + i);
+        }
+
+        List<String> names = new ArrayList<>();
+        try(DirectoryStream<DirectoryEntry> entries = fs.list("/bar")) {
+            for(DirectoryEntry entry: entries) {
+                names.add(entry.getName());
+            }
+        }
+
+        List<String> expected = new ArrayList<>(Arrays.asList(INNER_DIRECTORIES));
+        expected.addAll(directories);
+        assertThat(names, is(expected));
+    }
+
+    @Test
+    public void listShouldNotSkipEntries_When_EntriesDeleted() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        for(int i = 0; i < 1000; ++i) {
+            fs.createDirectory("/bar/dir" + i);
+        }
+
+        List<String> names = new ArrayList<>();
+        try(DirectoryStream<DirectoryEntry> entries = fs.list("/bar")) {
+            for(DirectoryEntry entry: entries) {
+                names.add(entry.getName());
+                if(entry.getName().startsWith("dir")) {
+                    fs.delete("/bar/" + entry.getName());
+                }
+            }
+        }
+
+        assertThat(names.size(), is(INNER_DIRECTORIES.length + 1000));
+        assertThat(fs.getDirectories("/bar"), is(Arrays.asList(INNER_DIRECTORIES)));
+    }
+
+    @Test
+    public void deleteShouldCompactDirectory() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        for(int i = 0; i < 1000; ++i) {
+            fs.createFile("/bar/file" + i).close();
+        }
+        long size = fs.stat("/bar").getSize();
+
+        for(int i = 0; i < 1000; ++i) {
+            if(i % 4 != 3) {
+                fs.delete("/bar/file" + i);
+            }
+        }
+        assertTrue(fs.stat("/bar").getSize() < size / 2);
+
+        List<String> expected = new ArrayList<>();
+        for(int i = 3; i < 1000; i += 4) {
+            expected.add("file" + i);
+            assertTrue(fs.exists("/bar/file" + i));
+        }
+        assertThat(fs.getFiles("/bar"), is(expected));
+
+        fs.createFile("/bar/file0").close();
+        expected.add("file0");
+        assertThat(fs.getFiles("/bar"), is(expected));
+    }
+
+    @Test
+    public void listPage() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        List<String> expected = new ArrayList<>();
+        for(int i = 0; i < 1000; ++i) {
+            fs.createDirectory("/bar/dir" + i);
+            fs.createFile("/bar/file" + i).close();
+            expected.add("file" + i);
+        }
+
+        List<String> names = new ArrayList<>();
+        String token = null;
+        do {
+            DirectoryPage page = fs.listPage("/bar", "file", token, 64);
+            assertTrue(page.getEntries().size() <= 64);
+            for(DirectoryEntry entry: page.getEntries()) {
+                assertTrue(entry.isFile());
+                names.add(entry.getName());
+            }
+            token = page.getContinuationToken();
+        } while (token != null);
+
+        assertThat(names, is(expected));
+    }
+
+    @Test
+    public void listPageShouldContinue_When_DirectoryChanged() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        DirectoryPage page = fs.listPage("/", null, null, 2);
+        assertThat(page.getEntries().size(), is(2));
+        assertThat(page.getEntries().get(1).getName(), is(DIRECTORIES[1]));
+
+        for(String innerDir: INNER_DIRECTORIES) {
+            fs.delete(DIRECTORIES[0] + "/" + innerDir);
+        }
+        fs.delete(DIRECTORIES[0]);
+
+        page = fs.listPage("/", null, page.getContinuationToken(), 10);
+        assertThat(page.getEntries().size(), is(2));
+        assertThat(page.getEntries().get(0).getName(), is(DIRECTORIES[2]));
+        assertThat(page.getEntries().get(1).getName(), is(DIRECTORIES[3]));
+        assertEquals(null, page.getContinuationToken());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void listPageShouldThrow_When_TokenIsInvalid() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+        fs.listPage("/", null, "not a token", 10);
+    }
+
+    @Test(expected = NotDirectoryException.class)
+    public void listShouldThrow_When_TargetIsNotDirectory() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+        fs.createFile("log.txt").close();
+        fs.list("log.txt");
+    }
+
+    @Test
+    public void walk() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        Set<String> expected = new HashSet<>();
+        for(String dir : DIRECTORIES) {
+            expected.add("/" + dir);
+            for(String innerDir: INNER_DIRECTORIES) {
+                expected.add("/" + dir + "/" + innerDir);
+            }
+        }
+
+        Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        fs.walk("/", (path, entry) -> {
+            assertTrue(entry.isDirectory());
+            assertTrue(path.endsWith("/" + entry.getName()));
+            assertTrue(visited.add(path));
+            return true;
+        });
+        assertThat(visited, is(expected));
+
+        visited.clear();
+        fs.walk("/", (path, entry) -> visited.add(path) && !entry.getName().equals(DIRECTORIES[0]));
+        expected.removeIf(path -> path.startsWith("/" + DIRECTORIES[0] + "/"));
+        assertThat(visited, is(expected));
+    }
+
+    @Test
+    public void find() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        for(String dir : DIRECTORIES) {
+            for(int i = 0; i < 10; ++i) {
+                try(OutputStream outputStream = fs.createFile(dir + "/" + INNER_DIRECTORIES[0] + "/file" + i + ".txt")) {
+                    outputStream.write(new byte[i * 100]);
+                }
+            }
+            fs.createFile(dir + "/file.bin").close();
+        }
+
+        try(Stream<String> paths = fs.find("/", EntryFilter.all().onlyFiles().withNameGlob("*.txt"))) {
+            assertThat(paths.count(), is(10L * DIRECTORIES.length));
+        }
+
+        try(Stream<String> paths = fs.find("foo/", EntryFilter.all().withNameGlob("file*").withSizeBetween(100, 300))) {
+            Set<String> expected = new HashSet<>();
+            for(int i = 1; i <= 3; ++i) {
+                expected.add("/foo/" + INNER_DIRECTORIES[0] + "/file" + i + ".txt");
+            }
+            assertThat(paths.collect(Collectors.toSet()), is(expected));
+        }
+
+        try(Stream<String> paths = fs.find("/", EntryFilter.all().onlyDirectories().withNameGlob("*a*"))) {
+            assertThat(paths.count(), is(10L));
+        }
+    }
+
+    @Test
+    public void findShouldStop_When_StreamIsClosed() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+
+        // much more entries than results queued ahead of consumer, so walk waits for consumer
+        int count = 3 * 4096;
+        List<NewEntry> entries = new ArrayList<>();
+        entries.add(NewEntry.directory("/many"));
+        for(int i = 0; i < count; ++i) {
+            entries.add(NewEntry.file("/many/file" + i));
+        }
+        fs.createAll(entries);
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+        try(Stream<String> paths = reopened.find("/many", EntryFilter.all())) {
+            assertThat(paths.limit(10).count(), is(10L));
+        }
+
+        // metadata of entries is read only until walk is stopped
+        Thread.sleep(500);
+        CacheStatistics statistics = reopened.getCacheStatistics();
+        assertTrue(statistics.getHits() + statistics.getMisses() < count / 2);
+
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        reopened.walk("/many", EntryFilter.all(), (path, entry) -> visited.add(path));
+        assertThat(visited.size(), is(count));
+    }
+
+    @Test(expected = NotDirectoryException.class)
+    public void findShouldThrow_When_TargetIsNotDirectory() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
+        fs.createFile("log.txt").close();
+        fs.find("log.txt", EntryFilter.all());
+    }
+
     @Test(expected = NotDirectoryException.class)
     public void getDirectoriesShouldThrow_When_TargetIsNotDirectory() throws Exception {
         FileSystem fs = VirtualFileSystem.open(Utils.FILESYSTEM_FILENAME);
@@ -0,0 +1,94 @@
+package com.company.vfs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class DirectoryFilterTest {
+
+    private static final int ENTRY_COUNT = 2000;
+    // map and records of metadata
+    private static final int METADATA_BLOCKS = 2;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        FileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024);
+
+        fs.createDirectory("dir");
+        for(int i = 0; i < ENTRY_COUNT; ++i) {
+            fs.createFile("dir/file" + i).close();
+        }
+    }
+
+    @Test
+    public void negativeLookups() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        for(int i = 0; i < ENTRY_COUNT; ++i) {
+            assertFalse(fs.exists("dir/missing" + i));
+            assertTrue(fs.exists("dir/file" + i));
+        }
+
+        FilterStatistics statistics = fs.getFilterStatistics();
+        assertThat(statistics.getLookups(), is(2L * ENTRY_COUNT));
+        assertThat(statistics.getRejections() + statistics.getFalsePositives(), is((long) ENTRY_COUNT));
+        assertTrue(statistics.getFalsePositiveRate() < 0.05);
+        assertTrue(statistics.getHitRate() > 0.45);
+    }
+
+    @Test
+    public void lookupsShouldFollowDeletes() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        // deletes are spread, so directory is not compacted before filter is rebuilt
+        for(int i = 0; i < ENTRY_COUNT; ++i) {
+            if(i % 10 != 0) {
+                fs.delete("dir/file" + i);
+            }
+        }
+
+        for(int i = 0; i < ENTRY_COUNT; ++i) {
+            assertThat(fs.exists("dir/file" + i), is(i % 10 == 0));
+        }
+        assertTrue(fs.getFilterStatistics().getFalsePositiveRate() < 0.05);
+
+        fs.createFile("dir/file1").close();
+        assertTrue(fs.exists("dir/file1"));
+
+        fs.deleteRecursive("dir");
+        assertThat(fs.usage("/").getBlocks(), is(0));
+        assertThat(fs.getBlocksCount(), is(METADATA_BLOCKS));
+    }
+
+    @Test
+    public void lookupsShouldFollowRenames() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        // names of the same length, so records are rewritten in place
+        for(int i = 0; i < 100; ++i) {
+            fs.move("dir/file" + i, "dir/name" + i);
+        }
+
+        for(int i = 0; i < 100; ++i) {
+            assertFalse(fs.exists("dir/file" + i));
+            assertTrue(fs.exists("dir/name" + i));
+            fs.readFile("dir/name" + i).close();
+        }
+        assertTrue(fs.exists("dir/file" + 100));
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        assertTrue(reopened.exists("dir/name0"));
+        assertFalse(reopened.exists("dir/file0"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
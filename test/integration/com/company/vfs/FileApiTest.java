@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.List;
 
 import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
 import static com.company.vfs.Utils.removeFilesystemFile;
@@ -133,6 +134,76 @@ public class FileApiTest {
         assertTrue(fs.isFile("bar/data"));
     }
 
+    @Test
+    public void stat() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        String path = "/foo/Новая Папка 547/quine.cpp";
+
+        FileAttributes attributes = fs.stat(path);
+        assertTrue(attributes.isFile());
+        assertThat(attributes.getSize(), is((long) DEMO_TEXT.length()));
+        assertThat(attributes.getBlockCount(), is(1));
+        assertTrue(fs.stat("/foo").isDirectory());
+
+        try(OutputStream outputStream = fs.writeFile(path, true)) {
+            outputStream.write(1);
+        }
+        FileAttributes appended = fs.stat(path);
+        assertThat(appended.getId(), is(attributes.getId()));
+        assertThat(appended.getSize(), is(DEMO_TEXT.length() + 1L));
+        assertTrue(appended.getGeneration() > attributes.getGeneration());
+
+        FileAttributes directory = fs.stat("/foo");
+        fs.createFile("/foo/new").close();
+        assertTrue(fs.stat("/foo").getGeneration() > directory.getGeneration());
+        assertThat(fs.stat(path).getGeneration(), is(appended.getGeneration()));
+    }
+
+    @Test
+    public void generationShouldChangeOnFlush() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        long flushed;
+        try(OutputStream outputStream = fs.createFile("/generation")) {
+            long created = fs.stat("/generation").getGeneration();
+            for(int i = 0; i < 100; ++i) {
+                outputStream.write(i);
+            }
+            assertThat(fs.stat("/generation").getGeneration(), is(created));
+
+            outputStream.flush();
+            flushed = fs.stat("/generation").getGeneration();
+            assertThat(flushed, is(created + 1));
+
+            outputStream.write(new byte[10]);
+        }
+        assertThat(fs.stat("/generation").getGeneration(), is(flushed + 1));
+    }
+
+    @Test
+    public void statMany() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        List<String> paths = Arrays.asList("/foo/Новая Папка 547/quine.cpp", "foo", "/", "/foo/nothing",
+                "base.db/nothing", "//foo//Новая Папка 547//", "/foo/Новая Папка 547/quine.cpp", "竜座/คนอ้วน");
+
+        List<FileAttributes> attributes = fs.stat(paths);
+        assertThat(attributes.size(), is(paths.size()));
+        for(int i = 0; i < paths.size(); ++i) {
+            if(fs.exists(paths.get(i))) {
+                FileAttributes expected = fs.stat(paths.get(i));
+                assertThat(attributes.get(i).getId(), is(expected.getId()));
+                assertThat(attributes.get(i).isDirectory(), is(expected.isDirectory()));
+                assertThat(attributes.get(i).getSize(), is(expected.getSize()));
+            }
+            else {
+                assertNull(attributes.get(i));
+            }
+        }
+        assertThat(attributes.get(0).getSize(), is((long) DEMO_TEXT.length()));
+        assertNull(attributes.get(3));
+        assertNull(attributes.get(4));
+    }
+
     @Test
     public void getFiles() throws Exception {
         FileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
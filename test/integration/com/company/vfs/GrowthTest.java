@@ -0,0 +1,123 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.BlockLimitExceededException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class GrowthTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+    }
+
+    @Test
+    public void growShouldKeepDataAndAddBlocks() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 64);
+        writeFile(fs, "/first", 50, 1);
+
+        fs.grow(256);
+        assertThat(fs.getMaxBlocks(), is(256));
+        writeFile(fs, "/second", 150, 2);
+
+        // block map and table moved after data are overwritten by data of the next growth
+        fs.grow(1024);
+        writeFile(fs, "/third", 700, 3);
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        assertThat(reopened.getMaxBlocks(), is(1024));
+        assertThat(reopened.getBlocksCount(), is(fs.getBlocksCount()));
+        assertFile(reopened, "/first", 50, 1);
+        assertFile(reopened, "/second", 150, 2);
+        assertFile(reopened, "/third", 700, 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void growShouldThrow_When_MaxBlocksNotGreater() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 64);
+        fs.grow(64);
+    }
+
+    @Test(expected = BlockLimitExceededException.class)
+    public void writeShouldThrow_When_AutoGrowthDisabled() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 64);
+        writeFile(fs, "/file", 100, 1);
+    }
+
+    @Test
+    public void concurrentWritesShouldGrowFileSystem() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 64,
+                CreateOptions.defaults().withAutoGrowth(true));
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            int seed = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    writeFile(fs, "/file" + seed, 100, seed);
+                }
+                catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(fs.getMaxBlocks() >= 400);
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        assertThat(reopened.getMaxBlocks(), is(fs.getMaxBlocks()));
+        for (int i = 0; i < 4; ++i) {
+            assertFile(reopened, "/file" + i, 100, i);
+        }
+    }
+
+    private static void writeFile(FileSystem fs, String path, int blocks, int seed) throws Exception {
+        try (OutputStream outputStream = fs.createFile(path)) {
+            for (int i = 0; i < blocks; ++i) {
+                outputStream.write(block(i, seed));
+            }
+        }
+    }
+
+    private static void assertFile(FileSystem fs, String path, int blocks, int seed) throws Exception {
+        byte[] data = Utils.readAll(fs, path);
+        assertThat(data.length, is(blocks * BLOCK_SIZE));
+        for (int i = 0; i < blocks; ++i) {
+            assertArrayEquals(block(i, seed), Arrays.copyOfRange(data, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE));
+        }
+    }
+
+    private static byte[] block(int index, int seed) {
+        byte[] data = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; ++i) {
+            data[i] = (byte) (i * (seed + 1) + index);
+        }
+        return data;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
@@ -0,0 +1,126 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.NoSuchFileException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class IndexedLookupTest {
+
+    private static final int DEPTH = 20;
+
+    private String deepPath;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        FileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024,
+                CreateOptions.defaults().withPathIndex(true));
+
+        StringBuilder path = new StringBuilder();
+        for(int i = 0; i < DEPTH; ++i) {
+            path.append("/level").append(i);
+            fs.createDirectory(path.toString());
+        }
+        deepPath = path.toString();
+
+        try(OutputStream outputStream = fs.createFile(deepPath + "/file")) {
+            outputStream.write(new byte[] {1, 2, 3});
+        }
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        assertTrue(fs.exists(deepPath + "/file"));
+        assertTrue(fs.isFile(deepPath + "//file"));
+        assertTrue(fs.isDirectory(deepPath + "/"));
+        assertTrue(fs.isDirectory("/"));
+        assertThat(fs.stat(deepPath + "/file").getSize(), is(3L));
+
+        assertFalse(fs.exists(deepPath + "/nothing"));
+        assertFalse(fs.exists(deepPath + "/file/nothing"));
+        assertFalse(fs.exists("/level1"));
+    }
+
+    @Test
+    public void lookupShouldFollowChanges() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        fs.move("/level0/level1", "/moved");
+        assertFalse(fs.exists(deepPath + "/file"));
+        String movedPath = deepPath.replace("/level0/level1", "/moved");
+        assertTrue(fs.exists(movedPath + "/file"));
+        assertThat(fs.getDirectories("/moved"), is(Arrays.asList("level2")));
+
+        // rename in place keeps record length, so record is rewritten without relinking
+        fs.move("/moved", "/mover");
+        assertFalse(fs.exists(movedPath));
+        movedPath = deepPath.replace("/level0/level1", "/mover");
+        assertTrue(fs.isFile(movedPath + "/file"));
+
+        fs.createAll(Arrays.asList(NewEntry.directory("/batch"), NewEntry.file("/batch/file", new byte[10])));
+        assertThat(fs.stat("/batch/file").getSize(), is(10L));
+
+        fs.openChannel("/batch/channel", EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE)).close();
+        assertTrue(fs.isFile("/batch/channel"));
+
+        fs.delete("/batch/channel");
+        assertFalse(fs.exists("/batch/channel"));
+
+        fs.deleteRecursive("/mover");
+        assertFalse(fs.exists(movedPath + "/file"));
+        assertFalse(fs.exists("/mover"));
+
+        // ids of deleted entries are reused by new ones, stale index entries shouldn't be confirmed
+        fs.createDirectory("/mover");
+        fs.createFile("/mover/file").close();
+        assertFalse(fs.exists(movedPath + "/file"));
+        assertTrue(fs.exists("/mover/file"));
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        assertTrue(reopened.exists("/mover/file"));
+        assertTrue(reopened.exists("/batch/file"));
+        assertTrue(reopened.exists("/level0"));
+    }
+
+    @Test
+    public void lookupShouldWork_When_IndexGrows() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        for(int i = 0; i < 1000; ++i) {
+            fs.createDirectory(deepPath + "/" + i);
+        }
+
+        for(int i = 0; i < 1000; i += 2) {
+            fs.delete(deepPath + "/" + i);
+        }
+
+        for(int i = 0; i < 1000; ++i) {
+            assertThat(fs.exists(deepPath + "/" + i), is(i % 2 == 1));
+        }
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void statShouldThrow_When_MovedAway() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.move(deepPath + "/file", "/file");
+        assertThat(fs.stat("/file").getSize(), is(3L));
+        fs.stat(deepPath + "/file");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
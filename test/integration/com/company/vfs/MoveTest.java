@@ -0,0 +1,165 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.AccessDeniedException;
+import com.company.vfs.exception.DirectoryNotEmptyException;
+import com.company.vfs.exception.FileAlreadyExistsException;
+import com.company.vfs.exception.NoSuchFileException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class MoveTest {
+
+    private static final byte[] DATA = new byte[10000];
+
+    static {
+        for(int i = 0; i < DATA.length; ++i) {
+            DATA[i] = (byte) i;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        FileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024);
+
+        fs.createDirectory("incoming");
+        fs.createDirectory("published");
+        fs.createDirectory("published/archive");
+
+        try(OutputStream outputStream = fs.createFile("incoming/data.tmp")) {
+            outputStream.write(DATA);
+        }
+    }
+
+    @Test
+    public void moveFile() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createFile("incoming/keep").close();
+        int id = fs.stat("incoming/data.tmp").getId();
+        int blocksCount = fs.getBlocksCount();
+
+        fs.move("incoming/data.tmp", "published/data.bin");
+
+        assertFalse(fs.exists("incoming/data.tmp"));
+        assertThat(fs.getFiles("incoming"), is(Collections.singletonList("keep")));
+        assertThat(fs.getFiles("published"), is(Collections.singletonList("data.bin")));
+        assertThat(fs.stat("published/data.bin").getId(), is(id));
+        assertThat(fs.getBlocksCount(), is(blocksCount));
+        assertThat(Utils.readAll(fs, "published/data.bin"), is(DATA));
+    }
+
+    @Test
+    public void rename() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.createFile("incoming/other").close();
+
+        fs.move("incoming/data.tmp", "/incoming/data.bin");
+        assertThat(fs.getFiles("incoming"), is(Arrays.asList("data.bin", "other")));
+        assertThat(Utils.readAll(fs, "incoming/data.bin"), is(DATA));
+    }
+
+    @Test
+    public void moveDirectory() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        fs.move("incoming", "published/archive/2024");
+        assertFalse(fs.exists("incoming"));
+        assertThat(Utils.readAll(fs, "published/archive/2024/data.tmp"), is(DATA));
+
+        fs.move("published/archive/2024", "2024");
+        assertThat(fs.getDirectories("/"), is(Arrays.asList("published", "2024")));
+        assertTrue(fs.exists("2024/data.tmp"));
+    }
+
+    @Test
+    public void moveOpenedFile() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        try(InputStream inputStream = fs.readFile("incoming/data.tmp")) {
+            fs.move("incoming/data.tmp", "published/data.bin");
+            byte[] data = new byte[DATA.length];
+            assertThat(inputStream.read(data), is(DATA.length));
+            assertThat(data, is(DATA));
+        }
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void moveShouldThrow_When_TargetIsInsideSource() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.move("published", "published/archive/published");
+    }
+
+    @Test
+    public void moveShouldReplaceExisting() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        try(OutputStream outputStream = fs.createFile("published/data.bin")) {
+            outputStream.write(new byte[20000]);
+        }
+        int id = fs.stat("incoming/data.tmp").getId();
+        int blocksCount = fs.getBlocksCount();
+
+        fs.move("incoming/data.tmp", "published/data.bin", true);
+
+        assertFalse(fs.exists("incoming/data.tmp"));
+        assertThat(fs.getFiles("published"), is(Collections.singletonList("data.bin")));
+        assertThat(fs.stat("published/data.bin").getId(), is(id));
+        // blocks of replaced file and contents of emptied source directory are freed
+        assertThat(fs.getBlocksCount(), is(blocksCount - 5 - 1));
+        assertThat(fs.usage("/").getBytes(), is((long) DATA.length));
+        assertThat(Utils.readAll(fs, "published/data.bin"), is(DATA));
+    }
+
+    @Test
+    public void moveShouldKeepTarget_When_ItIsNotEmptyDirectory() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        try {
+            fs.move("incoming/data.tmp", "published", true);
+            fail();
+        }
+        catch (DirectoryNotEmptyException e) {
+            // expected
+        }
+        assertTrue(fs.exists("incoming/data.tmp"));
+        assertTrue(fs.isDirectory("published/archive"));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void moveShouldThrow_When_TargetExists() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.move("incoming", "published/archive");
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void moveShouldThrow_When_NoSource() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.move("incoming/nothing", "published/nothing");
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void moveShouldThrow_When_NoTargetParent() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.move("incoming/data.tmp", "nothing/data.bin");
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void moveShouldThrow_When_SourceIsRoot() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.move("/", "published/root");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
@@ -0,0 +1,68 @@
+package com.company.vfs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.readAll;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class SparseImageTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    // close to the largest file system addressable by int offsets
+    private static final int MAX_BLOCKS = 500000;
+    private static final long CHUNK_SIZE = 16 * 1024 * 1024;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+    }
+
+    @Test
+    public void fileShouldGrowInChunks() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, MAX_BLOCKS,
+                CreateOptions.defaults().withSparseImage(true));
+
+        // block map and table of all blocks are followed by the first chunk of data only
+        long blockManagerSize = BlockManager.size(MAX_BLOCKS);
+        long length = new File(FILESYSTEM_FILENAME).length();
+        assertTrue(length <= blockManagerSize + 2 * CHUNK_SIZE);
+
+        byte[] data = new byte[100 * BLOCK_SIZE];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i / 3);
+        }
+        try (OutputStream outputStream = fs.createFile("/file")) {
+            outputStream.write(data);
+        }
+        assertThat(new File(FILESYSTEM_FILENAME).length(), is(length));
+
+        VirtualFileSystem reopened = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        assertThat(reopened.getMaxBlocks(), is(MAX_BLOCKS));
+        assertArrayEquals(data, readAll(reopened, "/file"));
+
+        // file written across chunk boundary extends file by the next chunk only
+        try (OutputStream outputStream = reopened.createFile("/large")) {
+            outputStream.write(new byte[(int) CHUNK_SIZE]);
+        }
+        assertThat(new File(FILESYSTEM_FILENAME).length(), is(length + CHUNK_SIZE));
+        assertArrayEquals(data, readAll(reopened, "/file"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createShouldThrow_When_MaxBlocksCantBeAddressed() throws Exception {
+        VirtualFileSystem.create(FILESYSTEM_FILENAME, 1 << 20, CreateOptions.defaults().withSparseImage(true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
@@ -0,0 +1,211 @@
+package com.company.vfs;
+
+import com.company.vfs.exception.NoSuchFileException;
+import com.company.vfs.exception.NotDirectoryException;
+import com.company.vfs.exception.QuotaExceededException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class UsageTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    // map and records of metadata
+    private static final int METADATA_BLOCKS = 2;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+        FileSystem fs = VirtualFileSystem.create(FILESYSTEM_FILENAME, 1024);
+
+        fs.createDirectory("a");
+        fs.createDirectory("a/b");
+        fs.createDirectory("c");
+
+        try(OutputStream outputStream = fs.createFile("a/b/data")) {
+            outputStream.write(new byte[10000]);
+        }
+
+        try(OutputStream outputStream = fs.createFile("a/small")) {
+            outputStream.write(1);
+        }
+    }
+
+    @Test
+    public void usage() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        Usage root = fs.usage("/");
+        assertThat(root.getBytes(), is(10001L));
+        assertThat(root.getEntries(), is(5));
+        assertThat(root.getBlocks() + METADATA_BLOCKS, is(fs.getBlocksCount()));
+        assertThat(root.getQuota(), is(Usage.NO_QUOTA));
+
+        Usage a = fs.usage("a");
+        assertThat(a.getBytes(), is(10001L));
+        assertThat(a.getEntries(), is(3));
+        // contents of a and a/b take block each
+        assertThat(a.getBlocks(), is(3 + 1 + 2));
+
+        Usage file = fs.usage("a/b/data");
+        assertThat(file.getBytes(), is(10000L));
+        assertThat(file.getBlocks(), is(3));
+        assertThat(file.getEntries(), is(0));
+
+        assertThat(fs.usage("c").getBytes(), is(0L));
+        assertThat(fs.usage("c").getBlocks(), is(0));
+    }
+
+    @Test
+    public void usageShouldFollowChanges() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+
+        try(OutputStream outputStream = fs.writeFile("a/small", true)) {
+            outputStream.write(new byte[BLOCK_SIZE]);
+        }
+        assertThat(fs.usage("a").getBytes(), is(10001L + BLOCK_SIZE));
+
+        try(FileChannel channel = fs.openChannel("a/b/data", EnumSet.of(StandardOpenOption.WRITE))) {
+            channel.write(ByteBuffer.wrap(new byte[] {1}), 5 * BLOCK_SIZE);
+            assertThat(fs.usage("a/b").getBytes(), is(5L * BLOCK_SIZE + 1));
+            assertThat(fs.usage("a/b").getBlocks(), is(1 + 6));
+
+            channel.truncate(1);
+            assertThat(fs.usage("a/b").getBytes(), is(1L));
+            assertThat(fs.usage("a/b").getBlocks(), is(1 + 1));
+        }
+
+        fs.move("a/b", "c/b");
+        assertThat(fs.usage("a").getBytes(), is(1L + BLOCK_SIZE));
+        assertThat(fs.usage("a").getEntries(), is(1));
+        assertThat(fs.usage("c").getBytes(), is(1L));
+        assertThat(fs.usage("c").getEntries(), is(2));
+
+        fs.createAll(Arrays.asList(NewEntry.directory("c/d"), NewEntry.file("c/d/e", new byte[100])));
+        assertThat(fs.usage("c").getBytes(), is(101L));
+        assertThat(fs.usage("c").getEntries(), is(4));
+
+        fs.delete("a/small");
+        fs.deleteRecursive("c/b");
+        assertThat(fs.usage("a").getBytes(), is(0L));
+        assertThat(fs.usage("a").getBlocks(), is(0));
+        assertThat(fs.usage("/").getBytes(), is(100L));
+        assertThat(fs.usage("/").getEntries(), is(4));
+        assertThat(fs.usage("/").getBlocks() + METADATA_BLOCKS, is(fs.getBlocksCount()));
+    }
+
+    @Test
+    public void quota() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.setQuota("a", 10001 + BLOCK_SIZE);
+        assertThat(fs.usage("a").getQuota(), is(10001L + BLOCK_SIZE));
+
+        int blocksCount = fs.getBlocksCount();
+        try(OutputStream outputStream = fs.writeFile("a/b/data", true)) {
+            outputStream.write(new byte[BLOCK_SIZE]);
+            try {
+                outputStream.write(1);
+                fail("Quota is not enforced.");
+            }
+            catch (QuotaExceededException e) {
+                // expected
+            }
+        }
+        assertThat(fs.usage("a").getBytes(), is(10001L + BLOCK_SIZE));
+        assertThat(fs.getBlocksCount(), is(blocksCount + 1));
+
+        try(OutputStream outputStream = fs.createFile("c/big")) {
+            outputStream.write(new byte[10]);
+        }
+        try {
+            fs.move("c/big", "a/b/big");
+            fail("Quota is not enforced.");
+        }
+        catch (QuotaExceededException e) {
+            assertTrue(fs.exists("c/big"));
+            assertThat(fs.usage("c").getBytes(), is(10L));
+        }
+
+        fs.setQuota("a", Usage.NO_QUOTA);
+        fs.move("c/big", "a/b/big");
+        assertThat(fs.usage("a").getBytes(), is(10011L + BLOCK_SIZE));
+    }
+
+    @Test
+    public void usageShouldBeSettled_When_StreamIsFlushed() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.setQuota("c", 2 * BLOCK_SIZE + 10);
+
+        try(OutputStream outputStream = fs.createFile("c/bytes")) {
+            for(int i = 0; i < BLOCK_SIZE + 10; ++i) {
+                outputStream.write(i);
+            }
+            // the last block is reserved while stream is written
+            assertThat(fs.usage("c").getBytes(), is(2L * BLOCK_SIZE));
+            assertThat(fs.usage("c").getBlocks(), is(1 + 2));
+
+            outputStream.flush();
+            assertThat(fs.usage("c").getBytes(), is(BLOCK_SIZE + 10L));
+
+            // block can't be reserved close to quota, so quota is still exact
+            for(int i = 0; i < BLOCK_SIZE; ++i) {
+                outputStream.write(i);
+            }
+            try {
+                outputStream.write(1);
+                fail("Quota is not enforced.");
+            }
+            catch (QuotaExceededException e) {
+                // expected
+            }
+        }
+        assertThat(fs.usage("c").getBytes(), is(2L * BLOCK_SIZE + 10));
+        assertThat(fs.usage("/").getBytes(), is(10001L + 2 * BLOCK_SIZE + 10));
+        assertThat(fs.usage("/").getBlocks() + METADATA_BLOCKS, is(fs.getBlocksCount()));
+    }
+
+    @Test
+    public void quotaShouldLimitNestedDirectories() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.setQuota("/", 10001);
+
+        try(FileChannel channel = fs.openChannel("c/new", EnumSet.of(StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE))) {
+            channel.write(ByteBuffer.wrap(new byte[2]));
+            fail("Quota is not enforced.");
+        }
+        catch (QuotaExceededException e) {
+            assertThat(fs.stat("c/new").getSize(), is(0L));
+            assertThat(fs.usage("/").getBlocks() + METADATA_BLOCKS, is(fs.getBlocksCount()));
+        }
+    }
+
+    @Test(expected = NotDirectoryException.class)
+    public void setQuotaShouldThrow_When_TargetIsFile() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.setQuota("a/small", 100);
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void usageShouldThrow_When_NoEntry() throws Exception {
+        VirtualFileSystem fs = VirtualFileSystem.open(FILESYSTEM_FILENAME);
+        fs.usage("nothing");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        removeFilesystemFile();
+    }
+}
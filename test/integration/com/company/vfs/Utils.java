@@ -1,6 +1,8 @@
 package com.company.vfs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -14,4 +16,16 @@ public class Utils {
             Files.delete(path);
         }
     }
+
+    public static byte[] readAll(FileSystem fs, String path) throws IOException {
+        try(InputStream inputStream = fs.readFile(path)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
 }
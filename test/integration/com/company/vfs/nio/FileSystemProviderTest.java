@@ -0,0 +1,221 @@
+package com.company.vfs.nio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static com.company.vfs.Utils.FILESYSTEM_FILENAME;
+import static com.company.vfs.Utils.removeFilesystemFile;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class FileSystemProviderTest {
+
+    private FileSystem fs;
+
+    @Before
+    public void setUp() throws Exception {
+        removeFilesystemFile();
+
+        URI uri = URI.create("vfs:" + Paths.get(FILESYSTEM_FILENAME).toAbsolutePath().toUri() + "!/");
+        Map<String, String> env = new HashMap<>();
+        env.put("create", "true");
+        env.put("maxBlocks", "1024");
+        fs = FileSystems.newFileSystem(uri, env);
+    }
+
+    @Test
+    public void writeRead() throws Exception {
+        Path path = fs.getPath("/foo/bar.txt");
+        Files.createDirectories(path.getParent());
+        Files.write(path, "lorem ipsum".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(Files.exists(path));
+        assertTrue(Files.isRegularFile(path));
+        assertTrue(Files.isDirectory(path.getParent()));
+        assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), is("lorem ipsum"));
+        assertThat(fs.provider().getPath(path.toUri()), is(path));
+    }
+
+    @Test
+    public void directoryStream() throws Exception {
+        Files.createDirectory(fs.getPath("/foo"));
+        Files.createDirectory(fs.getPath("/foo/bar"));
+        Files.createFile(fs.getPath("/foo/baz.txt"));
+        Files.createFile(fs.getPath("/foo/qux.log"));
+
+        Set<String> names = new HashSet<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/foo"))) {
+            for(Path p: stream) {
+                names.add(p.getFileName().toString());
+            }
+        }
+        assertThat(names, is(new HashSet<>(Arrays.asList("bar", "baz.txt", "qux.log"))));
+
+        names.clear();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(fs.getPath("/foo"), "*.txt")) {
+            for(Path p: stream) {
+                names.add(p.toString());
+            }
+        }
+        assertThat(names, is(Collections.singleton("/foo/baz.txt")));
+    }
+
+    @Test
+    public void readAttributes() throws Exception {
+        Path path = fs.getPath("data");
+        Files.write(path, new byte[10000]);
+
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        assertTrue(attributes.isRegularFile());
+        assertFalse(attributes.isDirectory());
+        assertThat(attributes.size(), is(10000L));
+
+        Map<String, Object> map = Files.readAttributes(path, "basic:size,isDirectory");
+        assertThat(map.get("size"), is(10000L));
+        assertThat(map.get("isDirectory"), is(false));
+    }
+
+    @Test
+    public void copyMove() throws Exception {
+        byte[] data = new byte[50000];
+        new Random(42).nextBytes(data);
+
+        Path source = fs.getPath("/source.bin");
+        Files.write(source, data);
+        Files.createDirectory(fs.getPath("/dir"));
+
+        Path copy = fs.getPath("/dir/copy.bin");
+        Files.copy(source, copy);
+        assertThat(Files.readAllBytes(copy), is(data));
+
+        Path moved = fs.getPath("/moved.bin");
+        Files.move(copy, moved);
+        assertTrue(Files.notExists(copy));
+        assertThat(Files.readAllBytes(moved), is(data));
+    }
+
+    @Test
+    public void moveDirectory() throws Exception {
+        Path source = fs.getPath("/incoming/batch");
+        Files.createDirectories(source);
+        Files.write(source.resolve("data"), new byte[] { 1, 2, 3 });
+        Files.createDirectory(fs.getPath("/published"));
+
+        Path target = fs.getPath("/published/batch");
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        assertTrue(Files.notExists(source));
+        assertThat(Files.readAllBytes(target.resolve("data")), is(new byte[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void moveShouldReplaceExisting() throws Exception {
+        Path source = fs.getPath("/source.txt");
+        Path existing = fs.getPath("/existing.txt");
+        Files.write(source, new byte[] { 1 });
+        Files.write(existing, new byte[] { 2, 3 });
+
+        Files.move(source, existing, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertTrue(Files.notExists(source));
+        assertThat(Files.readAllBytes(existing), is(new byte[] { 1 }));
+    }
+
+    @Test
+    public void moveShouldKeepExisting_When_SourceIsMissing() throws Exception {
+        Path existing = fs.getPath("/existing.txt");
+        Files.write(existing, new byte[] { 1 });
+        try {
+            Files.move(fs.getPath("/missing.txt"), existing, StandardCopyOption.REPLACE_EXISTING);
+            fail();
+        }
+        catch (NoSuchFileException e) {
+            // expected
+        }
+        assertThat(Files.readAllBytes(existing), is(new byte[] { 1 }));
+    }
+
+    @Test
+    public void moveShouldKeepExisting_When_DirectoryIsMovedIntoItself() throws Exception {
+        Path existing = fs.getPath("/a/b");
+        Files.createDirectories(existing);
+        try {
+            Files.move(fs.getPath("/a"), existing, StandardCopyOption.REPLACE_EXISTING);
+            fail();
+        }
+        catch (AccessDeniedException e) {
+            // expected
+        }
+        assertTrue(Files.isDirectory(existing));
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void copyShouldThrow_When_TargetExists() throws Exception {
+        Files.createFile(fs.getPath("a"));
+        Files.createFile(fs.getPath("b"));
+        Files.copy(fs.getPath("a"), fs.getPath("b"));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void newByteChannelShouldThrow_When_NoSuchFile() throws Exception {
+        Files.newByteChannel(fs.getPath("/nothing"));
+    }
+
+    @Test
+    public void fileChannel() throws Exception {
+        Path path = fs.getPath("/channel.bin");
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("0123456789".getBytes(StandardCharsets.UTF_8)), 8190);
+            assertThat(channel.size(), is(8200L));
+
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            channel.read(buffer, 8194);
+            assertThat(new String(buffer.array(), StandardCharsets.UTF_8), is("4567"));
+
+            buffer = ByteBuffer.allocateDirect(2);
+            channel.position(100);
+            channel.read(buffer);
+            assertThat(buffer.get(0), is((byte) 0));
+            assertThat(channel.position(), is(102L));
+
+            channel.truncate(8192);
+            assertThat(channel.size(), is(8192L));
+        }
+
+        try(FileChannel source = FileChannel.open(path);
+            FileChannel target = FileChannel.open(fs.getPath("/target.bin"), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+            assertThat(target.transferFrom(source, 0, Long.MAX_VALUE), is(8192L));
+        }
+        assertThat(Files.readAllBytes(fs.getPath("/target.bin")), is(Files.readAllBytes(path)));
+    }
+
+    @Test
+    public void paths() throws Exception {
+        Path path = fs.getPath("/foo/./bar/../baz");
+        assertThat(path.normalize().toString(), is("/foo/baz"));
+        assertThat(path.getNameCount(), is(5));
+        assertThat(path.getFileName().toString(), is("baz"));
+        assertThat(fs.getPath("/foo").relativize(fs.getPath("/foo/bar/baz")).toString(), is("bar/baz"));
+        assertThat(fs.getPath("/foo/bar").relativize(fs.getPath("/baz")).toString(), is("../../baz"));
+        assertThat(fs.getPath("foo").resolve("bar").toString(), is("foo/bar"));
+        assertTrue(fs.getPath("/foo/bar").startsWith("/foo"));
+        assertTrue(fs.getPath("/foo/bar").endsWith("bar"));
+        assertThat(fs.getPath("/").getParent(), is((Path) null));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.close();
+        removeFilesystemFile();
+    }
+}
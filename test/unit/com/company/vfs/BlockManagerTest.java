@@ -3,7 +3,10 @@ package com.company.vfs;
 import com.company.vfs.exception.BlockLimitExceededException;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -77,6 +80,47 @@ public class BlockManagerTest {
         assertThat(manager.getBlockCount(), is(0));
     }
 
+    @Test
+    public void deallocateBlockChains() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager manager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+
+        int firstChain = manager.allocateBlockChain();
+        int secondChain = manager.allocateBlockChain();
+        int thirdChain = manager.allocateBlockChain();
+        manager.ensureGlobalOffset(firstChain, 10000);
+        manager.ensureGlobalOffset(thirdChain, 5000);
+        assertThat(manager.getBlockCount(), is(6));
+
+        manager.deallocateBlockChains(Arrays.asList(firstChain, thirdChain));
+        assertThat(manager.getBlockCount(), is(1));
+
+        BlockManager reopened = new BlockManager(4096, 8, storage, dataBlocksStorage);
+        assertThat(reopened.getBlockCount(), is(1));
+        assertThat(reopened.allocateBlockChain(), is(firstChain));
+        assertThat(reopened.getGlobalOffset(secondChain, 0), is(secondChain * 4096));
+    }
+
+    @Test
+    public void allocateBlockChainOfLength() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager manager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+
+        int firstBlock = manager.allocateBlockChain(3);
+        assertThat(manager.getBlockCount(), is(3));
+        assertThat(manager.getGlobalOffset(firstBlock, 10000), is(2 * 4096 + 10000 % 4096));
+
+        try {
+            manager.allocateBlockChain(6);
+            fail();
+        }
+        catch (BlockLimitExceededException e) {
+            assertThat(manager.getBlockCount(), is(3));
+        }
+    }
+
     @Test
     public void truncateToSize() throws Exception {
         ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
@@ -109,4 +153,186 @@ public class BlockManagerTest {
         manager.truncateBlockChain(firstBlock, 42);
         manager.getGlobalOffset(firstBlock, 8000);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void largeChainShouldUseBulkWrites() throws Exception {
+        CountingByteStorage storage = new CountingByteStorage(
+                new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(4096))));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(64 * 4096));
+        BlockManager manager = new BlockManager(64, 4096, storage, dataBlocksStorage);
+
+        int firstChain = manager.allocateBlockChain();
+        int secondChain = manager.allocateBlockChain(3000);
+        manager.ensureGlobalOffset(firstChain, 64 * 500);
+        assertThat(manager.getBlockCount(), is(3501));
+        assertTrue(storage.calls < 20);
+
+        BlockManager reopened = new BlockManager(64, 4096, storage, dataBlocksStorage);
+        assertThat(reopened.getBlockChainLength(secondChain), is(3000));
+        assertThat(reopened.getGlobalOffset(firstChain, 64 * 500), is(3500 * 64));
+
+        storage.calls = 0;
+        reopened.truncateBlockChain(secondChain, 64 * 1000);
+        reopened.deallocateBlockChain(firstChain);
+        assertThat(reopened.getBlockCount(), is(1000));
+        assertTrue(storage.calls < 20);
+
+        BlockManager truncated = new BlockManager(64, 4096, storage, dataBlocksStorage);
+        assertThat(truncated.getBlockCount(), is(1000));
+        assertThat(truncated.getBlockChainLength(secondChain), is(1000));
+    }
+
+    @Test
+    public void concurrentChainsShouldNotShareBlocks() throws Exception {
+        ByteStorage storage = new SynchronizedByteStorage(
+                new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(4096))));
+        ByteStorage dataBlocksStorage = new SynchronizedByteStorage(
+                new ByteBufferByteStorage(ByteBuffer.allocate(64 * 4096)));
+        BlockManager manager = new BlockManager(64, 4096, storage, dataBlocksStorage);
+
+        int threadCount = 8;
+        int blocksPerChain = 400;
+        int[] firstBlocks = new int[threadCount];
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < threadCount; ++t) {
+            int index = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    firstBlocks[index] = manager.allocateBlockChain();
+                    for (int i = 1; i < blocksPerChain; ++i) {
+                        manager.ensureGlobalOffset(firstBlocks[index], i * 64);
+                    }
+                    manager.truncateBlockChain(firstBlocks[index], 64 * blocksPerChain / 2);
+                }
+                catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(errors, is(Collections.<Throwable>emptyList()));
+
+        int totalBlocks = threadCount * blocksPerChain / 2;
+        assertThat(manager.getBlockCount(), is(totalBlocks));
+
+        BlockManager reopened = new BlockManager(64, 4096, storage, dataBlocksStorage);
+        assertThat(reopened.getBlockCount(), is(totalBlocks));
+        Set<Integer> blocks = new HashSet<>();
+        for (int firstBlock : firstBlocks) {
+            assertThat(reopened.getBlockChainLength(firstBlock), is(blocksPerChain / 2));
+            for (int i = 0; i < blocksPerChain / 2; ++i) {
+                blocks.add(reopened.getGlobalOffset(firstBlock, i * 64) / 64);
+            }
+        }
+        assertThat(blocks.size(), is(totalBlocks));
+    }
+
+    @Test
+    public void interleavedChainsShouldKeepRuns() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(4096)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(64 * 4096));
+        BlockManager manager = new BlockManager(64, 4096, storage, dataBlocksStorage);
+
+        int directoryBlock = manager.allocateBlockChain();
+        int first = manager.allocateBlockChain(1, directoryBlock);
+        int second = manager.allocateBlockChain(1, directoryBlock);
+        for (int i = 1; i < 640; ++i) {
+            manager.ensureGlobalOffset(first, i * 64);
+            manager.ensureGlobalOffset(second, i * 64);
+        }
+
+        assertThat(manager.getBlockChainLength(first), is(640));
+        assertTrue(manager.getRunCount(first) <= 12);
+        assertTrue(manager.getRunCount(second) <= 12);
+        assertThat(manager.getRunCount(directoryBlock), is(1));
+    }
+
+    @Test
+    public void relocateShouldCopyChainIntoSingleRun() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(256)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(64 * 256));
+        BlockManager manager = new BlockManager(64, 256, storage, dataBlocksStorage);
+
+        int first = manager.allocateBlockChain();
+        int second = manager.allocateBlockChain();
+        dataBlocksStorage.putInt(manager.ensureGlobalOffset(first, 64), 42);
+        assertThat(manager.getRunCount(first), is(2));
+
+        int relocated = manager.relocateBlockChain(first);
+        assertThat(relocated, is(second + 1));
+        manager.deallocateBlockChain(first);
+
+        assertThat(manager.getRunCount(relocated), is(1));
+        assertThat(dataBlocksStorage.getInt(manager.getGlobalOffset(relocated, 64)), is(42));
+        assertThat(manager.getBlockCount(), is(3));
+        assertThat(manager.getHighWaterMark(), is(relocated + 2));
+
+        // contiguous chain stays in place until run before it is freed
+        assertThat(manager.relocateBlockChain(relocated), is(-1));
+        manager.deallocateBlockChain(second);
+        assertThat(manager.relocateBlockChain(relocated), is(0));
+    }
+
+    private static class CountingByteStorage implements ByteStorage {
+
+        private final ByteStorage storage;
+        private int calls;
+
+        CountingByteStorage(ByteStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public void putByte(int offset, byte value) throws IOException {
+            ++calls;
+            storage.putByte(offset, value);
+        }
+
+        @Override
+        public byte getByte(int offset) throws IOException {
+            ++calls;
+            return storage.getByte(offset);
+        }
+
+        @Override
+        public int getInt(int offset) throws IOException {
+            ++calls;
+            return storage.getInt(offset);
+        }
+
+        @Override
+        public void putInt(int offset, int value) throws IOException {
+            ++calls;
+            storage.putInt(offset, value);
+        }
+
+        @Override
+        public void getBytes(int offset, byte[] dst) throws IOException {
+            ++calls;
+            storage.getBytes(offset, dst);
+        }
+
+        @Override
+        public void getBytes(int offset, byte[] dst, int dstOffset, int length) throws IOException {
+            ++calls;
+            storage.getBytes(offset, dst, dstOffset, length);
+        }
+
+        @Override
+        public void putBytes(int offset, byte[] source) throws IOException {
+            ++calls;
+            storage.putBytes(offset, source);
+        }
+
+        @Override
+        public void putBytes(int offset, byte[] source, int sourceOffset, int length) throws IOException {
+            ++calls;
+            storage.putBytes(offset, source, sourceOffset, length);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.company.vfs;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void hash() {
+        for (String name : new String[] {"", "foo", "Новая Папка", "😀 smile", "bad \uD800 surrogate"}) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            String path = "/dir/" + name + "/";
+            assertThat(BloomFilter.hash(path, 5, 5 + name.length()), is(BloomFilter.hash(bytes, bytes.length)));
+        }
+    }
+
+    @Test
+    public void mightContain() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(16)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(256 * 16));
+        BlockManager blockManager = new BlockManager(256, 16, storage, dataBlocksStorage);
+        BloomFilter filter = new BloomFilter(blockManager, dataBlocksStorage);
+
+        int count = 200;
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; ++i) {
+            hashes[i] = BloomFilter.hash("name" + i, 0, ("name" + i).length());
+        }
+
+        int bits = BloomFilter.bitsFor(count / 2);
+        assertThat(BloomFilter.capacity(bits), is(count));
+        int firstBlock = filter.create(bits, hashes, count / 2);
+        for (int i = count / 2; i < count; ++i) {
+            filter.add(firstBlock, bits, hashes[i]);
+        }
+
+        for (int i = 0; i < count; ++i) {
+            assertTrue(filter.mightContain(firstBlock, bits, hashes[i]));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; ++i) {
+            String name = "missing" + i;
+            if (filter.mightContain(firstBlock, bits, BloomFilter.hash(name, 0, name.length()))) {
+                ++falsePositives;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+}
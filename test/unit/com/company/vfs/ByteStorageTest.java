@@ -2,6 +2,7 @@ package com.company.vfs;
 
 import org.junit.Test;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -48,4 +49,37 @@ public class ByteStorageTest {
 
         assertThat(testBuffer.array(), is(data));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void chunkedStorageShouldSplitAccessesAtChunkBoundaries() throws Exception {
+        File file = File.createTempFile("chunked", ".bin");
+        try {
+            ChunkedFileByteStorage storage = new ChunkedFileByteStorage(file.getPath(), 8, 100, 16);
+            assertThat(file.length(), is(0L));
+
+            storage.putInt(14, 42);
+            assertThat(storage.getInt(14), is(42));
+            assertThat(file.length(), is(8L + 32));
+
+            byte[] data = "lorem ipsum dolor sit amet some random data".getBytes();
+            storage.putBytes(40, data);
+            byte[] result = new byte[data.length];
+            storage.getBytes(40, result);
+            assertThat(result, is(data));
+            assertThat(file.length(), is(8L + 96));
+
+            storage.truncate(() -> 20);
+            assertThat(file.length(), is(8L + 32));
+            assertThat(storage.getInt(14), is(42));
+            assertThat(storage.getByte(40), is((byte) 0));
+
+            storage.grow(200);
+            storage.putByte(199, (byte) 1);
+            assertThat(storage.getByte(199), is((byte) 1));
+            assertThat(file.length(), is(8L + 200));
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
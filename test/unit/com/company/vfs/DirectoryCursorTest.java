@@ -0,0 +1,215 @@
+package com.company.vfs;
+
+import com.company.vfs.Metadata.Type;
+import com.company.vfs.exception.FileFormatException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class DirectoryCursorTest {
+
+    private static final int BLOCK_SIZE = 16;
+
+    @Test
+    public void next() throws Exception {
+        FileSystemEntry[] entries = {
+                new FileSystemEntry(1, "foo", Type.Directory),
+                new FileSystemEntry(FileSystemEntry.TOMBSTONE_ID, "removed", Type.File),
+                new FileSystemEntry(2, "Новая Папка 547", Type.File),
+                new FileSystemEntry(3, "lorem ipsum dolor sit amet", Type.File)
+        };
+        DirectoryCursor cursor = createCursor(entries);
+
+        assertTrue(cursor.next());
+        assertThat(cursor.getMetadataId(), is(1));
+        assertThat(cursor.getType(), is(Type.Directory));
+        assertThat(cursor.getPosition(), is(DirectoryHeader.BYTES));
+        assertTrue(cursor.nameEquals("/foo/", 1, 4));
+        assertFalse(cursor.nameEquals("fo", 0, 2));
+
+        assertTrue(cursor.next());
+        assertThat(cursor.getMetadataId(), is(2));
+        assertThat(cursor.getName(), is("Новая Папка 547"));
+        assertTrue(cursor.nameEquals("Новая Папка 547", 0, 15));
+        assertTrue(cursor.nameStartsWith("Новая".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(cursor.nameStartsWith("Папка".getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(cursor.next());
+        assertThat(cursor.getMetadataId(), is(3));
+        assertThat(cursor.getNameLength(), is(26));
+        assertThat(cursor.getName(), is("lorem ipsum dolor sit amet"));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void nextRecord() throws Exception {
+        DirectoryCursor cursor = createCursor(new FileSystemEntry(FileSystemEntry.TOMBSTONE_ID, "a", Type.File),
+                new FileSystemEntry(7, "b", Type.File));
+
+        assertTrue(cursor.nextRecord());
+        assertTrue(cursor.isTombstone());
+        assertThat(cursor.getNextPosition(), is(cursor.getPosition() + cursor.getRecordLength()));
+        assertTrue(cursor.nextRecord());
+        assertThat(cursor.getMetadataId(), is(7));
+        assertFalse(cursor.nextRecord());
+    }
+
+    @Test(expected = FileFormatException.class)
+    public void nextShouldThrow_When_InvalidNameLength() throws Exception {
+        DirectoryCursor truncated = createCursor(3, new FileSystemEntry(1, "foo", Type.File));
+        truncated.next();
+    }
+
+    private static DirectoryCursor createCursor(FileSystemEntry... entries) throws Exception {
+        return createCursor(0, entries);
+    }
+
+    private static DirectoryCursor createCursor(int missingBytes, FileSystemEntry... entries) throws Exception {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        contents.write(new DirectoryHeader(entries.length, 0).toBytes());
+        for(FileSystemEntry entry : entries) {
+            contents.write(entry.toBytes());
+        }
+        byte[] bytes = contents.toByteArray();
+
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(64)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(BLOCK_SIZE * 64));
+        BlockManager blockManager = new BlockManager(BLOCK_SIZE, 64, storage, dataBlocksStorage);
+
+        int firstBlock = blockManager.allocateBlockChain();
+        // allocate some block between, so chain is not contiguous
+        blockManager.allocateBlockChain();
+        for(int i = 0; i < bytes.length; ++i) {
+            dataBlocksStorage.putByte(blockManager.ensureGlobalOffset(firstBlock, i), bytes[i]);
+        }
+
+        Metadata directory = new TestMetadata(firstBlock, bytes.length - missingBytes);
+        return new DirectoryCursor(blockManager, dataBlocksStorage).reset(directory, DirectoryHeader.BYTES);
+    }
+
+    private static class TestMetadata implements Metadata {
+
+        private final int firstBlock;
+        private final int dataLength;
+
+        TestMetadata(int firstBlock, int dataLength) {
+            this.firstBlock = firstBlock;
+            this.dataLength = dataLength;
+        }
+
+        @Override
+        public int getDataLength() {
+            return dataLength;
+        }
+
+        @Override
+        public void setDataLength(int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getFirstBlock() {
+            return firstBlock;
+        }
+
+        @Override
+        public void setFirstBlock(int block) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Type getType() {
+            return Type.Directory;
+        }
+
+        @Override
+        public void setType(Type type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getId() {
+            return 1;
+        }
+
+        @Override
+        public int getParentId() {
+            return NO_PARENT;
+        }
+
+        @Override
+        public void setParentId(int parentId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getUsedBytes() {
+            return 0;
+        }
+
+        @Override
+        public int getUsedBlocks() {
+            return 0;
+        }
+
+        @Override
+        public int getUsedEntries() {
+            return 0;
+        }
+
+        @Override
+        public void setUsage(long bytes, int blocks, int entries) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getAccountedLength() {
+            return dataLength;
+        }
+
+        @Override
+        public void setAccountedLength(int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getQuota() {
+            return NO_QUOTA;
+        }
+
+        @Override
+        public void setQuota(long quota) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getPathHash() {
+            return 0;
+        }
+
+        @Override
+        public void setPathHash(long hash) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getGeneration() {
+            return 0;
+        }
+
+        @Override
+        public void setGeneration(long generation) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileAttributes readAttributes() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
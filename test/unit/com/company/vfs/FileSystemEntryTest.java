@@ -1,5 +1,6 @@
 package com.company.vfs;
 
+import com.company.vfs.Metadata.Type;
 import com.company.vfs.exception.FileFormatException;
 import org.junit.Test;
 
@@ -14,7 +15,7 @@ public class FileSystemEntryTest {
 
     @Test
     public void readWrite() throws Exception {
-        FileSystemEntry entry = new FileSystemEntry(42, "Batman");
+        FileSystemEntry entry = new FileSystemEntry(42, "Batman", Type.Directory);
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
 
@@ -26,6 +27,8 @@ public class FileSystemEntryTest {
 
         assertEquals(entry.getName(), result.getName());
         assertEquals(entry.getMetadataId(), result.getMetadataId());
+        assertEquals(entry.getType(), result.getType());
+        assertEquals(outputStream.size(), entry.getRecordLength());
     }
 
     @Test(expected = FileFormatException.class)
@@ -35,6 +38,13 @@ public class FileSystemEntryTest {
         FileSystemEntry.read(dataInputStream);
     }
 
+    @Test(expected = FileFormatException.class)
+    public void readShouldThrow_When_InvalidType() throws Exception {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(new byte[] { 0, 0, 0, 0, 42, 0, 0, 0, 0} );
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        FileSystemEntry.read(dataInputStream);
+    }
+
     @Test(expected = FileFormatException.class)
     public void readShouldThrow_When_NotEnoughData() throws Exception {
         ByteArrayInputStream inputStream = new ByteArrayInputStream(new byte[] { } );
@@ -5,6 +5,10 @@ import com.company.vfs.exception.BlockLimitExceededException;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -52,6 +56,152 @@ public class MetadataManagerTest {
         }
     }
 
+    @Test
+    public void allocateMany() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager blockManager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+        blockManager.allocateBlockChain();
+        blockManager.allocateBlockChain();
+
+        MetadataManager manager = new MetadataManager(blockManager, dataBlocksStorage);
+        Metadata single = manager.allocateMetadata(Type.File);
+
+        List<Metadata> metadataList = manager.allocateMetadata(Arrays.asList(Type.File, Type.Directory, Type.File));
+        assertThat(metadataList.size(), is(3));
+        assertThat(metadataList.get(1).getType(), is(Type.Directory));
+        assertThat(metadataList.get(2).getId(), is(single.getId() + 3));
+
+        MetadataManager reopened = new MetadataManager(blockManager, dataBlocksStorage);
+        assertThat(reopened.getMetadataCount(), is(5));
+        assertThat(reopened.getMetadata(metadataList.get(1).getId()).getType(), is(Type.Directory));
+    }
+
+    @Test
+    public void deallocateMany() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager blockManager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+        blockManager.allocateBlockChain();
+        blockManager.allocateBlockChain();
+
+        MetadataManager manager = new MetadataManager(blockManager, dataBlocksStorage);
+
+        List<Metadata> metadataList = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            metadataList.add(manager.allocateMetadata(Type.File));
+        }
+        Metadata kept = metadataList.remove(10);
+
+        manager.deallocateMetadata(metadataList);
+        assertThat(manager.getMetadataCount(), is(2));
+        assertThat(manager.getMetadata(kept.getId()), is(kept));
+        assertEquals(null, manager.getMetadata(1));
+
+        MetadataManager reopened = new MetadataManager(blockManager, dataBlocksStorage);
+        assertThat(reopened.getMetadataCount(), is(2));
+        assertThat(reopened.allocateMetadata(Type.File).getId(), is(1));
+    }
+
+    @Test
+    public void allocateShouldReuseLowestFreeId() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager blockManager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+        blockManager.allocateBlockChain();
+        blockManager.allocateBlockChain();
+
+        MetadataManager manager = new MetadataManager(blockManager, dataBlocksStorage);
+        List<Metadata> metadataList = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            metadataList.add(manager.allocateMetadata(Type.File));
+        }
+
+        manager.deallocateMetadata(metadataList.get(14));
+        manager.deallocateMetadata(Arrays.asList(metadataList.get(4), metadataList.get(9)));
+        assertThat(manager.allocateMetadata(Collections.emptyList()).size(), is(0));
+        assertThat(manager.allocateMetadata(Type.File).getId(), is(5));
+
+        List<Metadata> allocated = manager.allocateMetadata(Arrays.asList(Type.File, Type.File, Type.File));
+        assertThat(allocated.get(0).getId(), is(10));
+        assertThat(allocated.get(1).getId(), is(15));
+        assertThat(allocated.get(2).getId(), is(21));
+
+        MetadataManager reopened = new MetadataManager(blockManager, dataBlocksStorage);
+        assertThat(reopened.getMetadataCount(), is(22));
+        assertThat(reopened.allocateMetadata(Type.File).getId(), is(22));
+    }
+
+    @Test
+    public void deallocateShouldTruncateLazily() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager blockManager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+        blockManager.allocateBlockChain();
+        blockManager.allocateBlockChain();
+
+        MetadataManager manager = new MetadataManager(blockManager, dataBlocksStorage);
+        int metadataPerBlock = 4096 / 56;
+        List<Metadata> metadataList = new ArrayList<>();
+        for (int i = 1; i <= metadataPerBlock; ++i) {
+            metadataList.add(manager.allocateMetadata(Type.File));
+        }
+        assertThat(blockManager.getBlockCount(), is(3));
+
+        // top id is in second metadata block, which is kept while less than half of chain is used
+        for (int i = 0; i < 10; ++i) {
+            manager.deallocateMetadata(metadataList.get(metadataPerBlock - 1));
+            metadataList.set(metadataPerBlock - 1, manager.allocateMetadata(Type.File));
+            assertThat(blockManager.getBlockCount(), is(3));
+        }
+
+        manager.deallocateMetadata(metadataList.subList(metadataPerBlock / 2, metadataPerBlock));
+        assertThat(blockManager.getBlockCount(), is(3));
+
+        manager.deallocateMetadata(metadataList.subList(0, metadataPerBlock / 2));
+        assertThat(blockManager.getBlockCount(), is(2));
+        assertThat(manager.getMetadataCount(), is(1));
+    }
+
+    @Test
+    public void cacheShouldEvict_When_CapacityExceeded() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
+        ByteStorage dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 8));
+        BlockManager blockManager = new BlockManager(4096, 8, storage, dataBlocksStorage);
+        blockManager.allocateBlockChain();
+        blockManager.allocateBlockChain();
+
+        MetadataManager manager = new MetadataManager(blockManager, dataBlocksStorage, 4);
+        List<Metadata> metadataList = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            Metadata metadata = manager.allocateMetadata(Type.File);
+            metadata.setDataLength(i);
+            metadataList.add(metadata);
+        }
+
+        CacheStatistics statistics = manager.getCacheStatistics();
+        assertThat(statistics.getSize(), is(4));
+        assertThat(statistics.getEvictions(), is(16L));
+
+        // evicted metadata still referenced is returned again, so it's never duplicated
+        for (Metadata metadata : metadataList) {
+            assertSame(metadata, manager.getMetadata(metadata.getId()));
+        }
+        assertThat(manager.getCacheStatistics().getMisses(), is(0L));
+
+        MetadataManager reopened = new MetadataManager(blockManager, dataBlocksStorage, 4);
+        for (int i = 0; i < 20; ++i) {
+            Metadata metadata = reopened.getMetadata(metadataList.get(i).getId());
+            assertThat(metadata.getDataLength(), is(i));
+            assertThat(metadata.getType(), is(Type.File));
+        }
+        assertThat(reopened.getCacheStatistics().getMisses(), is(20L));
+        assertThat(reopened.getCacheStatistics().getEvictions(), is(16L));
+
+        reopened.getMetadata(metadataList.get(19).getId());
+        assertThat(reopened.getCacheStatistics().getHits(), is(1L));
+    }
+
     @Test(expected = BlockLimitExceededException.class)
     public void allocateShouldThrow_When_LimitExceeded() throws Exception {
         ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(8)));
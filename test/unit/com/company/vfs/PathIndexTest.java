@@ -0,0 +1,75 @@
+package com.company.vfs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.*;
+
+public class PathIndexTest {
+
+    private BlockManager blockManager;
+    private ByteStorage dataBlocksStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        ByteStorage storage = new ByteBufferByteStorage(ByteBuffer.allocate(BlockManager.size(64)));
+        dataBlocksStorage = new ByteBufferByteStorage(ByteBuffer.allocate(4096 * 64));
+        blockManager = new BlockManager(4096, 64, storage, dataBlocksStorage);
+
+        for(int i = 0; i <= PathIndex.BLOCK_CHAIN; ++i) {
+            blockManager.allocateBlockChain();
+        }
+    }
+
+    @Test
+    public void hash() {
+        assertThat(PathIndex.hash("/a/b/c"), is(PathIndex.hash("a//b/c/")));
+        assertThat(PathIndex.hash("/a/bc"), not(PathIndex.hash("/ab/c")));
+        assertThat(PathIndex.hash("/"), is(PathIndex.hash("")));
+    }
+
+    @Test
+    public void putGetRemove() throws Exception {
+        PathIndex index = PathIndex.create(blockManager, dataBlocksStorage);
+
+        // hashes share low bits in groups of 4, so clusters are formed and removed from their middle
+        int count = 2000;
+        for(int i = 1; i <= count; ++i) {
+            index.put(hashOf(i), i);
+        }
+        index.put(hashOf(1), 1);
+        assertThat(index.size(), is(count));
+
+        for(int i = 1; i <= count; i += 3) {
+            index.remove(hashOf(i), i);
+        }
+
+        PathIndex reopened = PathIndex.open(blockManager, dataBlocksStorage);
+        for(int i = 1; i <= count; ++i) {
+            int expected = (i - 1) % 3 == 0 ? -1 : i;
+            int id = i;
+            assertThat(reopened.get(hashOf(i), candidate -> candidate == id), is(expected));
+        }
+    }
+
+    @Test
+    public void getShouldSkipUnconfirmed() throws Exception {
+        PathIndex index = PathIndex.create(blockManager, dataBlocksStorage);
+        index.put(42, 1);
+        index.put(42, 2);
+
+        assertThat(index.get(42, candidate -> candidate == 2), is(2));
+        assertThat(index.get(42, candidate -> false), is(-1));
+
+        index.remove(42, 1);
+        assertThat(index.get(42, candidate -> true), is(2));
+    }
+
+    private static long hashOf(int i) {
+        return ((long) i << 32) | (i / 4);
+    }
+}
@@ -3,6 +3,7 @@ package com.company.vfs;
 import org.junit.Test;
 
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 
@@ -57,4 +58,40 @@ public class PathUtilsTest {
         assertThat(PathUtils.getPathComponents("foo/bar/log.txt"), is(Arrays.asList("foo", "bar", "log.txt")));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void componentBoundaries() throws Exception {
+        String path = "//foo/bar//log.txt/";
+        int start = PathUtils.componentStart(path, 0);
+        assertThat(start, is(2));
+        assertThat(PathUtils.componentEnd(path, start), is(5));
+
+        start = PathUtils.componentStart(path, 5);
+        assertThat(path.substring(start, PathUtils.componentEnd(path, start)), is("bar"));
+
+        start = PathUtils.componentStart(path, PathUtils.componentEnd(path, start));
+        assertThat(path.substring(start, PathUtils.componentEnd(path, start)), is("log.txt"));
+
+        assertThat(PathUtils.componentStart(path, PathUtils.componentEnd(path, start)), is(path.length()));
+    }
+
+    @Test
+    public void utf8Encoding() throws Exception {
+        String[] names = { "log.txt", "Новая Папка 547", "竜座", "hyvää huomenta", "\uD83D\uDE00 smile", "bad\uD800" };
+        for(String name : names) {
+            byte[] expected = name.getBytes(StandardCharsets.UTF_8);
+            assertThat(PathUtils.utf8Length(name, 0, name.length()), is(expected.length));
+
+            byte[] encoded = new byte[expected.length];
+            int position = 0;
+            for(int i = 0; i < name.length(); ++i) {
+                int length = PathUtils.utf8CharLength(name, i, name.length());
+                int codePoint = length == 4 ? name.codePointAt(i++) :
+                        length == 1 && name.charAt(i) >= 0x80 ? '?' : name.charAt(i);
+                for(int k = 0; k < length; ++k) {
+                    encoded[position++] = PathUtils.utf8Byte(codePoint, length, k);
+                }
+            }
+            assertThat(encoded, is(expected));
+        }
+    }
+}